@@ -18,34 +18,46 @@ package com.bjason.palecco;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
 import android.transition.TransitionSet;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
-
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.RequestManager;
-import com.bumptech.glide.load.DataSource;
-import com.bumptech.glide.load.engine.GlideException;
-import com.bumptech.glide.request.RequestListener;
-import com.bumptech.glide.request.target.Target;
+import android.widget.TextView;
+
+import com.bjason.palecco.image.LoadScheduler;
+import com.bjason.palecco.image.ThumbnailCache;
+import com.bjason.palecco.library.ImageRecord;
+import com.bjason.palecco.library.ImageRepository;
+import com.bjason.palecco.metrics.Histogram;
+import com.bjason.palecco.metrics.Metrics;
+import com.bjason.palecco.palette.LibraryOrder;
+import com.bjason.palecco.palette.Palette;
 import com.google.android.material.card.MaterialCardView;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 
 /**
  * A fragment for displaying a grid of images.
  */
-public class GridAdapter extends RecyclerView.Adapter<GridAdapter.ImageViewHolder> {
+public class GridAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     /**
      * A listener that is attached to all ViewHolders to handle image loading events and clicks.
@@ -59,33 +71,265 @@ public class GridAdapter extends RecyclerView.Adapter<GridAdapter.ImageViewHolde
         void onItemLongClicked(View view, int adapterPosition);
     }
 
-    private final RequestManager requestManager;
+    private static final int TYPE_IMAGE = 0;
+    private static final int TYPE_HEADER = 1;
+    /**
+     * Starts the items of section headers, followed by the name of their group. Ids are file
+     * names, which cannot contain a slash.
+     */
+    private static final String HEADER_PREFIX = "/";
+
+    private static final Histogram BIND_MICROS = Metrics.getInstance().histogram("grid.bind.micros");
+    private static final Histogram ORDER_MICROS =
+            Metrics.getInstance().histogram("grid.order.micros");
+
+    /**
+     * Ids are stable and images never change, so two equal ids are the same card. Headers of
+     * the same group are the same header.
+     */
+    private static final DiffUtil.ItemCallback<String> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<String>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull String oldId, @NonNull String newId) {
+                    return oldId.equals(newId);
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull String oldId, @NonNull String newId) {
+                    return oldId.equals(newId);
+                }
+            };
+
+    private final ThumbnailCache thumbnails;
     private final ViewHolderListener viewHolderListener;
+    private final ImageRepository repository;
+    /** Snapshots of the repository's ids with section headers, diffed in the background. */
+    private final AsyncListDiffer<String> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** Adapter positions by id, built on demand for the current list. */
+    @Nullable
+    private Map<String, Integer> positions;
+    private boolean refreshPending;
+    private LibraryOrder.Mode mode;
+
+    /**
+     * Constructs a new grid adapter for the given {@link Fragment}, showing the images sorted
+     * by {@code mode}.
+     */
+    public GridAdapter(Fragment fragment, LibraryOrder.Mode mode) {
+        this.thumbnails = ThumbnailCache.getInstance(fragment.requireContext());
+        this.repository = ImageRepository.getInstance(fragment.requireContext());
+        this.viewHolderListener = new ViewHolderListenerImpl(fragment, fragment.getActivity(),
+                this, repository);
+        this.mode = mode;
+        setHasStableIds(true);
+        // The first list is shown at once, without diffing.
+        differ.submitList(currentItems());
+    }
+
+    public LibraryOrder.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sorts and groups the cards by {@code mode}. Only the small palette traits are sorted and
+     * cards are moved by the diff, so no image is loaded again.
+     */
+    public void setMode(LibraryOrder.Mode mode) {
+        if (mode != this.mode) {
+            this.mode = mode;
+            refresh();
+        }
+    }
+
+    /**
+     * Shows the current images of the repository. Calls made before the next frame are
+     * coalesced into one snapshot, so a batch of imports is diffed, and its new cards bound,
+     * only once. Cards that did not move are not bound again.
+     */
+    public void refresh() {
+        if (refreshPending) {
+            return;
+        }
+        refreshPending = true;
+        mainHandler.post(() -> {
+            refreshPending = false;
+            differ.submitList(currentItems(), () -> positions = null);
+        });
+    }
+
+    /**
+     * Returns the ids of the repository in the current order, with a header before each
+     * section.
+     */
+    private List<String> currentItems() {
+        long start = System.nanoTime();
+        LibraryOrder order = repository.order(mode);
+        ORDER_MICROS.recordSince(start);
+        List<String> ids = order.getIds();
+        if (order.getSectionCount() == 0) {
+            return ids;
+        }
+        List<String> items = new ArrayList<>(ids.size() + order.getSectionCount());
+        for (int section = 0; section < order.getSectionCount(); section++) {
+            int end = section + 1 < order.getSectionCount()
+                    ? order.getSectionStart(section + 1) : ids.size();
+            items.add(HEADER_PREFIX + order.getSection(section).name());
+            items.addAll(ids.subList(order.getSectionStart(section), end));
+        }
+        return items;
+    }
+
+    /** Returns whether the item at {@code position} is a section header, spanning the grid. */
+    public boolean isHeader(int position) {
+        return getId(position).startsWith(HEADER_PREFIX);
+    }
+
+    /**
+     * Binds the card of {@code id} again, e.g. because its record was loaded.
+     */
+    public void notifyImageChanged(String id) {
+        int position = getPosition(id);
+        if (position >= 0) {
+            notifyItemChanged(position);
+        }
+    }
+
+    /** Returns the id of the card or header at {@code position}; see {@link #isHeader}. */
+    public String getId(int position) {
+        return differ.getCurrentList().get(position);
+    }
 
     /**
-     * Constructs a new grid adapter for the given {@link Fragment}.
+     * Returns the adapter position of {@code id}, or -1 if the grid does not show it (yet).
+     * Differs from the repository position while a diff is pending.
      */
-    public GridAdapter(Fragment fragment) {
-        this.requestManager = Glide.with(fragment);
-        this.viewHolderListener = new ViewHolderListenerImpl(fragment, fragment.getActivity());
+    public int getPosition(String id) {
+        if (positions == null) {
+            List<String> ids = differ.getCurrentList();
+            positions = new HashMap<>(ids.size() * 2);
+            for (int i = 0; i < ids.size(); i++) {
+                positions.put(ids.get(i), i);
+            }
+        }
+        Integer position = positions.get(id);
+        return position != null ? position : -1;
+    }
+
+    /**
+     * Returns the adapter position of the image at {@link MainActivity#currentPosition}, or -1
+     * if the grid does not show it.
+     */
+    public int getCurrentPosition() {
+        int current = MainActivity.currentPosition;
+        return current >= 0 && current < repository.size()
+                ? getPosition(repository.getId(current)) : -1;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return isHeader(position) ? TYPE_HEADER : TYPE_IMAGE;
     }
 
     @NonNull
     @Override
-    public ImageViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(parent.getContext())
-                .inflate(R.layout.image_card, parent, false);
-        return new ImageViewHolder(view, requestManager, viewHolderListener);
+    public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        LayoutInflater inflater = LayoutInflater.from(parent.getContext());
+        if (viewType == TYPE_HEADER) {
+            return new HeaderViewHolder(
+                    inflater.inflate(R.layout.grid_section_header, parent, false));
+        }
+        View view = inflater.inflate(R.layout.image_card, parent, false);
+        return new ImageViewHolder(view, thumbnails, viewHolderListener, repository);
     }
 
     @Override
-    public void onBindViewHolder(ImageViewHolder holder, int position) {
-        holder.onBind();
+    public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        String id = getId(position);
+        if (holder instanceof HeaderViewHolder) {
+            String group = id.substring(HEADER_PREFIX.length());
+            ((HeaderViewHolder) holder).title.setText(
+                    titleOf(LibraryOrder.Group.valueOf(group)));
+            return;
+        }
+        long start = System.nanoTime();
+        ((ImageViewHolder) holder).onBind(id);
+        BIND_MICROS.recordSince(start);
+    }
+
+    /** Returns the section title of {@code group}. */
+    @StringRes
+    private static int titleOf(LibraryOrder.Group group) {
+        switch (group) {
+            case ALL:
+                return R.string.group_all;
+            case RED:
+                return R.string.group_red;
+            case ORANGE:
+                return R.string.group_orange;
+            case YELLOW:
+                return R.string.group_yellow;
+            case GREEN:
+                return R.string.group_green;
+            case CYAN:
+                return R.string.group_cyan;
+            case BLUE:
+                return R.string.group_blue;
+            case PURPLE:
+                return R.string.group_purple;
+            case PINK:
+                return R.string.group_pink;
+            case DARK:
+                return R.string.group_dark;
+            case MEDIUM:
+                return R.string.group_medium;
+            case LIGHT:
+                return R.string.group_light;
+            case VIVID:
+                return R.string.group_vivid;
+            case PASTEL:
+                return R.string.group_pastel;
+            case MUTED:
+                return R.string.group_muted;
+            case DEEP:
+                return R.string.group_deep;
+            case NEUTRAL:
+                return R.string.group_neutral;
+            case UNSORTED:
+                return R.string.group_unsorted;
+            default:
+                throw new IllegalArgumentException("Unknown group: " + group);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        if (holder instanceof ImageViewHolder) {
+            ((ImageViewHolder) holder).unbind();
+        }
     }
 
     @Override
     public int getItemCount() {
-        return GridFragment.mBitmaps.size();
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableIdOf(getId(position));
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of {@code id}; collisions are practically impossible at the
+     * size of a photo library.
+     */
+    private static long stableIdOf(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
     }
 
 
@@ -97,17 +341,22 @@ public class GridAdapter extends RecyclerView.Adapter<GridAdapter.ImageViewHolde
         private Fragment fragment;
         private AtomicBoolean enterTransitionStarted;
         private Context mContext;
+        private final GridAdapter adapter;
+        private final ImageRepository repository;
 
-        ViewHolderListenerImpl(Fragment fragment, Context context) {
+        ViewHolderListenerImpl(Fragment fragment, Context context, GridAdapter adapter,
+                               ImageRepository repository) {
             this.fragment = fragment;
             this.enterTransitionStarted = new AtomicBoolean();
             mContext = context;
+            this.adapter = adapter;
+            this.repository = repository;
         }
 
         @Override
         public void onLoadCompleted(ImageView view, int position) {
             // Call startPostponedEnterTransition only when the 'selected' image loading is completed.
-            if (MainActivity.currentPosition != position) {
+            if (adapter.getCurrentPosition() != position) {
                 return;
             }
             if (enterTransitionStarted.getAndSet(true)) {
@@ -126,8 +375,16 @@ public class GridAdapter extends RecyclerView.Adapter<GridAdapter.ImageViewHolde
          */
         @Override
         public void onItemClicked(View view, int position) {
-            // Update the position.
-            MainActivity.currentPosition = position;
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            // The pager goes through the library, not the sorted grid. The card may show an
+            // image that was just removed, before the diff takes it away.
+            int libraryPosition = repository.indexOf(adapter.getId(position));
+            if (libraryPosition < 0) {
+                return;
+            }
+            MainActivity.currentPosition = libraryPosition;
 
             // Exclude the clicked card from the exit transition (e.g. the card will disappear immediately
             // instead of fading out with the rest to prevent an overlapping animation of fade and move).
@@ -146,15 +403,20 @@ public class GridAdapter extends RecyclerView.Adapter<GridAdapter.ImageViewHolde
 
         @Override
         public void onItemLongClicked(View view, int adapterPosition) {
-            if (GridFragment.currentSelected == adapterPosition) {
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                return;
+            }
+            // By id, as positions shift when the grid is refreshed.
+            String id = adapter.getId(adapterPosition);
+            if (id.equals(GridFragment.currentSelected)) {
                 // deselect
                 ((GridFragment) fragment).setNormalFab();
             } else {
-                if (GridFragment.currentSelected != -1) {
+                if (GridFragment.currentSelected != null) {
                     // is already selected, then deselect the previous one
                     ((MaterialCardView) GridFragment.currentSelectedView).setStrokeWidth(0);
                 }
-                GridFragment.currentSelected = adapterPosition;
+                GridFragment.currentSelected = id;
                 GridFragment.currentSelectedView = view;
 
                 MaterialCardView v = (MaterialCardView) view;
@@ -166,23 +428,48 @@ public class GridAdapter extends RecyclerView.Adapter<GridAdapter.ImageViewHolde
         }
     }
 
+    /**
+     * ViewHolder for the title of a section.
+     */
+    static class HeaderViewHolder extends RecyclerView.ViewHolder {
+
+        private final TextView title;
+
+        HeaderViewHolder(View itemView) {
+            super(itemView);
+            this.title = (TextView) itemView;
+        }
+    }
+
     /**
      * ViewHolder for the grid's images.
      */
     static class ImageViewHolder extends RecyclerView.ViewHolder implements
-            View.OnClickListener, View.OnLongClickListener {
+            View.OnClickListener, View.OnLongClickListener, ImageRepository.PaletteSubscriber {
 
         private final ImageView image;
-        private final RequestManager requestManager;
+        private final SwatchStripView swatches;
+        private final ThumbnailCache thumbnails;
         private final ViewHolderListener viewHolderListener;
+        private final ImageRepository repository;
         private Context mContext;
-
-        ImageViewHolder(View itemView, RequestManager requestManager,
-                        ViewHolderListener viewHolderListener) {
+        /** Key of the thumbnail this card shows or waits for. */
+        @Nullable
+        private String thumbnailKey;
+        @Nullable
+        private LoadScheduler.Request thumbnailLoad;
+        /** Id whose provisional palettes this card shows while its record is loading. */
+        @Nullable
+        private String paletteId;
+
+        ImageViewHolder(View itemView, ThumbnailCache thumbnails,
+                        ViewHolderListener viewHolderListener, ImageRepository repository) {
             super(itemView);
             this.image = itemView.findViewById(R.id.card_image);
-            this.requestManager = requestManager;
+            this.swatches = itemView.findViewById(R.id.card_swatches);
+            this.thumbnails = thumbnails;
             this.viewHolderListener = viewHolderListener;
+            this.repository = repository;
             this.mContext = itemView.getContext();
 
             itemView.findViewById(R.id.card_view).setOnClickListener(this);
@@ -195,42 +482,100 @@ public class GridAdapter extends RecyclerView.Adapter<GridAdapter.ImageViewHolde
          * The binding will load the image into the image view, as well as set its transition name for
          * later.
          */
-        void onBind() {
-            int adapterPosition = getAdapterPosition();
-            setImage(adapterPosition);
-            // Set the string value of the image resource as the unique transition name for the view.
-            image.setTransitionName(String.valueOf(GridFragment.mBitmaps.get(adapterPosition)));
-        }
-
-        void setImage(final int adapterPosition) {
-            Bitmap bitmap = GridFragment.mBitmaps.get(adapterPosition);
-            // Load the image with Glide to prevent OOM error when the image drawables are very large.
-            requestManager
-                    .load(bitmap)
-                    .listener(new RequestListener<Drawable>() {
-                        @Override
-                        public boolean onLoadFailed(@Nullable GlideException e, Object model,
-                                                    Target<Drawable> target, boolean isFirstResource) {
-                            viewHolderListener.onLoadCompleted(image, adapterPosition);
-                            return false;
-                        }
-
-                        @Override
-                        public boolean onResourceReady(Drawable resource, Object model, Target<Drawable>
-                                target, DataSource dataSource, boolean isFirstResource) {
-                            viewHolderListener.onLoadCompleted(image, adapterPosition);
-                            return false;
-                        }
-                    })
-                    .into(image);
+        void onBind(String id) {
+            setImage(id, getAdapterPosition());
+            // Set the stable image id as the unique transition name for the view.
+            image.setTransitionName(id);
+        }
+
+        void setImage(String id, final int adapterPosition) {
+            // The record is null until the metadata of its page has been loaded; the card is
+            // bound again then.
+            ImageRecord record = repository.getRecord(id);
+            unsubscribe();
+            if (record != null) {
+                swatches.setPalette(record.getPalette());
+            } else {
+                // Show coarse swatches while the palette is refined.
+                paletteId = id;
+                swatches.setPalette(repository.subscribe(paletteId, this));
+            }
+
+            loadThumbnail(repository.getFile(id), adapterPosition);
 
             // width is fixed to 200
             // then new height is 200*height/width
-            float heightInDp = ImageUtil.pxFromDp(mContext, 200f * (float) bitmap.getHeight() / (float) bitmap.getWidth());
+            float aspectRatio = record != null ? record.getAspectRatio() : 1f;
+            float heightInDp = ImageUtil.pxFromDp(mContext, 200f * aspectRatio);
             image.getLayoutParams().height = (int) heightInDp;
             image.requestLayout();
         }
 
+        private void loadThumbnail(File file, final int adapterPosition) {
+            String key = ThumbnailCache.keyOf(file);
+            if (key.equals(thumbnailKey) && thumbnailLoad != null) {
+                // Rebound while loading, e.g. because the record arrived; keep waiting.
+                return;
+            }
+            cancelThumbnail();
+            thumbnailKey = key;
+            Bitmap cached = thumbnails.getFromMemory(key);
+            if (cached != null) {
+                image.setImageBitmap(cached);
+                viewHolderListener.onLoadCompleted(image, adapterPosition);
+                return;
+            }
+            image.setImageDrawable(null);
+            thumbnailLoad = thumbnails.load(file, key, new ThumbnailCache.Callback() {
+                @Override
+                public void onThumbnailReady(String key, Bitmap bitmap) {
+                    if (key.equals(thumbnailKey)) {
+                        thumbnailLoad = null;
+                        image.setImageBitmap(bitmap);
+                        viewHolderListener.onLoadCompleted(image, adapterPosition);
+                    }
+                }
+
+                @Override
+                public void onThumbnailFailed(String key, Exception error) {
+                    if (key.equals(thumbnailKey)) {
+                        thumbnailLoad = null;
+                        viewHolderListener.onLoadCompleted(image, adapterPosition);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onPaletteUpdated(String id, Palette palette) {
+            if (id.equals(paletteId)) {
+                swatches.setPalette(palette);
+            }
+        }
+
+        /**
+         * Stops loading the thumbnail and palette of the previously bound image.
+         */
+        void unbind() {
+            cancelThumbnail();
+            unsubscribe();
+        }
+
+        private void cancelThumbnail() {
+            if (thumbnailLoad != null) {
+                thumbnailLoad.cancel();
+                thumbnailLoad = null;
+            }
+            thumbnailKey = null;
+        }
+
+        private void unsubscribe() {
+            if (paletteId != null) {
+                repository.unsubscribe(paletteId, this);
+                paletteId = null;
+            }
+        }
+
         @Override
         public void onClick(View view) {
             // Let the listener start the ImagePagerFragment.
@@ -19,35 +19,41 @@ package com.bjason.palecco;
 import android.Manifest;
 import android.app.Activity;
 import android.app.Dialog;
+import android.content.ClipData;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.provider.MediaStore;
 import android.transition.TransitionInflater;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnLayoutChangeListener;
 import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.widget.ImageButton;
-
+import android.widget.ProgressBar;
+
+import com.bjason.palecco.image.ThumbnailCache;
+import com.bjason.palecco.ingest.IngestionSource;
+import com.bjason.palecco.library.ImageRecord;
+import com.bjason.palecco.library.ImageRepository;
+import com.bjason.palecco.library.ImportBatch;
+import com.bjason.palecco.palette.LibraryOrder;
+import com.bjason.palecco.render.PaletteExporter;
+import com.bjason.palecco.render.Template;
 import com.google.android.material.card.MaterialCardView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.snackbar.Snackbar;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -57,6 +63,7 @@ import androidx.annotation.Nullable;
 import androidx.core.app.SharedElementCallback;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import static android.content.ContentValues.TAG;
@@ -67,46 +74,140 @@ import static android.content.ContentValues.TAG;
 public class GridFragment extends Fragment {
     private static final int REQUEST_CODE_ACTION_ADD_FROM_STORAGE = 0;
     private static final int REQUEST_CODE_ACTION_ADD_FROM_CAMERA = 1;
-    private static final String IMAGE_ID_DATAHOLDER = "key.IMAGE";
-    private static final String BUNDLE_SAVED_BITMAPS = "bitmaps";
-    public static final String DIR_NAME_FOR_IMAGE = "Images";
-
-    public static ArrayList<Bitmap> mBitmaps;
-    private View mView;
+    private static final int REQUEST_CODE_LIVE_CAMERA = 2;
+    /** Widest exported picture, i.e. 4K. */
+    private static final int EXPORT_MAX_WIDTH = 3840;
+    private static final String PREFERENCES_NAME = "grid";
+    private static final String KEY_SORT_MODE = "sortMode";
+    /** Cards whose thumbnails are loaded ahead of a scroll: four rows of two. */
+    private static final int PREFETCH_CARDS = 8;
+
+    private ImageRepository mRepository;
+    /** The multiple import in progress, which can be cancelled from its snackbar. */
+    @Nullable
+    private ImportBatch mImportBatch;
+    private PaletteExporter mExporter;
     private GridAdapter mAdapter;
+    private GridPrefetcher mPrefetcher;
 
     private RecyclerView recyclerView;
 
-    public static int currentSelected;
+    /** The id of the image selected by a long press, or null. */
+    @Nullable
+    public static String currentSelected;
     public static View currentSelectedView;
 
+    private final ImageRepository.Observer mLibraryObserver = new ImageRepository.Observer() {
+        @Override
+        public void onLibraryOpened() {
+            mAdapter.refresh();
+            updateEmptyLibPrompt();
+        }
+
+        @Override
+        public void onImageInserted(int position) {
+            addCard(position);
+        }
+
+        @Override
+        public void onImageAlreadyAdded(int position) {
+            int adapterPosition = mAdapter.getPosition(mRepository.getId(position));
+            if (adapterPosition >= 0) {
+                recyclerView.scrollToPosition(adapterPosition);
+            }
+            Snackbar.make(getView(), "This image is already in the library",
+                    Snackbar.LENGTH_LONG).show();
+        }
+
+        @Override
+        public void onImageRemoved(int position) {
+            mAdapter.refresh();
+            updateEmptyLibPrompt();
+        }
+
+        @Override
+        public void onRecordLoaded(int position) {
+            mAdapter.notifyImageChanged(mRepository.getId(position));
+            if (mAdapter.getMode() != LibraryOrder.Mode.ADDED) {
+                // The palette may have just become known; move the card to its section.
+                mAdapter.refresh();
+            }
+        }
+
+        @Override
+        public void onProgress(int completed, int total) {
+            ProgressBar progressBar = getActivity().findViewById(R.id.ingestProgress);
+            if (completed >= total) {
+                progressBar.setVisibility(View.GONE);
+            } else {
+                progressBar.setMax(total);
+                progressBar.setProgress(completed);
+                progressBar.setVisibility(View.VISIBLE);
+            }
+        }
+
+        @Override
+        public void onOrderChanged() {
+            if (mAdapter.getMode() != LibraryOrder.Mode.ADDED) {
+                mAdapter.refresh();
+            }
+        }
+
+        @Override
+        public void onImportFinished(ImportBatch batch) {
+            if (batch == mImportBatch) {
+                mImportBatch = null;
+            }
+            if (getView() == null) {
+                return;
+            }
+            int failed = batch.getFailures().size();
+            if (batch.getCancelledCount() > 0) {
+                Snackbar.make(getView(), "Import cancelled, " + batch.getImportedCount()
+                        + " of " + batch.size() + " images added", Snackbar.LENGTH_LONG).show();
+            } else if (failed == batch.size()) {
+                Snackbar.make(getView(), "Something went wrong", Snackbar.LENGTH_LONG).show();
+            } else if (failed > 0) {
+                Snackbar.make(getView(), failed + " of " + batch.size()
+                        + " images could not be imported", Snackbar.LENGTH_LONG).show();
+            } else if (batch.size() > 1) {
+                Snackbar.make(getView(), batch.getImportedCount() + " images added",
+                        Snackbar.LENGTH_SHORT).show();
+            }
+        }
+    };
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
                              @Nullable Bundle savedInstanceState) {
 
         recyclerView = (RecyclerView) inflater.inflate(R.layout.fragment_grid, container, false);
-        mAdapter = new GridAdapter(this);
+        mRepository = ImageRepository.getInstance(requireContext());
+        mExporter = PaletteExporter.getInstance(requireContext());
+        mAdapter = new GridAdapter(this, readSortMode());
         recyclerView.setAdapter(mAdapter);
+        // Section headers take a whole row.
+        final GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+        layoutManager.setSpanSizeLookup(new GridLayoutManager.SpanSizeLookup() {
+            @Override
+            public int getSpanSize(int position) {
+                return mAdapter.isHeader(position) ? layoutManager.getSpanCount() : 1;
+            }
+        });
+        mPrefetcher = new GridPrefetcher(mAdapter, ThumbnailCache.getInstance(requireContext()),
+                mRepository, PREFETCH_CARDS);
+        recyclerView.addOnScrollListener(mPrefetcher);
+        setHasOptionsMenu(true);
+        mRepository.setObserver(mLibraryObserver);
 
-        /* set images list */
-        if (savedInstanceState != null) {
-            mBitmaps = (ArrayList<Bitmap>) WeakDataHolder.getInstance().getData(IMAGE_ID_DATAHOLDER);
-        } else {
-            mBitmaps = new ArrayList<>();
-        }
-
-        try {
-            addCards();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        updateEmptyLibPrompt();
 
         requireActivity().getOnBackPressedDispatcher().addCallback(getViewLifecycleOwner(), new OnBackPressedCallback(true) {
             @Override
             public void handleOnBackPressed() {
                 // redirect back press to deselect when something is selected
-                if (currentSelected != -1) {
+                if (currentSelected != null) {
                     setNormalFab();
                 }
             }
@@ -122,59 +223,103 @@ public class GridFragment extends Fragment {
     }
 
 
+    @Override
+    public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
+        inflater.inflate(R.menu.menu_grid, menu);
+        menu.findItem(menuItemOf(mAdapter.getMode())).setChecked(true);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        LibraryOrder.Mode mode = modeOf(item.getItemId());
+        if (mode == null) {
+            return super.onOptionsItemSelected(item);
+        }
+        item.setChecked(true);
+        // The selected card view is reused for other images once the new order moves the cards.
+        setNormalFab();
+        mAdapter.setMode(mode);
+        requireContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_SORT_MODE, mode.name())
+                .apply();
+        return true;
+    }
+
+    private LibraryOrder.Mode readSortMode() {
+        String name = requireContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .getString(KEY_SORT_MODE, LibraryOrder.Mode.ADDED.name());
+        try {
+            return LibraryOrder.Mode.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return LibraryOrder.Mode.ADDED;
+        }
+    }
+
+    private static int menuItemOf(LibraryOrder.Mode mode) {
+        switch (mode) {
+            case HUE:
+                return R.id.sort_hue;
+            case LIGHTNESS:
+                return R.id.sort_lightness;
+            case MOOD:
+                return R.id.sort_mood;
+            default:
+                return R.id.sort_added;
+        }
+    }
+
+    @Nullable
+    private static LibraryOrder.Mode modeOf(int menuItem) {
+        if (menuItem == R.id.sort_added) {
+            return LibraryOrder.Mode.ADDED;
+        } else if (menuItem == R.id.sort_hue) {
+            return LibraryOrder.Mode.HUE;
+        } else if (menuItem == R.id.sort_lightness) {
+            return LibraryOrder.Mode.LIGHTNESS;
+        } else if (menuItem == R.id.sort_mood) {
+            return LibraryOrder.Mode.MOOD;
+        }
+        return null;
+    }
+
     /**
-     * Adds the provided bitmap to a list, and repopulates the main GridView with the new card.
+     * Shows the card of a newly stored image.
      */
-    private void addCard(Bitmap bitmap) {
+    private void addCard(int position) {
         getActivity().findViewById(R.id.emptyLibPrompt).setVisibility(View.INVISIBLE);
 
-        mBitmaps.add(bitmap);
-        // notify
-        mAdapter.notifyDataSetChanged();
+        // Imports delivered together are diffed together.
+        mAdapter.refresh();
     }
 
-    private void removeCard(int position) {
+    private void removeCard(String id) {
+        int position = mRepository.indexOf(id);
+        if (position < 0) {
+            return;
+        }
         // delete file from internal memory
-        File directory = new File(getContext().getFilesDir(), "Palette" + File.separator + DIR_NAME_FOR_IMAGE);
-        if (directory.listFiles() == null) {
-            Log.e(TAG, "removeCard: null listFiles()");
+        if (!mRepository.remove(position)) {
+            Log.e(TAG, "removeCard: delete failed");
             Snackbar.make(getView(), "Something went wrong", Snackbar.LENGTH_LONG).show();
-        } else {
-            try {
-                directory.listFiles()[position].delete();
-            } catch (Exception e) {
-                Log.e(TAG, "removeCard: delete failed");
-                Snackbar.make(getView(), "Something went wrong", Snackbar.LENGTH_LONG).show();
-            }
         }
-
-        mBitmaps.remove(position);
-        // notify
-        mAdapter.notifyDataSetChanged();
-
-        if (mBitmaps.size() == 0)
-            getActivity().findViewById(R.id.emptyLibPrompt).setVisibility(View.VISIBLE);
     }
 
     /**
-     * Adds cards with the default images stored in assets.
+     * Shows the empty library prompt if there is no image, but not while the library is still
+     * being opened. Cards themselves are bound lazily from the {@link ImageRepository}.
      */
-    private void addCards() throws IOException {
-        File directory = new File(getContext().getFilesDir(), "Palette" + File.separator + DIR_NAME_FOR_IMAGE);
-        File[] listFiles = directory.listFiles();
-        if (listFiles == null || listFiles.length == 0) {
-            getActivity().findViewById(R.id.emptyLibPrompt).setVisibility(View.VISIBLE);
-        } else {
-            for (File image : listFiles) {
-                Bitmap b = BitmapFactory.decodeStream(new FileInputStream(image));
-                addCard(b);
-            }
-        }
+    private void updateEmptyLibPrompt() {
+        boolean empty = mRepository.isOpened() && mRepository.size() == 0;
+        getActivity().findViewById(R.id.emptyLibPrompt)
+                .setVisibility(empty ? View.VISIBLE : View.INVISIBLE);
     }
 
     /* add pictures funcs */
     private void getPhotoFromGallery() {
-        Intent intent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("image/*");
+        // Any number of images; they arrive as ClipData.
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
         startActivityForResult(intent, REQUEST_CODE_ACTION_ADD_FROM_STORAGE);  //Check onActivityResult on how to handle the photo selected}
     }
 
@@ -213,16 +358,24 @@ public class GridFragment extends Fragment {
         }
     }
 
-    /* END add pictures funcs */
-
-    // save data during bundle in a helper class so that it would overflow
-    @Override
-    public void onSaveInstanceState(@NonNull Bundle savedState) {
-        super.onSaveInstanceState(savedState);
-
-        WeakDataHolder.getInstance().saveData(IMAGE_ID_DATAHOLDER, mBitmaps);
+    /**
+     * Shows the live palette of the camera preview, asking for the camera permission first.
+     */
+    private void openLiveCamera() {
+        if (getContext().checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            requestPermissions(new String[]{Manifest.permission.CAMERA}, REQUEST_CODE_LIVE_CAMERA);
+            return;
+        }
+        getFragmentManager()
+                .beginTransaction()
+                .replace(R.id.fragment_container, new LiveCameraFragment(),
+                        LiveCameraFragment.class.getSimpleName())
+                .addToBackStack(null)
+                .commit();
     }
 
+    /* END add pictures funcs */
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         if (requestCode == REQUEST_CODE_ACTION_ADD_FROM_STORAGE) {
@@ -239,61 +392,54 @@ public class GridFragment extends Fragment {
             } else {
                 Snackbar.make(getView(), "Please grant permission to proceed", Snackbar.LENGTH_LONG).show();
             }
+        } else if (requestCode == REQUEST_CODE_LIVE_CAMERA) {
+            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                openLiveCamera();
+            } else {
+                Snackbar.make(getView(), "Please grant permission to proceed", Snackbar.LENGTH_LONG).show();
+            }
         }
     }
 
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
-        Bitmap bitmap = null;
+        List<IngestionSource> sources = new ArrayList<>();
         if (Activity.RESULT_OK == resultCode) {
             if (REQUEST_CODE_ACTION_ADD_FROM_STORAGE == requestCode) {
-                try {
-                    InputStream stream = getContext().getContentResolver().openInputStream(
-                            data.getData());
-                    bitmap = BitmapFactory.decodeStream(stream);
-                    stream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                ClipData clip = data.getClipData();
+                if (clip != null) {
+                    for (int i = 0; i < clip.getItemCount(); i++) {
+                        sources.add(IngestionSource.fromUri(clip.getItemAt(i).getUri()));
+                    }
+                } else if (data.getData() != null) {
+                    sources.add(IngestionSource.fromUri(data.getData()));
                 }
             } else if (REQUEST_CODE_ACTION_ADD_FROM_CAMERA == requestCode) {
                 Bundle extras = data.getExtras();
-                bitmap = (Bitmap) extras.get("data"); // Just a thumbnail, but works okay for this.
+                Bitmap bitmap = (Bitmap) extras.get("data"); // Just a thumbnail, but works okay for this.
+                if (bitmap != null) {
+                    sources.add(IngestionSource.fromBitmap(bitmap));
+                }
             }
         }
-        if (bitmap != null) {
-            // addCard(bitmap);
-
-            // TODO generate picture with its palette async-ly and display a progress bar
-            Bitmap pictureWithPalette = null;
-
-            saveImageToInternal(bitmap);
-
-            // TODO display this picture to libraryLayout
-            addCard(bitmap);
+        if (sources.isEmpty()) {
+            return;
         }
-    }
-
-    void saveImageToInternal(Bitmap bitmap) {// save the image to internal memory
-        try {
-            File path = new File(getContext().getFilesDir(), "Palette" + File.separator + DIR_NAME_FOR_IMAGE);
-            if (!path.exists()) {
-                if (!path.mkdirs()) {
-                    throw new IOException();
-                }
-            }
-            // use current time to name the picture
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmss");
-            String imageName = sdf.format(new Date());
-
-            File outFile = new File(path, imageName + ".jpeg");
-            FileOutputStream outputStream = new FileOutputStream(outFile);
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-            outputStream.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Saving received message failed with", e);
-            Snackbar.make(mView, "Saving received message failed", Snackbar.LENGTH_LONG)
-                    .setAction("Action", null).show();
+        // Decoding, palette extraction and saving all happen in the background, a bounded number
+        // of images at a time; each card is added by mLibraryObserver once its image is stored.
+        final ImportBatch batch = mRepository.importImages(sources);
+        if (batch.size() > 1 && !batch.isFinished()) {
+            mImportBatch = batch;
+            Snackbar.make(getView(), "Importing " + batch.size() + " images",
+                    Snackbar.LENGTH_INDEFINITE)
+                    .setAction("Cancel", new View.OnClickListener() {
+                        @Override
+                        public void onClick(View v) {
+                            mRepository.cancelImport(batch);
+                        }
+                    })
+                    .show();
         }
     }
 
@@ -306,7 +452,7 @@ public class GridFragment extends Fragment {
         /* fab setting */
         // TODO shrink
         currentSelectedView = null;
-        currentSelected = -1;
+        currentSelected = null;
 
         FloatingActionButton fabGallery = getActivity().findViewById(R.id.fabGallery);
         fabGallery.setImageDrawable(ContextCompat.getDrawable(getContext(), R.drawable.gallery));
@@ -325,6 +471,14 @@ public class GridFragment extends Fragment {
                 openCamera();
             }
         });
+        // A long press shows the palette of the camera preview live instead of taking a photo.
+        fabCamera.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                openLiveCamera();
+                return true;
+            }
+        });
     }
 
     /* set fab to delete and save image states*/
@@ -347,10 +501,39 @@ public class GridFragment extends Fragment {
                 saveSelectedPicture();
             }
         });
+        fabCamera.setOnLongClickListener(null);
     }
 
+    /**
+     * Exports the selected image together with its palette, rendered in the background.
+     */
     private void saveSelectedPicture() {
+        ImageRecord record = mRepository.getRecord(currentSelected);
+        if (record == null || record.getPalette() == null) {
+            Snackbar.make(getView(), "The palette is not ready yet", Snackbar.LENGTH_LONG).show();
+            return;
+        }
+        int width = Math.min(EXPORT_MAX_WIDTH,
+                record.getWidth() > 0 ? record.getWidth() : EXPORT_MAX_WIDTH);
+        mExporter.export(record.getFile(), record.getPalette(), Template.STRIP_BELOW, width,
+                new PaletteExporter.Callback() {
+                    @Override
+                    public void onExported(File output) {
+                        if (getView() != null) {
+                            Snackbar.make(getView(), "Saved to " + output.getPath(),
+                                    Snackbar.LENGTH_LONG).show();
+                        }
+                    }
 
+                    @Override
+                    public void onExportFailed(Exception error) {
+                        if (getView() != null) {
+                            Snackbar.make(getView(), "Something went wrong",
+                                    Snackbar.LENGTH_LONG).show();
+                        }
+                    }
+                });
+        setNormalFab();
     }
 
     private Dialog AskOptionToDelete() {
@@ -420,6 +603,8 @@ public class GridFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        mRepository.setObserver(null);
+        mPrefetcher.cancelAll();
         hideFabs();
     }
 
@@ -441,12 +626,17 @@ public class GridFragment extends Fragment {
                                        int oldBottom) {
                 recyclerView.removeOnLayoutChangeListener(this);
                 final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
-                View viewAtPosition = layoutManager.findViewByPosition(MainActivity.currentPosition);
+                // The grid may be sorted differently from the library the pager goes through.
+                final int position = mAdapter.getCurrentPosition();
+                if (position < 0) {
+                    return;
+                }
+                View viewAtPosition = layoutManager.findViewByPosition(position);
                 // Scroll to position if the view for the current position is null (not currently part of
                 // layout manager children), or it's not completely visible.
                 if (viewAtPosition == null || layoutManager
                         .isViewPartiallyVisible(viewAtPosition, false, true)) {
-                    recyclerView.post(() -> layoutManager.scrollToPosition(MainActivity.currentPosition));
+                    recyclerView.post(() -> layoutManager.scrollToPosition(position));
                 }
             }
         });
@@ -467,7 +657,7 @@ public class GridFragment extends Fragment {
                     public void onMapSharedElements(List<String> names, Map<String, View> sharedElements) {
                         // Locate the ViewHolder for the clicked position.
                         RecyclerView.ViewHolder selectedViewHolder = recyclerView
-                                .findViewHolderForAdapterPosition(MainActivity.currentPosition);
+                                .findViewHolderForAdapterPosition(mAdapter.getCurrentPosition());
                         if (selectedViewHolder == null) {
                             return;
                         }
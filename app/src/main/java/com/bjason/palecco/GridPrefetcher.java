@@ -0,0 +1,118 @@
+package com.bjason.palecco;
+
+import com.bjason.palecco.image.LoadScheduler;
+import com.bjason.palecco.image.ThumbnailCache;
+import com.bjason.palecco.library.ImageRepository;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Loads the thumbnails of the cards just beyond the screen in the direction of scrolling, so
+ * that a fling reaches cards that are ready instead of blank ones.
+ * <p>
+ * The nearest cards are prefetched first. Prefetches that fall out of the window as the grid
+ * moves on, or turns back, are cancelled, and those still in it move up. The window is only
+ * recomputed when the visible range or the direction changes, not on every scrolled pixel.
+ */
+public class GridPrefetcher extends RecyclerView.OnScrollListener {
+
+    private final GridAdapter adapter;
+    private final ThumbnailCache thumbnails;
+    private final ImageRepository repository;
+    private final int distance;
+    /** Prefetches in flight by thumbnail key. */
+    private final Map<String, LoadScheduler.Request> prefetches = new HashMap<>();
+    private int windowStart = -1;
+    private int windowEnd = -1;
+
+    /**
+     * Prefetches up to {@code distance} cards ahead of the screen.
+     */
+    public GridPrefetcher(GridAdapter adapter, ThumbnailCache thumbnails,
+                          ImageRepository repository, int distance) {
+        this.adapter = adapter;
+        this.thumbnails = thumbnails;
+        this.repository = repository;
+        this.distance = distance;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) {
+            return;
+        }
+        GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+        // Cards already bound load on their own; start past the last one.
+        int start;
+        int end;
+        if (dy > 0) {
+            start = last + 1;
+            end = Math.min(adapter.getItemCount(), start + distance);
+        } else {
+            end = first;
+            start = Math.max(0, end - distance);
+        }
+        if (start == windowStart && end == windowEnd) {
+            return;
+        }
+        windowStart = start;
+        windowEnd = end;
+        prefetch(start, end, dy > 0);
+    }
+
+    private void prefetch(int start, int end, boolean down) {
+        // Nearest first.
+        Map<String, File> wanted = new LinkedHashMap<>();
+        for (int i = 0; i < end - start; i++) {
+            int position = down ? start + i : end - 1 - i;
+            if (!adapter.isHeader(position)) {
+                File file = repository.getFile(adapter.getId(position));
+                wanted.put(ThumbnailCache.keyOf(file), file);
+            }
+        }
+        for (Iterator<Map.Entry<String, LoadScheduler.Request>> it =
+             prefetches.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, LoadScheduler.Request> entry = it.next();
+            if (!wanted.containsKey(entry.getKey())) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+        int ahead = 0;
+        for (Map.Entry<String, File> entry : wanted.entrySet()) {
+            // Requested again as the window moves, so that a load still queued gets nearer.
+            LoadScheduler.Request request =
+                    thumbnails.prefetch(entry.getValue(), entry.getKey(), ++ahead);
+            LoadScheduler.Request previous = request != null
+                    ? prefetches.put(entry.getKey(), request) : prefetches.remove(entry.getKey());
+            if (previous != null) {
+                previous.cancel();
+            }
+        }
+    }
+
+    /**
+     * Cancels every prefetch, e.g. when the grid goes away.
+     */
+    public void cancelAll() {
+        for (LoadScheduler.Request request : prefetches.values()) {
+            request.cancel();
+        }
+        prefetches.clear();
+        windowStart = -1;
+        windowEnd = -1;
+    }
+}
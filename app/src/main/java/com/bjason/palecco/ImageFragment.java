@@ -16,18 +16,23 @@
 
 package com.bjason.palecco;
 
-import android.graphics.drawable.Drawable;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.load.DataSource;
-import com.bumptech.glide.load.engine.GlideException;
-import com.bumptech.glide.request.RequestListener;
-import com.bumptech.glide.request.target.Target;
+import com.bjason.palecco.image.LoadScheduler;
+import com.bjason.palecco.image.PageCache;
+import com.bjason.palecco.image.RegionPaletteSession;
+import com.bjason.palecco.image.ThumbnailCache;
+import com.bjason.palecco.image.TileCache;
+import com.bjason.palecco.image.TiledImage;
+import com.bjason.palecco.library.ImageRepository;
+import com.bjason.palecco.palette.Palette;
+
+import java.io.File;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
@@ -36,11 +41,36 @@ import androidx.fragment.app.Fragment;
 
 /**
  * A fragment for displaying an image.
+ * <p>
+ * The page is decoded at screen size through the {@link PageCache}. Until it is ready, the grid
+ * thumbnail stands in for it if it is in memory. Only the current page is resumed, so a page
+ * loads behind the one on screen until it is swiped to.
+ * <p>
+ * The current page can be zoomed into, and is sharpened past the page resolution with tiles of
+ * the original from the {@link TileCache}. Its {@link TiledImage} is opened while the page is
+ * resumed, so the pages on either side hold no decoder.
+ * <p>
+ * A region selected on the page gets its own palette, shown below it and updated while the
+ * region is dragged. The image is indexed for regions on the first selection, by a
+ * {@link RegionPaletteSession} that is also closed while the page is paused.
  */
 public class ImageFragment extends Fragment {
 
     private static final String KEY_IMAGE_RES = "com.google.samples.gridtopager.key.imageRes";
 
+    private PageCache mPages;
+    private File mFile;
+    private TiledImageView mImageView;
+    @Nullable
+    private TiledImage mTiles;
+    private SwatchStripView mRegionSwatches;
+    @Nullable
+    private RegionPaletteSession mRegions;
+    /** The load of the page, until it is shown. */
+    @Nullable
+    private LoadScheduler.Request mPageLoad;
+    private boolean mTransitionStarted;
+
     public static ImageFragment newInstance(@DrawableRes int drawableRes) {
         ImageFragment fragment = new ImageFragment();
         Bundle argument = new Bundle();
@@ -58,35 +88,150 @@ public class ImageFragment extends Fragment {
         Bundle arguments = getArguments();
         @DrawableRes int position = arguments.getInt(KEY_IMAGE_RES);
 
-        // Just like we do when binding views at the grid, we set the transition name to be the string
-        // value of the image res.
-        view.findViewById(R.id.deleteImage).setTransitionName(String.valueOf(GridFragment.mBitmaps.get(position)));
-
-        // Load the image with Glide to prevent OOM error when the image drawables are very large.
-        Glide.with(this)
-                .load(GridFragment.mBitmaps.get(position))
-                .listener(new RequestListener<Drawable>() {
-                    @Override
-                    public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Drawable>
-                            target, boolean isFirstResource) {
-                        // The postponeEnterTransition is called on the parent ImagePagerFragment, so the
-                        // startPostponedEnterTransition() should also be called on it to get the transition
-                        // going in case of a failure.
-                        getParentFragment().startPostponedEnterTransition();
-                        return false;
-                    }
-
-                    @Override
-                    public boolean onResourceReady(Drawable resource, Object model, Target<Drawable>
-                            target, DataSource dataSource, boolean isFirstResource) {
-                        // The postponeEnterTransition is called on the parent ImagePagerFragment, so the
-                        // startPostponedEnterTransition() should also be called on it to get the transition
-                        // going when the image is ready.
-                        getParentFragment().startPostponedEnterTransition();
-                        return false;
-                    }
-                })
-                .into((ImageView) view.findViewById(R.id.deleteImage));
+        ImageRepository repository = ImageRepository.getInstance(requireContext());
+        mPages = PageCache.getInstance(requireContext());
+        mFile = repository.getFile(position);
+        mImageView = view.findViewById(R.id.deleteImage);
+        // Just like we do when binding views at the grid, we set the transition name to be the
+        // stable id of the image.
+        mImageView.setTransitionName(repository.getId(position));
+        mRegionSwatches = view.findViewById(R.id.region_swatches);
+        mImageView.setOnRegionChangeListener(new TiledImageView.OnRegionChangeListener() {
+            @Override
+            public void onRegionChanged(@Nullable RectF region) {
+                if (region != null) {
+                    selectRegion(region);
+                } else {
+                    closeRegions();
+                    mRegionSwatches.setVisibility(View.GONE);
+                }
+            }
+        });
+
+        Bitmap page = mPages.getFromMemory(mFile);
+        if (page != null) {
+            mImageView.setBase(page);
+            startTransition();
+        } else {
+            Bitmap thumbnail = ThumbnailCache.getInstance(requireContext())
+                    .getFromMemory(ThumbnailCache.keyOf(mFile));
+            if (thumbnail != null) {
+                // Enough for the shared element transition; the page sharpens it when ready.
+                mImageView.setBase(thumbnail);
+                startTransition();
+            }
+            // The current page is resumed at once and moves its load up then.
+            loadPage(LoadScheduler.PRIORITY_VISIBLE + 1);
+        }
         return view;
     }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (mPageLoad != null) {
+            loadPage(LoadScheduler.PRIORITY_VISIBLE);
+        }
+        RectF region = mImageView.getRegion();
+        if (region != null) {
+            selectRegion(region);
+        }
+        TileCache.getInstance().open(mFile, new TileCache.OpenCallback() {
+            @Override
+            public void onOpened(TiledImage image) {
+                if (!isResumed() || mTiles != null) {
+                    // Paused, or opened again, while this one was opening.
+                    TileCache.getInstance().close(image);
+                    return;
+                }
+                mTiles = image;
+                mImageView.setImage(image);
+            }
+
+            @Override
+            public void onOpenFailed(Exception error) {
+                // The page can still be zoomed into, only not sharpened.
+            }
+        });
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        if (mTiles != null) {
+            mImageView.setImage(null);
+            TileCache.getInstance().close(mTiles);
+            mTiles = null;
+        }
+        closeRegions();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (mPageLoad != null) {
+            mPageLoad.cancel();
+            mPageLoad = null;
+        }
+    }
+
+    /**
+     * Requests the page with {@code priority}, replacing the previous request, if any.
+     */
+    private void loadPage(int priority) {
+        LoadScheduler.Request previous = mPageLoad;
+        mPageLoad = mPages.load(mFile, priority, new LoadScheduler.Callback() {
+            @Override
+            public void onLoaded(String key, Bitmap bitmap) {
+                mPageLoad = null;
+                mImageView.setBase(bitmap);
+                startTransition();
+            }
+
+            @Override
+            public void onFailed(String key, Exception error) {
+                mPageLoad = null;
+                // Get the transition going even so; the thumbnail, if any, stays.
+                startTransition();
+            }
+        });
+        // Cancelled after the new request joined the load, so that it is not dropped.
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    /**
+     * Extracts the palette of {@code region}, in fractions of the image, indexing the image for
+     * it first if needed.
+     */
+    private void selectRegion(RectF region) {
+        if (mRegions == null) {
+            mRegions = new RegionPaletteSession(mFile, new RegionPaletteSession.Listener() {
+                @Override
+                public void onRegionPalette(Palette palette) {
+                    mRegionSwatches.setPalette(palette);
+                    mRegionSwatches.setVisibility(View.VISIBLE);
+                }
+            });
+        }
+        mRegions.select(region.left, region.top, region.right, region.bottom);
+    }
+
+    private void closeRegions() {
+        if (mRegions != null) {
+            mRegions.close();
+            mRegions = null;
+        }
+    }
+
+    /**
+     * Starts the postponed enter transition of the parent {@link ImagePagerFragment} once.
+     */
+    private void startTransition() {
+        if (!mTransitionStarted && getParentFragment() != null) {
+            mTransitionStarted = true;
+            getParentFragment().startPostponedEnterTransition();
+        }
+    }
 }
@@ -16,20 +16,25 @@
 
 package com.bjason.palecco;
 
+import com.bjason.palecco.library.ImageRepository;
+
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentStatePagerAdapter;
 
 public class ImagePagerAdapter extends FragmentStatePagerAdapter {
 
+    private final ImageRepository repository;
+
     public ImagePagerAdapter(Fragment fragment) {
         // Note: Initialize with the child fragment manager.
         super(fragment.getChildFragmentManager(), BEHAVIOR_RESUME_ONLY_CURRENT_FRAGMENT);
+        repository = ImageRepository.getInstance(fragment.requireContext());
     }
 
     @Override
     public int getCount() {
-        return GridFragment.mBitmaps.size();
+        return repository.size();
     }
 
     @NonNull
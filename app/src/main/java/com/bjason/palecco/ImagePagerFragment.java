@@ -23,6 +23,11 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import com.bjason.palecco.image.LoadScheduler;
+import com.bjason.palecco.image.PageCache;
+import com.bjason.palecco.library.ImageRepository;
+
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -33,10 +38,19 @@ import androidx.viewpager.widget.ViewPager;
 
 /**
  * A fragment for displaying a pager of images.
+ * <p>
+ * Pages beyond the neighbours the pager creates are decoded ahead in the direction of the last
+ * swipe, and those prefetches are cancelled when the user turns around.
  */
 public class ImagePagerFragment extends Fragment {
 
+    /** Pages decoded ahead, beyond the neighbour in the swipe direction. */
+    private static final int PREFETCH_PAGES = 2;
+
     private ViewPager viewPager;
+    private ImageRepository mRepository;
+    private PageCache mPages;
+    private final List<LoadScheduler.Request> mPrefetches = new ArrayList<>();
 
     @Nullable
     @Override
@@ -47,10 +61,15 @@ public class ImagePagerFragment extends Fragment {
         // Set the current position and add a listener that will update the selection coordinator when
         // paging the images.
         viewPager.setCurrentItem(MainActivity.currentPosition);
+        mRepository = ImageRepository.getInstance(requireContext());
+        mPages = PageCache.getInstance(requireContext());
+        prefetch(MainActivity.currentPosition, 1);
         viewPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
             @Override
             public void onPageSelected(int position) {
+                int direction = position >= MainActivity.currentPosition ? 1 : -1;
                 MainActivity.currentPosition = position;
+                prefetch(position, direction);
             }
         });
 
@@ -64,6 +83,41 @@ public class ImagePagerFragment extends Fragment {
         return viewPager;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        cancelPrefetches(mPrefetches);
+    }
+
+    /**
+     * Decodes the pages after the neighbour of {@code position} in {@code direction}, nearest
+     * first, and cancels the previous prefetches.
+     */
+    private void prefetch(int position, int direction) {
+        List<LoadScheduler.Request> previous = new ArrayList<>(mPrefetches);
+        mPrefetches.clear();
+        // The neighbours have fragments of their own, which load them.
+        for (int distance = 2; distance <= PREFETCH_PAGES + 1; distance++) {
+            int page = position + direction * distance;
+            if (page < 0 || page >= mRepository.size()) {
+                break;
+            }
+            LoadScheduler.Request request = mPages.prefetch(mRepository.getFile(page), distance);
+            if (request != null) {
+                mPrefetches.add(request);
+            }
+        }
+        // After the new requests, so that loads wanted by both are kept.
+        cancelPrefetches(previous);
+    }
+
+    private static void cancelPrefetches(List<LoadScheduler.Request> requests) {
+        for (LoadScheduler.Request request : requests) {
+            request.cancel();
+        }
+        requests.clear();
+    }
+
     /**
      * Prepares the shared element transition from and back to the grid fragment.
      */
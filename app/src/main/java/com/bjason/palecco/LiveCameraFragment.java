@@ -0,0 +1,100 @@
+package com.bjason.palecco;
+
+import android.annotation.SuppressLint;
+import android.graphics.SurfaceTexture;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.TextureView;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.bjason.palecco.camera.LivePaletteCamera;
+import com.bjason.palecco.palette.Palette;
+import com.google.android.material.snackbar.Snackbar;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.fragment.app.Fragment;
+
+/**
+ * A fragment showing the camera preview with the palette of what it sees, updated live.
+ * <p>
+ * The camera permission must have been granted before it is shown.
+ */
+public class LiveCameraFragment extends Fragment {
+
+    private LivePaletteCamera mCamera;
+    private TextureView mPreview;
+    private SwatchStripView mSwatches;
+
+    private final LivePaletteCamera.Listener mCameraListener = new LivePaletteCamera.Listener() {
+        @Override
+        public void onPaletteChanged(Palette palette) {
+            mSwatches.setPalette(palette);
+        }
+
+        @Override
+        public void onCameraFailed(Exception error) {
+            if (getView() != null) {
+                Snackbar.make(getView(), "Cannot open the camera", Snackbar.LENGTH_LONG).show();
+            }
+        }
+    };
+
+    private final TextureView.SurfaceTextureListener mSurfaceListener =
+            new TextureView.SurfaceTextureListener() {
+                @Override
+                public void onSurfaceTextureAvailable(SurfaceTexture surface, int width,
+                                                      int height) {
+                    if (isResumed()) {
+                        startCamera();
+                    }
+                }
+
+                @Override
+                public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width,
+                                                        int height) {
+                }
+
+                @Override
+                public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+                    mCamera.stop();
+                    return true;
+                }
+
+                @Override
+                public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+                }
+            };
+
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
+                             @Nullable Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_live_camera, container, false);
+        mCamera = new LivePaletteCamera(requireContext());
+        mPreview = view.findViewById(R.id.live_preview);
+        mSwatches = view.findViewById(R.id.live_swatches);
+        mPreview.setSurfaceTextureListener(mSurfaceListener);
+        return view;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (mPreview.isAvailable()) {
+            startCamera();
+        }
+    }
+
+    @Override
+    public void onPause() {
+        mCamera.stop();
+        super.onPause();
+    }
+
+    @SuppressLint("MissingPermission") // Checked by GridFragment before showing this one.
+    private void startCamera() {
+        mCamera.start(mPreview.getSurfaceTexture(), mCameraListener);
+    }
+}
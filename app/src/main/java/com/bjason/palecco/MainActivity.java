@@ -2,11 +2,20 @@ package com.bjason.palecco;
 
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 
+import com.bjason.palecco.image.BitmapPool;
+import com.bjason.palecco.image.PageCache;
+import com.bjason.palecco.image.ThumbnailCache;
+import com.bjason.palecco.image.TileCache;
+import com.bjason.palecco.library.ImageRepository;
+
 import java.util.ArrayList;
 import java.util.Objects;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.fragment.app.FragmentManager;
@@ -27,6 +36,14 @@ public class MainActivity extends AppCompatActivity {
         /* set images list */
         if (savedInstanceState != null) {
             currentPosition = savedInstanceState.getInt(KEY_CURRENT_POSITION, 0);
+            FragmentManager fragmentManager = getSupportFragmentManager();
+            if (!ImageRepository.getInstance(this).isOpened() && fragmentManager
+                    .findFragmentByTag(ImagePagerFragment.class.getSimpleName()) != null) {
+                // The process was restarted while an image was shown. Its pages are found by
+                // position, which means nothing until the library is listed again, so go back to
+                // the grid.
+                fragmentManager.popBackStackImmediate();
+            }
             // Return here to prevent adding additional GridFragments when changing orientation.
             return;
         }
@@ -38,22 +55,45 @@ public class MainActivity extends AppCompatActivity {
                 .commit();
     }
 
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(KEY_CURRENT_POSITION, currentPosition);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BitmapPool.getInstance().trimMemory(level);
+        ThumbnailCache.getInstance(this).trimMemory(level);
+        PageCache.getInstance(this).trimMemory(level);
+        TileCache.getInstance().trimMemory(level);
+    }
+
     /* END add pictures funcs */
 
-/*
+    @Override
     public boolean onCreateOptionsMenu(Menu menu) {
-        // Inflate the menu; this adds items to the action bar if it is present.
+        // The metrics screen is for development; release builds keep an empty toolbar.
+        if (!BuildConfig.DEBUG) {
+            return false;
+        }
         getMenuInflater().inflate(R.menu.menu_main, menu);
         return true;
     }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
-        // Handle action bar item clicks here. The action bar will
-        // automatically handle clicks on the Home/Up button, so long
-        // as you specify a parent activity in AndroidManifest.xml.
-
+        if (item.getItemId() == R.id.action_metrics) {
+            getSupportFragmentManager()
+                    .beginTransaction()
+                    .replace(R.id.fragment_container, new MetricsFragment(),
+                            MetricsFragment.class.getSimpleName())
+                    .addToBackStack(null)
+                    .commit();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
-*/
 
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+package com.bjason.palecco;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.bjason.palecco.metrics.Metrics;
+import com.google.android.material.snackbar.Snackbar;
+
+import java.io.File;
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.fragment.app.Fragment;
+
+/**
+ * A debug screen listing every {@link Metrics} value, refreshed every second, which can reset
+ * the metrics or export them to a file.
+ */
+public class MetricsFragment extends Fragment {
+
+    private static final String TAG = "MetricsFragment";
+    private static final long REFRESH_MILLIS = 1000;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private TextView mText;
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            mText.setText(Metrics.getInstance().dump());
+            mHandler.postDelayed(this, REFRESH_MILLIS);
+        }
+    };
+
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
+                             @Nullable Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_metrics, container, false);
+        mText = view.findViewById(R.id.metrics_text);
+        view.findViewById(R.id.metrics_reset).setOnClickListener(v -> {
+            Metrics.getInstance().reset();
+            refreshNow();
+        });
+        view.findViewById(R.id.metrics_export).setOnClickListener(v -> export());
+        return view;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        refreshNow();
+    }
+
+    @Override
+    public void onPause() {
+        mHandler.removeCallbacks(mRefresh);
+        super.onPause();
+    }
+
+    private void refreshNow() {
+        mHandler.removeCallbacks(mRefresh);
+        mRefresh.run();
+    }
+
+    private void export() {
+        // App-specific external storage needs no permission and can be pulled with adb.
+        File directory = requireContext().getExternalFilesDir("metrics");
+        if (directory == null) {
+            directory = new File(requireContext().getFilesDir(), "metrics");
+        }
+        String message;
+        try {
+            message = "Saved to " + Metrics.getInstance().dumpToFile(directory);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot export metrics", e);
+            message = "Cannot export metrics";
+        }
+        Snackbar.make(requireView(), message, Snackbar.LENGTH_LONG).show();
+    }
+}
@@ -0,0 +1,70 @@
+package com.bjason.palecco;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.bjason.palecco.palette.Palette;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Draws a palette as a horizontal strip, each swatch as wide as its share of the image.
+ */
+public class SwatchStripView extends View {
+
+    private final Paint paint = new Paint();
+    @Nullable
+    private Palette palette;
+
+    public SwatchStripView(Context context) {
+        super(context);
+    }
+
+    public SwatchStripView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public SwatchStripView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    /**
+     * Shows {@code palette}, or nothing if it is {@code null}.
+     */
+    public void setPalette(@Nullable Palette palette) {
+        if (this.palette == palette) {
+            return;
+        }
+        this.palette = palette;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (palette == null) {
+            return;
+        }
+        long total = 0;
+        for (int i = 0; i < palette.size(); i++) {
+            total += palette.getPopulation(i);
+        }
+        if (total == 0) {
+            return;
+        }
+        int width = getWidth();
+        int height = getHeight();
+        long covered = 0;
+        float left = 0;
+        for (int i = 0; i < palette.size(); i++) {
+            covered += palette.getPopulation(i);
+            float right = width * (covered / (float) total);
+            paint.setColor(palette.getColor(i));
+            canvas.drawRect(left, 0, right, height, paint);
+            left = right;
+        }
+    }
+}
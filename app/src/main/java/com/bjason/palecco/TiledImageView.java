@@ -0,0 +1,600 @@
+package com.bjason.palecco;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.util.LongSparseArray;
+import android.view.GestureDetector;
+import android.view.HapticFeedbackConstants;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import com.bjason.palecco.image.LoadScheduler;
+import com.bjason.palecco.image.TileCache;
+import com.bjason.palecco.image.TiledImage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Shows an image fitted to the view, which can be zoomed into with a pinch or a double tap and
+ * then panned.
+ * <p>
+ * A screen-sized base bitmap is drawn at every zoom. Once zoomed in past its resolution, the
+ * tiles of a {@link TiledImage} are drawn over it as they arrive from the {@link TileCache}, at
+ * the coarsest level that still has a tile pixel for every screen pixel. Only tiles on screen
+ * are requested, those nearest the middle first, and those panned away from are cancelled.
+ * While the tiles of a new level load, those of the previous one stand in for them. The level
+ * is lowered while its tiles on screen would fill more than half the cache, so that the tiles
+ * of one screen never evict each other.
+ * <p>
+ * While zoomed in, the view scrolls horizontally up to the edges of the image, so that a parent
+ * {@code ViewPager} only turns the page from there.
+ * <p>
+ * A long press starts drawing a region of the image, which is then moved by dragging inside it
+ * and cleared by a tap outside of it. Changes are reported to the
+ * {@link OnRegionChangeListener} as they happen.
+ */
+public class TiledImageView extends View {
+
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+    /** Screen pixels per image pixel at the largest zoom. */
+    private static final float MAX_PIXEL_SCALE = 2f;
+    private static final int TILE_BYTES = TiledImage.TILE_SIZE * TiledImage.TILE_SIZE * 4;
+    private static final float REGION_STROKE_DP = 2f;
+
+    /**
+     * Receives the selected region as it is drawn and moved.
+     */
+    public interface OnRegionChangeListener {
+
+        /**
+         * {@code region} is in fractions of the width and height of the image, or null once the
+         * region is cleared.
+         */
+        void onRegionChanged(@Nullable RectF region);
+    }
+
+    private static final class Tile {
+        final int column;
+        final int row;
+        @Nullable
+        Bitmap bitmap;
+        @Nullable
+        LoadScheduler.Request request;
+
+        Tile(int column, int row) {
+            this.column = column;
+            this.row = row;
+        }
+    }
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final TileCache tileCache = TileCache.getInstance();
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+    private final RectF imageRect = new RectF();
+    private final RectF tileRect = new RectF();
+    private final Rect tileBounds = new Rect();
+    private final Paint regionPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF regionRect = new RectF();
+    @Nullable
+    private Bitmap base;
+    @Nullable
+    private TiledImage image;
+    /** Zoom relative to fitting the view, at least 1. */
+    private float zoom = 1;
+    /** The point of the image in the middle of the view, in fractions of its width and height. */
+    private float centerX = 0.5f;
+    private float centerY = 0.5f;
+    /** The tile level shown, or -1 while the base is sharp enough. */
+    private int level = -1;
+    /** Tiles of {@link #level} on screen, by {@link #tileKey}. */
+    private final LongSparseArray<Tile> tiles = new LongSparseArray<>();
+    private int fallbackLevel = -1;
+    /** Loaded tiles of {@link #fallbackLevel}, drawn until those of {@link #level} are in. */
+    private final List<Tile> fallbackTiles = new ArrayList<>();
+    /** The selected region in fractions of the image, or null. */
+    @Nullable
+    private RectF region;
+    /** Where the region being drawn was started, or NaN if none is. */
+    private float anchorX = Float.NaN;
+    private float anchorY;
+    /** The last touch of the region being moved, or NaN if none is. */
+    private float dragX = Float.NaN;
+    private float dragY;
+    @Nullable
+    private OnRegionChangeListener regionListener;
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public TiledImageView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        regionPaint.setStyle(Paint.Style.STROKE);
+        regionPaint.setStrokeWidth(REGION_STROKE_DP * getResources().getDisplayMetrics().density);
+        scaleDetector = new ScaleGestureDetector(context,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        zoomTo(zoom * detector.getScaleFactor(), detector.getFocusX(),
+                                detector.getFocusY());
+                        return true;
+                    }
+                });
+        gestureDetector = new GestureDetector(context,
+                new GestureDetector.SimpleOnGestureListener() {
+                    @Override
+                    public boolean onDown(MotionEvent e) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX,
+                                            float distanceY) {
+                        panBy(distanceX, distanceY);
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onDoubleTap(MotionEvent e) {
+                        zoomTo(zoom > 1 ? 1 : DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+                        return true;
+                    }
+
+                    @Override
+                    public void onLongPress(MotionEvent e) {
+                        startRegion(e.getX(), e.getY());
+                    }
+
+                    @Override
+                    public boolean onSingleTapConfirmed(MotionEvent e) {
+                        if (region != null) {
+                            // Taps inside the region move it instead.
+                            clearRegion();
+                            return true;
+                        }
+                        return performClick();
+                    }
+                });
+    }
+
+    /**
+     * Shows {@code bitmap}, the whole image at about the size of the screen, or nothing if it
+     * is {@code null}.
+     */
+    public void setBase(@Nullable Bitmap bitmap) {
+        if (base == bitmap) {
+            return;
+        }
+        base = bitmap;
+        onViewportChanged();
+    }
+
+    /**
+     * Sharpens the base with the tiles of {@code image} when zoomed in, or stops doing so if it
+     * is {@code null}. The requests for tiles of the previous image are cancelled.
+     */
+    public void setImage(@Nullable TiledImage image) {
+        if (this.image == image) {
+            return;
+        }
+        clearTiles();
+        clearFallback();
+        level = -1;
+        this.image = image;
+        onViewportChanged();
+    }
+
+    public void setOnRegionChangeListener(@Nullable OnRegionChangeListener listener) {
+        regionListener = listener;
+    }
+
+    /**
+     * Returns a copy of the selected region in fractions of the image, or null if there is none.
+     */
+    @Nullable
+    public RectF getRegion() {
+        return region != null && !region.isEmpty() ? new RectF(region) : null;
+    }
+
+    /**
+     * Clears the selected region, if any.
+     */
+    public void clearRegion() {
+        if (region == null) {
+            return;
+        }
+        region = null;
+        anchorX = Float.NaN;
+        dragX = Float.NaN;
+        invalidate();
+        if (regionListener != null) {
+            regionListener.onRegionChanged(null);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (onRegionTouchEvent(event)) {
+            return true;
+        }
+        if (event.getPointerCount() > 1 && getParent() != null) {
+            // Keep a pinch from turning the page.
+            getParent().requestDisallowInterceptTouchEvent(true);
+        }
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean canScrollHorizontally(int direction) {
+        int width = getContentWidth();
+        if (width == 0) {
+            return false;
+        }
+        float halfView = getWidth() / 2f / (width * getScale());
+        return halfView < 0.5f && (direction > 0 ? centerX < 1 - halfView : centerX > halfView);
+    }
+
+    @Override
+    public boolean canScrollVertically(int direction) {
+        int height = getContentHeight();
+        if (height == 0) {
+            return false;
+        }
+        float halfView = getHeight() / 2f / (height * getScale());
+        return halfView < 0.5f && (direction > 0 ? centerY < 1 - halfView : centerY > halfView);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        onViewportChanged();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int width = getContentWidth();
+        if (width == 0) {
+            return;
+        }
+        float scale = getScale();
+        imageRect.left = getWidth() / 2f - centerX * width * scale;
+        imageRect.top = getHeight() / 2f - centerY * getContentHeight() * scale;
+        imageRect.right = imageRect.left + width * scale;
+        imageRect.bottom = imageRect.top + getContentHeight() * scale;
+        if (base != null) {
+            canvas.drawBitmap(base, null, imageRect, paint);
+        }
+        if (image != null) {
+            for (int i = 0; i < fallbackTiles.size(); i++) {
+                drawTile(canvas, fallbackLevel, fallbackTiles.get(i), scale);
+            }
+            for (int i = 0; i < tiles.size(); i++) {
+                drawTile(canvas, level, tiles.valueAt(i), scale);
+            }
+        }
+        if (region != null) {
+            drawRegion(canvas);
+        }
+    }
+
+    private void drawRegion(Canvas canvas) {
+        regionRect.set(imageRect.left + region.left * imageRect.width(),
+                imageRect.top + region.top * imageRect.height(),
+                imageRect.left + region.right * imageRect.width(),
+                imageRect.top + region.bottom * imageRect.height());
+        // White over a wider black, to stand out on any image.
+        float stroke = regionPaint.getStrokeWidth();
+        regionPaint.setColor(Color.BLACK);
+        regionPaint.setStrokeWidth(stroke * 2);
+        canvas.drawRect(regionRect, regionPaint);
+        regionPaint.setColor(Color.WHITE);
+        regionPaint.setStrokeWidth(stroke);
+        canvas.drawRect(regionRect, regionPaint);
+    }
+
+    private void drawTile(Canvas canvas, int level, Tile tile, float scale) {
+        if (tile.bitmap == null) {
+            return;
+        }
+        image.getTileBounds(level, tile.column, tile.row, tileBounds);
+        tileRect.set(imageRect.left + tileBounds.left * scale,
+                imageRect.top + tileBounds.top * scale,
+                imageRect.left + tileBounds.right * scale,
+                imageRect.top + tileBounds.bottom * scale);
+        canvas.drawBitmap(tile.bitmap, null, tileRect, paint);
+    }
+
+    /**
+     * Draws or moves the region, and returns whether {@code event} was used for it.
+     */
+    private boolean onRegionTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                if (region == null || getContentWidth() == 0
+                        || !region.contains(toImageX(event.getX()), toImageY(event.getY()))) {
+                    return false;
+                }
+                dragX = toImageX(event.getX());
+                dragY = toImageY(event.getY());
+                getParent().requestDisallowInterceptTouchEvent(true);
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (!Float.isNaN(anchorX)) {
+                    float x = clampFraction(toImageX(event.getX()));
+                    float y = clampFraction(toImageY(event.getY()));
+                    region.set(Math.min(anchorX, x), Math.min(anchorY, y), Math.max(anchorX, x),
+                            Math.max(anchorY, y));
+                } else if (!Float.isNaN(dragX)) {
+                    float x = toImageX(event.getX());
+                    float y = toImageY(event.getY());
+                    // Moved as far as the image goes.
+                    region.offset(Math.max(-region.left, Math.min(1 - region.right, x - dragX)),
+                            Math.max(-region.top, Math.min(1 - region.bottom, y - dragY)));
+                    dragX = x;
+                    dragY = y;
+                } else {
+                    return false;
+                }
+                invalidate();
+                if (regionListener != null && !region.isEmpty()) {
+                    regionListener.onRegionChanged(new RectF(region));
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                boolean moving = !Float.isNaN(dragX);
+                anchorX = Float.NaN;
+                dragX = Float.NaN;
+                if (region != null && region.isEmpty()) {
+                    clearRegion();
+                }
+                // A drawn region began with a long press, which the gesture detector saw.
+                return moving;
+            default:
+                return !Float.isNaN(anchorX) || !Float.isNaN(dragX);
+        }
+    }
+
+    private void startRegion(float x, float y) {
+        if (getContentWidth() == 0) {
+            return;
+        }
+        anchorX = clampFraction(toImageX(x));
+        anchorY = clampFraction(toImageY(y));
+        region = new RectF(anchorX, anchorY, anchorX, anchorY);
+        getParent().requestDisallowInterceptTouchEvent(true);
+        performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+    }
+
+    private float toImageX(float x) {
+        return centerX + (x - getWidth() / 2f) / (getContentWidth() * getScale());
+    }
+
+    private float toImageY(float y) {
+        return centerY + (y - getHeight() / 2f) / (getContentHeight() * getScale());
+    }
+
+    private static float clampFraction(float fraction) {
+        return Math.max(0, Math.min(1, fraction));
+    }
+
+    /** Returns the width of the image in the pixels it is measured in, or 0 if unknown. */
+    private int getContentWidth() {
+        return image != null ? image.getWidth() : base != null ? base.getWidth() : 0;
+    }
+
+    private int getContentHeight() {
+        return image != null ? image.getHeight() : base != null ? base.getHeight() : 0;
+    }
+
+    /** Returns the screen pixels per content pixel. */
+    private float getScale() {
+        return Math.min(getWidth() / (float) getContentWidth(),
+                getHeight() / (float) getContentHeight()) * zoom;
+    }
+
+    private void zoomTo(float newZoom, float focusX, float focusY) {
+        int width = getContentWidth();
+        int height = getContentHeight();
+        if (width == 0 || getWidth() == 0) {
+            return;
+        }
+        float fit = getScale() / zoom;
+        float maxZoom = Math.max(1, MAX_PIXEL_SCALE / fit);
+        // Keep the point under the focus where it is.
+        float dx = focusX - getWidth() / 2f;
+        float dy = focusY - getHeight() / 2f;
+        float focusImageX = centerX + dx / (width * getScale());
+        float focusImageY = centerY + dy / (height * getScale());
+        zoom = Math.max(1, Math.min(maxZoom, newZoom));
+        centerX = focusImageX - dx / (width * getScale());
+        centerY = focusImageY - dy / (height * getScale());
+        onViewportChanged();
+    }
+
+    private void panBy(float dx, float dy) {
+        int width = getContentWidth();
+        if (width == 0 || zoom == 1) {
+            return;
+        }
+        centerX += dx / (width * getScale());
+        centerY += dy / (getContentHeight() * getScale());
+        onViewportChanged();
+    }
+
+    private void onViewportChanged() {
+        int width = getContentWidth();
+        if (width == 0 || getWidth() == 0) {
+            zoom = 1;
+            centerX = 0.5f;
+            centerY = 0.5f;
+        } else {
+            float scale = getScale();
+            centerX = clampCenter(centerX, getWidth() / 2f / (width * scale));
+            centerY = clampCenter(centerY, getHeight() / 2f / (getContentHeight() * scale));
+            updateTiles();
+        }
+        invalidate();
+    }
+
+    private static float clampCenter(float center, float halfView) {
+        // An image smaller than the view stays in its middle.
+        return halfView >= 0.5f ? 0.5f : Math.max(halfView, Math.min(1 - halfView, center));
+    }
+
+    /**
+     * Picks the level for the viewport, requests its tiles on screen that are not loaded, and
+     * cancels those that are no longer on screen.
+     */
+    private void updateTiles() {
+        if (image == null) {
+            return;
+        }
+        float scale = getScale();
+        float left = getWidth() / 2f - centerX * image.getWidth() * scale;
+        float top = getHeight() / 2f - centerY * image.getHeight() * scale;
+        float visibleLeft = Math.max(0, -left / scale);
+        float visibleTop = Math.max(0, -top / scale);
+        float visibleRight = Math.min(image.getWidth(), (getWidth() - left) / scale);
+        float visibleBottom = Math.min(image.getHeight(), (getHeight() - top) / scale);
+
+        int newLevel = 0;
+        while ((2 << newLevel) * scale <= 1) {
+            newLevel++;
+        }
+        int span = TiledImage.TILE_SIZE << newLevel;
+        while (countTiles(visibleLeft, visibleRight, span)
+                * countTiles(visibleTop, visibleBottom, span) * TILE_BYTES
+                > tileCache.getMaxBytes() / 2) {
+            newLevel++;
+            span *= 2;
+        }
+        if (base != null && (1 << newLevel) * base.getWidth() >= image.getWidth()) {
+            // The base is as sharp as the tiles would be.
+            newLevel = -1;
+        }
+        if (newLevel != level) {
+            clearFallback();
+            for (int i = 0; i < tiles.size(); i++) {
+                if (tiles.valueAt(i).bitmap != null) {
+                    fallbackTiles.add(tiles.valueAt(i));
+                }
+            }
+            fallbackLevel = level;
+            clearTiles();
+            level = newLevel;
+        }
+        if (level < 0) {
+            clearFallback();
+            return;
+        }
+
+        int firstColumn = (int) (visibleLeft / span);
+        int firstRow = (int) (visibleTop / span);
+        int endColumn = Math.min(image.getColumnCount(level),
+                (int) Math.ceil(visibleRight / span));
+        int endRow = Math.min(image.getRowCount(level), (int) Math.ceil(visibleBottom / span));
+        for (int i = tiles.size() - 1; i >= 0; i--) {
+            Tile tile = tiles.valueAt(i);
+            if (tile.column < firstColumn || tile.column >= endColumn
+                    || tile.row < firstRow || tile.row >= endRow) {
+                if (tile.request != null) {
+                    tile.request.cancel();
+                }
+                tiles.removeAt(i);
+            }
+        }
+        int middleColumn = (int) (centerX * image.getWidth() / span);
+        int middleRow = (int) (centerY * image.getHeight() / span);
+        for (int row = firstRow; row < endRow; row++) {
+            for (int column = firstColumn; column < endColumn; column++) {
+                if (tiles.get(tileKey(column, row)) == null) {
+                    int distance = Math.max(Math.abs(column - middleColumn),
+                            Math.abs(row - middleRow));
+                    tiles.put(tileKey(column, row), requestTile(column, row,
+                            LoadScheduler.PRIORITY_VISIBLE + distance));
+                }
+            }
+        }
+        if (isLoaded()) {
+            clearFallback();
+        }
+    }
+
+    private static int countTiles(float start, float end, int span) {
+        return Math.max(0, (int) Math.ceil(end / span) - (int) (start / span));
+    }
+
+    private static long tileKey(int column, int row) {
+        return (long) column << 32 | row;
+    }
+
+    private Tile requestTile(int column, int row, int priority) {
+        final Tile tile = new Tile(column, row);
+        tile.bitmap = tileCache.getFromMemory(image, level, column, row);
+        if (tile.bitmap != null) {
+            return tile;
+        }
+        tile.request = tileCache.load(image, level, column, row, priority,
+                new LoadScheduler.Callback() {
+                    @Override
+                    public void onLoaded(String key, Bitmap bitmap) {
+                        tile.request = null;
+                        tile.bitmap = bitmap;
+                        if (isLoaded()) {
+                            clearFallback();
+                        }
+                        invalidate();
+                    }
+
+                    @Override
+                    public void onFailed(String key, Exception error) {
+                        // The base stays visible where the tile would be.
+                        tile.request = null;
+                    }
+                });
+        return tile;
+    }
+
+    private boolean isLoaded() {
+        for (int i = 0; i < tiles.size(); i++) {
+            if (tiles.valueAt(i).request != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void clearTiles() {
+        for (int i = 0; i < tiles.size(); i++) {
+            Tile tile = tiles.valueAt(i);
+            if (tile.request != null) {
+                tile.request.cancel();
+            }
+        }
+        tiles.clear();
+    }
+
+    private void clearFallback() {
+        fallbackTiles.clear();
+        fallbackLevel = -1;
+    }
+}
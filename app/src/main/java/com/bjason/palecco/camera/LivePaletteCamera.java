@@ -0,0 +1,350 @@
+package com.bjason.palecco.camera;
+
+import android.Manifest;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.OutputConfiguration;
+import android.hardware.camera2.params.SessionConfiguration;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import com.bjason.palecco.metrics.Counter;
+import com.bjason.palecco.metrics.Histogram;
+import com.bjason.palecco.metrics.Metrics;
+import com.bjason.palecco.palette.LivePaletteTracker;
+import com.bjason.palecco.palette.Palette;
+import com.bjason.palecco.palette.YuvFrame;
+
+import java.util.Arrays;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+
+/**
+ * Shows the preview of the back camera and extracts the palette of its frames as they arrive.
+ * <p>
+ * Besides the preview, the camera streams small {@code YUV_420_888} frames into an
+ * {@link ImageReader}, whose planes go straight to a {@link LivePaletteTracker}; no RGB copy of
+ * a frame is ever made. Frames are analysed on their own thread. The reader holds only two
+ * images and the newest one is always taken, so frames that arrive while one is being analysed
+ * are dropped instead of queued, and the palette never lags behind the preview.
+ */
+public final class LivePaletteCamera {
+
+    private static final String TAG = "LivePaletteCamera";
+
+    /** Largest analysis frame; the tracker only samples part of it anyway. */
+    private static final Size MAX_ANALYSIS_SIZE = new Size(640, 480);
+    private static final Size MAX_PREVIEW_SIZE = new Size(1920, 1080);
+
+    private static final Histogram FRAME_MICROS =
+            Metrics.getInstance().histogram("extract.live_frame.micros");
+    private static final Counter FRAMES = Metrics.getInstance().counter("camera.frames_analysed");
+
+    /**
+     * Receives results on the main thread.
+     */
+    public interface Listener {
+
+        /** Called whenever the palette of the preview changes. */
+        void onPaletteChanged(Palette palette);
+
+        void onCameraFailed(Exception error);
+    }
+
+    private final CameraManager cameraManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LivePaletteTracker tracker = new LivePaletteTracker();
+    @Nullable
+    private Listener listener;
+
+    // Set while started.
+    @Nullable
+    private HandlerThread cameraThread;
+    @Nullable
+    private HandlerThread analysisThread;
+    @Nullable
+    private ImageReader reader;
+    @Nullable
+    private Surface previewSurface;
+    @Nullable
+    private CameraDevice camera;
+    @Nullable
+    private CameraCaptureSession session;
+
+    /** The palette last posted, touched on the analysis thread only. */
+    @Nullable
+    private Palette lastPalette;
+
+    public LivePaletteCamera(Context context) {
+        this.cameraManager = (CameraManager) context.getApplicationContext()
+                .getSystemService(Context.CAMERA_SERVICE);
+    }
+
+    /**
+     * Opens the back camera and shows its preview on {@code preview}. Does nothing if already
+     * started.
+     */
+    @MainThread
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public void start(SurfaceTexture preview, Listener listener) {
+        if (cameraThread != null) {
+            return;
+        }
+        this.listener = listener;
+        try {
+            String cameraId = findBackCamera();
+            StreamConfigurationMap map = cameraManager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Size previewSize = chooseSize(map.getOutputSizes(SurfaceTexture.class),
+                    MAX_PREVIEW_SIZE);
+            Size analysisSize = chooseSize(map.getOutputSizes(ImageFormat.YUV_420_888),
+                    MAX_ANALYSIS_SIZE);
+
+            cameraThread = new HandlerThread("palecco-camera");
+            cameraThread.start();
+            analysisThread = new HandlerThread("palecco-live-palette",
+                    Process.THREAD_PRIORITY_DISPLAY);
+            analysisThread.start();
+
+            preview.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
+            previewSurface = new Surface(preview);
+            reader = ImageReader.newInstance(analysisSize.getWidth(), analysisSize.getHeight(),
+                    ImageFormat.YUV_420_888, 2);
+            reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    analyse(reader);
+                }
+            }, new Handler(analysisThread.getLooper()));
+
+            tracker.reset();
+            lastPalette = null;
+            cameraManager.openCamera(cameraId, cameraCallback, new Handler(cameraThread.getLooper()));
+        } catch (CameraAccessException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Closes the camera and stops analysing. No callback is delivered afterwards.
+     */
+    @MainThread
+    public void stop() {
+        // Callbacks still posted see the null listener and do nothing.
+        listener = null;
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (camera != null) {
+            camera.close();
+            camera = null;
+        }
+        if (cameraThread != null) {
+            cameraThread.quitSafely();
+            cameraThread = null;
+        }
+        if (analysisThread != null) {
+            // Let the frame being analysed finish before the reader's images go away.
+            analysisThread.quitSafely();
+            try {
+                analysisThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            analysisThread = null;
+        }
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        if (previewSurface != null) {
+            previewSurface.release();
+            previewSurface = null;
+        }
+    }
+
+    private String findBackCamera() throws CameraAccessException {
+        String[] ids = cameraManager.getCameraIdList();
+        for (String id : ids) {
+            Integer facing = cameraManager.getCameraCharacteristics(id)
+                    .get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                return id;
+            }
+        }
+        if (ids.length == 0) {
+            throw new CameraAccessException(CameraAccessException.CAMERA_DISCONNECTED,
+                    "No camera");
+        }
+        return ids[0];
+    }
+
+    /**
+     * Returns the largest size that fits in {@code max}, or the smallest size if none does.
+     */
+    private static Size chooseSize(Size[] sizes, Size max) {
+        Size best = null;
+        Size smallest = null;
+        for (Size size : sizes) {
+            long area = (long) size.getWidth() * size.getHeight();
+            if (smallest == null || area < (long) smallest.getWidth() * smallest.getHeight()) {
+                smallest = size;
+            }
+            if (size.getWidth() <= max.getWidth() && size.getHeight() <= max.getHeight()
+                    && (best == null || area > (long) best.getWidth() * best.getHeight())) {
+                best = size;
+            }
+        }
+        return best != null ? best : smallest;
+    }
+
+    private final CameraDevice.StateCallback cameraCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(final CameraDevice device) {
+            mainHandler.post(() -> {
+                if (listener == null) {
+                    // Stopped while opening.
+                    device.close();
+                    return;
+                }
+                camera = device;
+                createSession();
+            });
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice device) {
+            device.close();
+        }
+
+        @Override
+        public void onError(CameraDevice device, int error) {
+            device.close();
+            mainHandler.post(() -> fail(new IllegalStateException("Camera error " + error)));
+        }
+    };
+
+    @MainThread
+    private void createSession() {
+        CameraCaptureSession.StateCallback callback = new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(final CameraCaptureSession configured) {
+                mainHandler.post(() -> startRepeating(configured));
+            }
+
+            @Override
+            public void onConfigureFailed(CameraCaptureSession failed) {
+                mainHandler.post(() -> fail(
+                        new IllegalStateException("Cannot configure the camera")));
+            }
+        };
+        Handler cameraHandler = new Handler(cameraThread.getLooper());
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                camera.createCaptureSession(new SessionConfiguration(
+                        SessionConfiguration.SESSION_REGULAR,
+                        Arrays.asList(new OutputConfiguration(previewSurface),
+                                new OutputConfiguration(reader.getSurface())),
+                        cameraHandler::post, callback));
+            } else {
+                createSessionBeforeP(callback, cameraHandler);
+            }
+        } catch (CameraAccessException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void createSessionBeforeP(CameraCaptureSession.StateCallback callback,
+                                      Handler cameraHandler) throws CameraAccessException {
+        camera.createCaptureSession(Arrays.asList(previewSurface, reader.getSurface()), callback,
+                cameraHandler);
+    }
+
+    @MainThread
+    private void startRepeating(CameraCaptureSession configured) {
+        if (camera == null) {
+            configured.close();
+            return;
+        }
+        session = configured;
+        try {
+            CaptureRequest.Builder request =
+                    camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            request.addTarget(previewSurface);
+            request.addTarget(reader.getSurface());
+            request.set(CaptureRequest.CONTROL_AF_MODE,
+                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            session.setRepeatingRequest(request.build(), null, null);
+        } catch (CameraAccessException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /* analysis thread */
+
+    private void analyse(ImageReader reader) {
+        // Closes every older image still in the reader, dropping frames we fell behind on.
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Cannot acquire a frame", e);
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+        final Palette palette;
+        long start = System.nanoTime();
+        try {
+            Image.Plane[] planes = image.getPlanes();
+            palette = tracker.update(new YuvFrame(image.getWidth(), image.getHeight(),
+                    planes[0].getBuffer(), planes[0].getRowStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(),
+                    planes[1].getRowStride(), planes[1].getPixelStride()));
+        } finally {
+            image.close();
+        }
+        FRAME_MICROS.recordSince(start);
+        FRAMES.increment();
+        if (palette.equals(lastPalette)) {
+            return;
+        }
+        lastPalette = palette;
+        mainHandler.post(() -> {
+            if (listener != null) {
+                listener.onPaletteChanged(palette);
+            }
+        });
+    }
+
+    @MainThread
+    private void fail(Exception error) {
+        Log.e(TAG, "Live palette failed", error);
+        Listener failed = listener;
+        stop();
+        if (failed != null) {
+            failed.onCameraFailed(error);
+        }
+    }
+}
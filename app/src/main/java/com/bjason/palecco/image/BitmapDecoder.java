@@ -0,0 +1,232 @@
+package com.bjason.palecco.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+
+import com.bjason.palecco.metrics.Counter;
+import com.bjason.palecco.metrics.Histogram;
+import com.bjason.palecco.metrics.Metrics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Decodes images at the size a {@link DecodeTarget} asks for.
+ * <p>
+ * The image bounds are read first with {@code inJustDecodeBounds}, which only parses the header.
+ * The real decode then subsamples by the largest power of two that keeps the image at least as
+ * large as the target, and lets the decoder scale the rest of the way through
+ * {@code inDensity}/{@code inTargetDensity}, so no intermediate full-size bitmap is ever created.
+ * Software bitmaps are decoded mutable and into a pooled bitmap from {@link BitmapPool} where one
+ * fits; give them back with {@link BitmapPool#put(Bitmap)} once done with them.
+ */
+public final class BitmapDecoder {
+
+    /**
+     * Opens a fresh stream over the encoded image; it is called once for the bounds and once for
+     * the pixels.
+     */
+    public interface StreamOpener {
+        InputStream open() throws IOException;
+    }
+
+    private static final Histogram DECODE_MICROS = Metrics.getInstance().histogram("decode.micros");
+    private static final Counter POOL_REJECTED =
+            Metrics.getInstance().counter("decode.pool_rejected");
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decodes a file. If {@code outSourceSize} is given, it receives the displayed width and
+     * height of the full image, i.e. after applying its EXIF orientation.
+     */
+    public static Bitmap decodeFile(final File file, DecodeTarget target,
+                                    @Nullable int[] outSourceSize) throws IOException {
+        StreamOpener opener = new StreamOpener() {
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+        Bitmap bitmap = decode(opener, target, file, outSourceSize);
+        if (outSourceSize != null && isRotated(new ExifInterface(file.getPath()))) {
+            swap(outSourceSize);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes a content Uri, see {@link #decodeFile(File, DecodeTarget, int[])}.
+     */
+    public static Bitmap decodeUri(Context context, final Uri uri, DecodeTarget target,
+                                   @Nullable int[] outSourceSize) throws IOException {
+        final Context appContext = context.getApplicationContext();
+        StreamOpener opener = new StreamOpener() {
+            @Override
+            public InputStream open() throws IOException {
+                InputStream stream = appContext.getContentResolver().openInputStream(uri);
+                if (stream == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                return stream;
+            }
+        };
+        Bitmap bitmap = decode(opener, target, uri, outSourceSize);
+        // Reading EXIF from a stream needs API 24; older devices keep the raw orientation.
+        if (outSourceSize != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            try (InputStream stream = opener.open()) {
+                if (isRotated(new ExifInterface(stream))) {
+                    swap(outSourceSize);
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes the image behind {@code opener} no larger than {@code target}. {@code source} is
+     * only used in error messages. If {@code outSourceSize} is given, it receives the stored
+     * width and height of the full image.
+     */
+    public static Bitmap decode(StreamOpener opener, DecodeTarget target, Object source,
+                                @Nullable int[] outSourceSize) throws IOException {
+        long start = System.nanoTime();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream stream = opener.open()) {
+            BitmapFactory.decodeStream(stream, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot read bounds of " + source);
+        }
+        if (outSourceSize != null) {
+            outSourceSize[0] = options.outWidth;
+            outSourceSize[1] = options.outHeight;
+        }
+
+        configure(options, options.outWidth, options.outHeight, target);
+        BitmapPool pool = BitmapPool.getInstance();
+        if (isReusable(target.getConfig())) {
+            options.inMutable = true;
+            options.inBitmap = reuseFor(options, pool);
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = decodeStream(opener, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            bitmap = null;
+        }
+        if (bitmap == null && options.inBitmap != null) {
+            // The decoder rejected the pooled bitmap; decode into a new one instead.
+            POOL_REJECTED.increment();
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = decodeStream(opener, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + source);
+        }
+        // Density was only used to drive scaling; keep canvases from rescaling the result.
+        bitmap.setDensity(Bitmap.DENSITY_NONE);
+        DECODE_MICROS.recordSince(start);
+        return bitmap;
+    }
+
+    private static Bitmap decodeStream(StreamOpener opener, BitmapFactory.Options options)
+            throws IOException {
+        try (InputStream stream = opener.open()) {
+            return BitmapFactory.decodeStream(stream, null, options);
+        }
+    }
+
+    private static boolean isReusable(Bitmap.Config config) {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.O || config != Bitmap.Config.HARDWARE;
+    }
+
+    /**
+     * Returns a pooled bitmap large enough for a decode with the configured {@code options}, or
+     * {@code null}.
+     */
+    @Nullable
+    private static Bitmap reuseFor(BitmapFactory.Options options, BitmapPool pool) {
+        int sampleSize = options.inSampleSize;
+        double width = (options.outWidth + sampleSize - 1) / sampleSize;
+        double height = (options.outHeight + sampleSize - 1) / sampleSize;
+        if (options.inScaled) {
+            double scale = options.inTargetDensity / (double) options.inDensity;
+            width *= scale;
+            height *= scale;
+        }
+        // Decoders round differently; a pixel of slack on each side covers all of them.
+        return pool.getDirty((int) Math.ceil(width) + 1, (int) Math.ceil(height) + 1,
+                options.inPreferredConfig);
+    }
+
+    private static boolean isRotated(ExifInterface exif) {
+        int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                ExifInterface.ORIENTATION_NORMAL);
+        return orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270
+                || orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE;
+    }
+
+    private static void swap(int[] size) {
+        int width = size[0];
+        size[0] = size[1];
+        size[1] = width;
+    }
+
+    /**
+     * Fills the sampling, scaling and config fields of {@code options} for a
+     * {@code width} x {@code height} source.
+     */
+    static void configure(BitmapFactory.Options options, int width, int height,
+                          DecodeTarget target) {
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = target.getConfig();
+
+        double scale = Math.min(1d, Math.min(target.getMaxWidth() / (double) width,
+                target.getMaxHeight() / (double) height));
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+        int sampleSize = calculateInSampleSize(width, height, targetWidth, targetHeight);
+        options.inSampleSize = sampleSize;
+
+        int sampledWidth = (width + sampleSize - 1) / sampleSize;
+        if (sampledWidth > targetWidth) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+        } else {
+            options.inScaled = false;
+            options.inDensity = 0;
+            options.inTargetDensity = 0;
+        }
+    }
+
+    /**
+     * Returns the largest power of two that keeps a {@code width} x {@code height} image at least
+     * {@code targetWidth} x {@code targetHeight} after subsampling.
+     */
+    public static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
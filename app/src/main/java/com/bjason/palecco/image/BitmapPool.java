@@ -0,0 +1,208 @@
+package com.bjason.palecco.image;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import com.bjason.palecco.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Recycled bitmaps, bucketed by allocation size, for reuse through
+ * {@code BitmapFactory.Options.inBitmap} or as drawing targets.
+ * <p>
+ * A bitmap handed out may be larger than asked for; it is reconfigured to the requested size and
+ * config, which needs no allocation. A bitmap is only reused for a request needing at least half
+ * of its bytes, so a few large bitmaps cannot pin memory for many small requests. The pool holds
+ * at most {@code maxBytes}, evicting the least recently returned bitmaps first.
+ * <p>
+ * Only release bitmaps that nothing will draw anymore. All methods are thread-safe.
+ */
+public final class BitmapPool {
+
+    private static BitmapPool shared;
+
+    private final long maxBytes;
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    /** Pooled bitmaps, least recently returned first. */
+    private final LinkedHashSet<Bitmap> order = new LinkedHashSet<>();
+    private long currentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The pool shared by the decoders and renderers of the app, holding up to a sixteenth of the
+     * heap. Its occupancy and hit rate are reported to {@link Metrics}.
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (shared == null) {
+            final BitmapPool pool = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+            Metrics metrics = Metrics.getInstance();
+            metrics.gauge("pool.bytes", pool::getCurrentBytes);
+            metrics.gauge("pool.max_bytes", pool::getMaxBytes);
+            metrics.gauge("pool.hit_percent", () -> {
+                synchronized (pool) {
+                    return Metrics.percent(pool.hits, pool.hits + pool.misses);
+                }
+            });
+            metrics.gauge("pool.evictions", pool::getEvictionCount);
+            shared = pool;
+        }
+        return shared;
+    }
+
+    /**
+     * Returns a bitmap of the given size and config with undefined content, or {@code null} if
+     * none is pooled.
+     */
+    @Nullable
+    public synchronized Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        int needed = byteCount(width, height, config);
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(needed);
+        if (entry == null || entry.getKey() / 2 > needed) {
+            misses++;
+            return null;
+        }
+        ArrayDeque<Bitmap> bucket = entry.getValue();
+        Bitmap bitmap = bucket.poll();
+        if (bucket.isEmpty()) {
+            buckets.remove(entry.getKey());
+        }
+        order.remove(bitmap);
+        currentBytes -= entry.getKey();
+        hits++;
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height
+                || bitmap.getConfig() != config) {
+            bitmap.reconfigure(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns a transparent bitmap of the given size and config, pooled if possible.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getDirty(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(0);
+        return bitmap;
+    }
+
+    /**
+     * Gives {@code bitmap} to the pool. Bitmaps that cannot be reused are recycled instead.
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        int bytes = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || bytes > maxBytes / 2) {
+            bitmap.recycle();
+            return;
+        }
+        synchronized (this) {
+            if (!order.add(bitmap)) {
+                return;
+            }
+            ArrayDeque<Bitmap> bucket = buckets.get(bytes);
+            if (bucket == null) {
+                bucket = new ArrayDeque<>();
+                buckets.put(bytes, bucket);
+            }
+            bucket.add(bitmap);
+            currentBytes += bytes;
+            trimTo(maxBytes);
+        }
+    }
+
+    /**
+     * Recycles every pooled bitmap.
+     */
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    /**
+     * Shrinks the pool as asked by {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            trimTo(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(maxBytes / 2);
+        }
+    }
+
+    private void trimTo(long size) {
+        Iterator<Bitmap> iterator = order.iterator();
+        while (currentBytes > size && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+            int bytes = bitmap.getAllocationByteCount();
+            ArrayDeque<Bitmap> bucket = buckets.get(bytes);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                buckets.remove(bytes);
+            }
+            currentBytes -= bytes;
+            evictions++;
+            bitmap.recycle();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{bytes=" + currentBytes + "/" + maxBytes + ", hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    static int byteCount(int width, int height, Bitmap.Config config) {
+        int bytesPerPixel;
+        switch (config) {
+            case ALPHA_8:
+                bytesPerPixel = 1;
+                break;
+            case RGB_565:
+            case ARGB_4444:
+                bytesPerPixel = 2;
+                break;
+            default:
+                bytesPerPixel = 4;
+                break;
+        }
+        return width * height * bytesPerPixel;
+    }
+}
@@ -0,0 +1,104 @@
+package com.bjason.palecco.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.DisplayMetrics;
+
+/**
+ * The size and pixel format a consumer needs from a decoded image.
+ * <p>
+ * Images are decoded no larger than {@code maxWidth} x {@code maxHeight} (aspect ratio kept),
+ * so a 48MP photo never has to exist in memory at full resolution just to fill a card.
+ */
+public final class DecodeTarget {
+
+    /** Width of a grid card, see {@code image_card.xml}. */
+    private static final float GRID_CARD_WIDTH_DP = 200f;
+    /** Taller cards are rare; their thumbnails need not be sharper than this. */
+    private static final int GRID_CARD_MAX_ASPECT = 4;
+    /** The palette histogram keeps 5 bits per channel, so 565 pixels lose nothing. */
+    private static final int PALETTE_MAX_SIDE = 256;
+    /** Regions picked while zoomed in are small, so they need more pixels than the palette. */
+    private static final int REGION_MAX_SIDE = 1024;
+
+    private final int maxWidth;
+    private final int maxHeight;
+    private final Bitmap.Config config;
+
+    public DecodeTarget(int maxWidth, int maxHeight, Bitmap.Config config) {
+        if (maxWidth < 1 || maxHeight < 1) {
+            throw new IllegalArgumentException("Invalid target " + maxWidth + "x" + maxHeight);
+        }
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.config = config;
+    }
+
+    /**
+     * A grid card: 200dp wide and up to four times as tall. Cards are small, so RGB_565 is
+     * acceptable.
+     */
+    public static DecodeTarget forGridCard(Context context) {
+        int width = Math.round(GRID_CARD_WIDTH_DP * context.getResources().getDisplayMetrics().density);
+        return new DecodeTarget(width, width * GRID_CARD_MAX_ASPECT, Bitmap.Config.RGB_565);
+    }
+
+    /**
+     * A full-screen page that is only handed to an {@code ImageView}, so a hardware bitmap can
+     * be used where available.
+     */
+    public static DecodeTarget forPager(Context context) {
+        Bitmap.Config config = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? Bitmap.Config.HARDWARE : Bitmap.Config.ARGB_8888;
+        return forScreen(context, Integer.MAX_VALUE, config);
+    }
+
+    /**
+     * An image that will be drawn into a software {@code Canvas}, no larger than the screen and
+     * {@code maxSide}.
+     */
+    public static DecodeTarget forDisplay(Context context, int maxSide) {
+        return forScreen(context, maxSide, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * The input of palette extraction, which only needs a few hundred pixels per side.
+     */
+    public static DecodeTarget forPalette() {
+        return new DecodeTarget(PALETTE_MAX_SIDE, PALETTE_MAX_SIDE, Bitmap.Config.RGB_565);
+    }
+
+    /**
+     * The input of region palettes, which index the image once and pick regions out of it.
+     */
+    public static DecodeTarget forRegions() {
+        return new DecodeTarget(REGION_MAX_SIDE, REGION_MAX_SIDE, Bitmap.Config.RGB_565);
+    }
+
+    private static DecodeTarget forScreen(Context context, int maxSide, Bitmap.Config config) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        // The image may be shown in either orientation.
+        int side = Math.min(Math.max(metrics.widthPixels, metrics.heightPixels), maxSide);
+        return new DecodeTarget(side, side, config);
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    public Bitmap.Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the size of the largest bitmap decoded for this target.
+     */
+    public int getMaxBytes() {
+        return BitmapPool.byteCount(maxWidth, maxHeight, config);
+    }
+}
@@ -0,0 +1,232 @@
+package com.bjason.palecco.image;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.bjason.palecco.metrics.Counter;
+import com.bjason.palecco.metrics.Histogram;
+import com.bjason.palecco.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Loads bitmaps on a few background threads, the most urgent first.
+ * <p>
+ * A load has a priority: {@link #PRIORITY_VISIBLE} for what is on screen, and for a prefetch
+ * its distance from the screen in cards or pages, so that nearer ones run first. Among loads of
+ * equal priority the latest request runs first; during a fling the cards bound last are the
+ * ones still on screen. Requests for a key that is already queued or loading share its load,
+ * which moves up if the new request is more urgent. A queued load that all its requests have
+ * cancelled is dropped without running.
+ * <p>
+ * Requests are made and cancelled on the main thread, where results are delivered.
+ */
+public final class LoadScheduler {
+
+    private static final String TAG = "LoadScheduler";
+
+    /** Priority of loads for what is on screen; prefetches use their distance from it. */
+    public static final int PRIORITY_VISIBLE = 0;
+    /** Housekeeping runs ahead of every load. */
+    private static final int PRIORITY_TASK = Integer.MIN_VALUE;
+
+    /**
+     * Produces the bitmap of a load, on a worker thread.
+     */
+    public interface Loader {
+
+        @WorkerThread
+        Bitmap load() throws IOException;
+    }
+
+    /**
+     * Receives the result of a request on the main thread.
+     */
+    public interface Callback {
+
+        void onLoaded(String key, Bitmap bitmap);
+
+        void onFailed(String key, Exception error);
+    }
+
+    /**
+     * One caller's interest in a load.
+     */
+    public final class Request {
+        private final Load load;
+        @Nullable
+        private final Callback callback;
+
+        Request(Load load, @Nullable Callback callback) {
+            this.load = load;
+            this.callback = callback;
+        }
+
+        /**
+         * Stops delivering to this request's callback. The load itself is dropped if it has not
+         * started and no other request wants it.
+         */
+        @MainThread
+        public void cancel() {
+            if (!load.requests.remove(this) || !load.requests.isEmpty()) {
+                return;
+            }
+            if (executor.remove(load)) {
+                loads.remove(load.key);
+                cancelled.increment();
+            }
+        }
+    }
+
+    /** Runs by priority, then the latest first. */
+    private abstract static class Job implements Runnable, Comparable<Job> {
+        // Only changed while the job is out of the queue.
+        int priority;
+        long sequence;
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return Long.compare(other.sequence, sequence);
+        }
+    }
+
+    private final class Load extends Job {
+        final String key;
+        final Loader loader;
+        // Main thread only.
+        final List<Request> requests = new ArrayList<>(1);
+        final long requestedNanos = System.nanoTime();
+
+        Load(String key, Loader loader) {
+            this.key = key;
+            this.loader = loader;
+        }
+
+        @Override
+        public void run() {
+            waitMicros.recordSince(requestedNanos);
+            Bitmap loaded = null;
+            Exception failure = null;
+            try {
+                loaded = loader.load();
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            } catch (OutOfMemoryError e) {
+                failure = new IOException("Out of memory while loading", e);
+            }
+            // Posted whatever happened, so that the key is never left to a load that is over.
+            final Bitmap bitmap = loaded;
+            final Exception error = failure;
+            if (error != null) {
+                Log.e(TAG, "Cannot load " + key, error);
+            }
+            mainHandler.post(() -> {
+                for (Request request : finish(this)) {
+                    if (error != null) {
+                        request.callback.onFailed(key, error);
+                    } else {
+                        request.callback.onLoaded(key, bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** Queued and running loads by key. Main thread only. */
+    private final Map<String, Load> loads = new HashMap<>();
+    private long nextSequence;
+    private final Histogram waitMicros;
+    private final Counter cancelled;
+
+    /**
+     * Creates a scheduler with {@code threads} workers, whose metrics are named after
+     * {@code name}.
+     */
+    public LoadScheduler(final String name, int threads) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "palecco-" + name + "-" + count.incrementAndGet());
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.waitMicros = Metrics.getInstance().histogram(name + ".wait.micros");
+        this.cancelled = Metrics.getInstance().counter(name + ".cancelled");
+    }
+
+    /**
+     * Loads the bitmap of {@code key} with {@code loader}, or joins the load of that key in
+     * progress. {@code callback} may be null for a prefetch whose result is only cached.
+     */
+    @MainThread
+    public Request load(String key, int priority, Loader loader, @Nullable Callback callback) {
+        Load load = loads.get(key);
+        if (load == null) {
+            load = new Load(key, loader);
+            load.priority = priority;
+            load.sequence = nextSequence++;
+            loads.put(key, load);
+            executor.execute(load);
+        } else if (priority <= load.priority && executor.remove(load)) {
+            // Requested again: as urgent as the most urgent request, and the latest.
+            load.priority = priority;
+            load.sequence = nextSequence++;
+            executor.execute(load);
+        }
+        Request request = new Request(load, callback);
+        load.requests.add(request);
+        return request;
+    }
+
+    /**
+     * Runs {@code task} in the background ahead of every queued load.
+     */
+    public void execute(final Runnable task) {
+        Job job = new Job() {
+            @Override
+            public void run() {
+                task.run();
+            }
+        };
+        job.priority = PRIORITY_TASK;
+        executor.execute(job);
+    }
+
+    /** Removes a finished load and returns the requests that want its result. */
+    private List<Request> finish(Load load) {
+        if (loads.get(load.key) == load) {
+            loads.remove(load.key);
+        }
+        List<Request> delivered = new ArrayList<>(load.requests.size());
+        for (Request request : load.requests) {
+            if (request.callback != null) {
+                delivered.add(request);
+            }
+        }
+        load.requests.clear();
+        return delivered;
+    }
+}
@@ -0,0 +1,116 @@
+package com.bjason.palecco.image;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.LruCache;
+
+import java.io.File;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+/**
+ * Screen-sized decodes of library images for the pager, kept in memory for the few pages
+ * around the current one. Pages that are not hardware bitmaps get at most an eighth of the heap,
+ * like thumbnails and tiles, so fewer are kept on devices with large screens and small heaps.
+ * <p>
+ * Pages are loaded through a {@link LoadScheduler}, so the page on screen is decoded before
+ * prefetched ones, and a prefetch that the user swiped away from is dropped before it starts.
+ * Keys are those of the {@link ThumbnailCache}, so keying a page does no disk I/O.
+ */
+public final class PageCache {
+
+    /** Pages kept in memory: the current one and a couple on either side. */
+    private static final int MAX_PAGES = 5;
+
+    private static PageCache instance;
+
+    private final DecodeTarget target;
+    private final LruCache<String, Bitmap> memory;
+    // Pages are decoded one at a time; two full-screen decodes at once would mostly compete.
+    private final LoadScheduler scheduler = new LoadScheduler("page", 1);
+
+    @MainThread
+    public static PageCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new PageCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PageCache(Context context) {
+        this.target = DecodeTarget.forPager(context);
+        long maxBytes = (long) MAX_PAGES * target.getMaxBytes();
+        if (!isHardware(target.getConfig())) {
+            // Pages on the heap share it with thumbnails and tiles; keep at least the current one.
+            maxBytes = Math.max(target.getMaxBytes(),
+                    Math.min(maxBytes, Runtime.getRuntime().maxMemory() / 8));
+        }
+        this.memory = new LruCache<String, Bitmap>((int) Math.min(Integer.MAX_VALUE, maxBytes)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    private static boolean isHardware(Bitmap.Config config) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE;
+    }
+
+    /**
+     * Returns the page of {@code source} if it is in memory.
+     */
+    @Nullable
+    public Bitmap getFromMemory(File source) {
+        return memory.get(ThumbnailCache.keyOf(source));
+    }
+
+    /**
+     * Loads the page of {@code source} in the background with the given {@link LoadScheduler}
+     * priority.
+     */
+    @MainThread
+    public LoadScheduler.Request load(File source, int priority, LoadScheduler.Callback callback) {
+        String key = ThumbnailCache.keyOf(source);
+        return scheduler.load(key, priority, loaderOf(source, key), callback);
+    }
+
+    /**
+     * Decodes the page of {@code source} ahead of the pager reaching it, {@code distance}
+     * pages away. Returns null if it is in memory already.
+     */
+    @MainThread
+    @Nullable
+    public LoadScheduler.Request prefetch(File source, int distance) {
+        String key = ThumbnailCache.keyOf(source);
+        if (memory.get(key) != null) {
+            return null;
+        }
+        return scheduler.load(key, Math.max(1, distance), loaderOf(source, key), null);
+    }
+
+    private LoadScheduler.Loader loaderOf(final File source, final String key) {
+        return () -> {
+            Bitmap bitmap = memory.get(key);
+            if (bitmap == null) {
+                bitmap = BitmapDecoder.decodeFile(source, target, null);
+                memory.put(key, bitmap);
+            }
+            return bitmap;
+        };
+    }
+
+    /**
+     * Shrinks the memory tier as asked by {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            memory.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memory.trimToSize(memory.maxSize() / 2);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.bjason.palecco.image;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.bjason.palecco.metrics.Histogram;
+import com.bjason.palecco.metrics.Metrics;
+import com.bjason.palecco.palette.Palette;
+import com.bjason.palecco.palette.RegionHistogram;
+import com.bjason.palecco.palette.RegionPaletteTracker;
+
+import java.io.File;
+import java.io.IOException;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Extracts the palette of a region of a library image while the user drags it across the image.
+ * <p>
+ * The image is decoded at {@link DecodeTarget#forRegions()} size and indexed into a
+ * {@link RegionHistogram} once, on a thread of the session's own. From then on each region only
+ * updates the histogram of the previous one, see {@link RegionPaletteTracker}. Regions are not
+ * queued: one selected while another is being extracted replaces any that was waiting, so the
+ * palette is never more than one extraction behind the finger.
+ * <p>
+ * Like the page, the image is indexed as stored, without its EXIF orientation.
+ */
+public final class RegionPaletteSession {
+
+    private static final String TAG = "RegionPaletteSession";
+
+    private static final Histogram INDEX_MICROS =
+            Metrics.getInstance().histogram("region.index.micros");
+    private static final Histogram EXTRACT_MICROS =
+            Metrics.getInstance().histogram("region.extract.micros");
+
+    /**
+     * Receives palettes on the main thread.
+     */
+    public interface Listener {
+
+        void onRegionPalette(Palette palette);
+    }
+
+    private final File source;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread thread;
+    private final Handler handler;
+    private volatile boolean closed;
+
+    // Guarded by this: the latest region not extracted yet, in fractions of the image.
+    private boolean pending;
+    private float pendingLeft;
+    private float pendingTop;
+    private float pendingRight;
+    private float pendingBottom;
+
+    // Session thread only; null until indexed.
+    private RegionPaletteTracker tracker;
+    private int width;
+    private int height;
+
+    /**
+     * Starts indexing {@code source} in the background.
+     */
+    @MainThread
+    public RegionPaletteSession(File source, Listener listener) {
+        this.source = source;
+        this.listener = listener;
+        this.thread = new HandlerThread("palecco-region-palette",
+                Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+        handler.post(this::index);
+    }
+
+    /**
+     * Extracts the palette of the region {@code [left, right) x [top, bottom)}, in fractions of
+     * the width and height of the image, as soon as the session gets to it.
+     */
+    @MainThread
+    public void select(float left, float top, float right, float bottom) {
+        boolean idle;
+        synchronized (this) {
+            idle = !pending;
+            pending = true;
+            pendingLeft = left;
+            pendingTop = top;
+            pendingRight = right;
+            pendingBottom = bottom;
+        }
+        if (idle) {
+            handler.post(this::extractPending);
+        }
+    }
+
+    /**
+     * Stops the session; no palette is delivered after this.
+     */
+    @MainThread
+    public void close() {
+        closed = true;
+        thread.quitSafely();
+    }
+
+    @WorkerThread
+    private void index() {
+        long start = System.nanoTime();
+        try {
+            Bitmap bitmap = BitmapDecoder.decodeFile(source, DecodeTarget.forRegions(), null);
+            width = bitmap.getWidth();
+            height = bitmap.getHeight();
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            BitmapPool.getInstance().put(bitmap);
+            tracker = new RegionPaletteTracker(new RegionHistogram(pixels, width, height));
+            INDEX_MICROS.recordSince(start);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Cannot index " + source, e);
+            return;
+        }
+        // Regions selected while indexing were left for now.
+        extractPending();
+    }
+
+    @WorkerThread
+    private void extractPending() {
+        if (tracker == null || closed) {
+            return;
+        }
+        int left;
+        int top;
+        int right;
+        int bottom;
+        synchronized (this) {
+            if (!pending) {
+                return;
+            }
+            pending = false;
+            left = Math.round(pendingLeft * width);
+            top = Math.round(pendingTop * height);
+            right = Math.round(pendingRight * width);
+            bottom = Math.round(pendingBottom * height);
+        }
+        long start = System.nanoTime();
+        final Palette palette = tracker.update(left, top, right, bottom);
+        EXTRACT_MICROS.recordSince(start);
+        mainHandler.post(() -> {
+            if (!closed) {
+                listener.onRegionPalette(palette);
+            }
+        });
+    }
+}
@@ -0,0 +1,295 @@
+package com.bjason.palecco.image;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.bjason.palecco.metrics.Counter;
+import com.bjason.palecco.metrics.Metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Card-sized thumbnails of library images, cached in memory and on disk.
+ * <p>
+ * The memory tier is an LRU bounded by bitmap bytes. The disk tier keeps pre-scaled JPEGs in the
+ * app's cache directory, bounded by total file size and trimmed least recently used first. Both
+ * are keyed by {@link #keyOf(File)}, i.e. the image id: library files are never rewritten, and a
+ * content-addressed id always names the same bytes, so a thumbnail cannot go stale. Only a miss
+ * in both tiers decodes the original, and then at card size into a pooled bitmap. Thumbnails
+ * evicted from memory are not returned to the {@link BitmapPool} as a card may still show them.
+ * <p>
+ * Loads go through a {@link LoadScheduler}, so cards on screen are served before prefetches,
+ * and prefetches nearest to the screen first.
+ */
+public final class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+    private static final String DIR_NAME = "thumbnails";
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+    private static final int JPEG_QUALITY = 85;
+
+    /**
+     * Receives a loaded thumbnail on the main thread.
+     */
+    public interface Callback {
+
+        void onThumbnailReady(String key, Bitmap bitmap);
+
+        void onThumbnailFailed(String key, Exception error);
+    }
+
+    private static ThumbnailCache instance;
+
+    private final LruCache<String, Bitmap> memory;
+    private final File directory;
+    private final DecodeTarget target;
+    private final LoadScheduler scheduler = new LoadScheduler("thumbnail", 2);
+    private final Counter memoryLookups;
+    private final Counter memoryHits;
+    private final Counter diskHits;
+    private final Counter originalDecodes;
+    private final Counter prefetches;
+    /** Bytes on disk, or -1 until first counted. Guarded by {@code this}. */
+    private long diskBytes = -1;
+
+    @MainThread
+    public static ThumbnailCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ThumbnailCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ThumbnailCache(Context context) {
+        this.directory = new File(context.getCacheDir(), DIR_NAME);
+        this.target = DecodeTarget.forGridCard(context);
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        this.memory = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+
+        Metrics metrics = Metrics.getInstance();
+        this.memoryLookups = metrics.counter("thumbnail.memory_lookups");
+        this.memoryHits = metrics.counter("thumbnail.memory_hits");
+        this.diskHits = metrics.counter("thumbnail.disk_hits");
+        this.originalDecodes = metrics.counter("thumbnail.original_decodes");
+        this.prefetches = metrics.counter("thumbnail.prefetches");
+        metrics.gauge("thumbnail.memory_hit_percent",
+                () -> Metrics.percent(memoryHits.get(), memoryLookups.get()));
+        metrics.gauge("thumbnail.disk_hit_percent",
+                () -> Metrics.percent(diskHits.get(), diskHits.get() + originalDecodes.get()));
+        metrics.gauge("thumbnail.memory_bytes", () -> memory.size());
+    }
+
+    /**
+     * Returns the cache key of the thumbnail of {@code source}. It is derived from the name
+     * alone, so keying a card on the main thread touches no disk.
+     */
+    public static String keyOf(File source) {
+        return source.getName();
+    }
+
+    /**
+     * Returns the thumbnail if it is in memory.
+     */
+    @Nullable
+    public Bitmap getFromMemory(String key) {
+        Bitmap bitmap = memory.get(key);
+        memoryLookups.increment();
+        if (bitmap != null) {
+            memoryHits.increment();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Loads the thumbnail of {@code source} in the background, for a card on screen. The
+     * returned request can be cancelled, after which the callback is not called.
+     */
+    @MainThread
+    public LoadScheduler.Request load(File source, String key, Callback callback) {
+        return load(source, key, LoadScheduler.PRIORITY_VISIBLE, callback);
+    }
+
+    /**
+     * Loads the thumbnail of {@code source} in the background with the given
+     * {@link LoadScheduler} priority.
+     */
+    @MainThread
+    public LoadScheduler.Request load(final File source, final String key, int priority,
+                                      final Callback callback) {
+        return scheduler.load(key, priority, () -> get(source, key),
+                new LoadScheduler.Callback() {
+                    @Override
+                    public void onLoaded(String key, Bitmap bitmap) {
+                        callback.onThumbnailReady(key, bitmap);
+                    }
+
+                    @Override
+                    public void onFailed(String key, Exception error) {
+                        callback.onThumbnailFailed(key, error);
+                    }
+                });
+    }
+
+    /**
+     * Loads the thumbnail of {@code source} into memory ahead of its card, {@code distance}
+     * cards away from the screen. Returns null if it is in memory already.
+     */
+    @MainThread
+    @Nullable
+    public LoadScheduler.Request prefetch(final File source, final String key, int distance) {
+        // Not through getFromMemory, which would count prefetches as card lookups.
+        if (memory.get(key) != null) {
+            return null;
+        }
+        prefetches.increment();
+        return scheduler.load(key, Math.max(1, distance), () -> get(source, key), null);
+    }
+
+    /**
+     * Returns the thumbnail of {@code source}, from memory, disk or the original in that order.
+     */
+    @WorkerThread
+    public Bitmap get(File source, String key) throws IOException {
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        File cached = new File(directory, key);
+        if (cached.exists()) {
+            try {
+                bitmap = BitmapDecoder.decodeFile(cached, target, null);
+                // Reading counts as a use for the disk LRU.
+                cached.setLastModified(System.currentTimeMillis());
+                memory.put(key, bitmap);
+                diskHits.increment();
+                return bitmap;
+            } catch (IOException e) {
+                Log.e(TAG, "Discarding unreadable thumbnail " + key, e);
+                cached.delete();
+            }
+        }
+        bitmap = BitmapDecoder.decodeFile(source, target, null);
+        originalDecodes.increment();
+        memory.put(key, bitmap);
+        writeToDisk(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Shrinks the memory tier as asked by {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            memory.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memory.trimToSize(memory.maxSize() / 2);
+        }
+    }
+
+    /**
+     * Drops the thumbnail of the image with the given id, which is its key.
+     */
+    public void evict(final String id) {
+        memory.remove(id);
+        scheduler.execute(() -> {
+            File file = new File(directory, id);
+            long length = file.length();
+            if (file.delete()) {
+                addDiskBytes(-length);
+            }
+        });
+    }
+
+    private void writeToDisk(String key, Bitmap bitmap) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        File temp = new File(directory, "." + key + ".tmp");
+        File out = new File(directory, key);
+        try (OutputStream stream = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write thumbnail " + key, e);
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(out)) {
+            addDiskBytes(out.length());
+        } else {
+            temp.delete();
+        }
+    }
+
+    private void addDiskBytes(long delta) {
+        boolean trim;
+        synchronized (this) {
+            if (diskBytes < 0) {
+                diskBytes = countDiskBytes();
+            } else {
+                diskBytes += delta;
+            }
+            trim = diskBytes > MAX_DISK_BYTES;
+        }
+        if (trim) {
+            trimDisk();
+        }
+    }
+
+    private long countDiskBytes() {
+        long total = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Deletes the least recently used thumbnails until the disk tier is under three quarters of
+     * its budget.
+     */
+    private synchronized void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+        for (int i = 0; i < order.length && diskBytes > MAX_DISK_BYTES * 3 / 4; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+}
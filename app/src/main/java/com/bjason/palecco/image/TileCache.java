@@ -0,0 +1,143 @@
+package com.bjason.palecco.image;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.bjason.palecco.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+/**
+ * Full-resolution tiles of {@link TiledImage}s, for zooming in past the page.
+ * <p>
+ * Tiles are kept in an LRU bounded by bitmap bytes and keyed by image, level, column and row,
+ * so zooming back into a part of an image, or swiping back to it, shows tiles decoded before.
+ * They are decoded through a {@link LoadScheduler}, the tiles nearest the middle of the screen
+ * first, and tiles scrolled away from before they started are never decoded. Tiles evicted from
+ * memory are not returned to the {@link BitmapPool} as the view may still draw them.
+ */
+public final class TileCache {
+
+    private static final String TAG = "TileCache";
+
+    /**
+     * Receives an opened image on the main thread.
+     */
+    public interface OpenCallback {
+
+        void onOpened(TiledImage image);
+
+        void onOpenFailed(Exception error);
+    }
+
+    private static TileCache instance;
+
+    private final LruCache<String, Bitmap> memory;
+    // A region decoder serializes the decodes of its image, so more threads would only wait.
+    private final LoadScheduler scheduler = new LoadScheduler("tile", 1);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @MainThread
+    public static TileCache getInstance() {
+        if (instance == null) {
+            instance = new TileCache();
+        }
+        return instance;
+    }
+
+    private TileCache() {
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        this.memory = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+        Metrics.getInstance().gauge("tile.memory_bytes", () -> memory.size());
+    }
+
+    private static String keyOf(TiledImage image, int level, int column, int row) {
+        return image.getKey() + "/" + level + "/" + column + "/" + row;
+    }
+
+    /**
+     * Returns the bytes the tiles may take up in memory.
+     */
+    public int getMaxBytes() {
+        return memory.maxSize();
+    }
+
+    /**
+     * Opens {@code source} for tiling in the background. The image must be closed with
+     * {@link #close(TiledImage)}.
+     */
+    @MainThread
+    public void open(final File source, final OpenCallback callback) {
+        final String key = ThumbnailCache.keyOf(source);
+        scheduler.execute(() -> {
+            try {
+                final TiledImage image = new TiledImage(key,
+                        BitmapRegionDecoder.newInstance(source.getPath(), false));
+                mainHandler.post(() -> callback.onOpened(image));
+            } catch (final IOException e) {
+                Log.e(TAG, "Cannot open " + source, e);
+                mainHandler.post(() -> callback.onOpenFailed(e));
+            }
+        });
+    }
+
+    /**
+     * Frees the decoder of {@code image} once the tiles being decoded are done. Its tiles stay
+     * in memory.
+     */
+    @MainThread
+    public void close(final TiledImage image) {
+        scheduler.execute(image::close);
+    }
+
+    /**
+     * Returns a tile if it is in memory.
+     */
+    @Nullable
+    public Bitmap getFromMemory(TiledImage image, int level, int column, int row) {
+        return memory.get(keyOf(image, level, column, row));
+    }
+
+    /**
+     * Decodes a tile in the background with the given {@link LoadScheduler} priority.
+     */
+    @MainThread
+    public LoadScheduler.Request load(final TiledImage image, final int level, final int column,
+                                      final int row, int priority,
+                                      LoadScheduler.Callback callback) {
+        final String key = keyOf(image, level, column, row);
+        return scheduler.load(key, priority, () -> {
+            Bitmap tile = memory.get(key);
+            if (tile == null) {
+                tile = image.decodeTile(level, column, row);
+                memory.put(key, tile);
+            }
+            return tile;
+        }, callback);
+    }
+
+    /**
+     * Shrinks the memory tier as asked by {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            memory.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memory.trimToSize(memory.maxSize() / 2);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.bjason.palecco.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import com.bjason.palecco.metrics.Histogram;
+import com.bjason.palecco.metrics.Metrics;
+
+import java.io.IOException;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * A library image decoded a tile at a time, so that it can be shown at full resolution without
+ * ever holding all of it in memory.
+ * <p>
+ * Tiles form a pyramid: at level {@code l} the image is subsampled by {@code 2^l}, and cut into
+ * {@link #TILE_SIZE} pixel squares counted in columns and rows from the top left. Like the page
+ * it sharpens, the image is tiled as stored, without its EXIF orientation.
+ * <p>
+ * Open one through {@link TileCache#open}, and close it there once it is no longer shown.
+ */
+public final class TiledImage {
+
+    /** Side of a tile in the pixels of its level. */
+    public static final int TILE_SIZE = 256;
+
+    private static final Histogram DECODE_MICROS =
+            Metrics.getInstance().histogram("tile.decode.micros");
+
+    private final String key;
+    private final int width;
+    private final int height;
+    // Guarded by this; null once closed.
+    private BitmapRegionDecoder decoder;
+
+    TiledImage(String key, BitmapRegionDecoder decoder) {
+        this.key = key;
+        this.width = decoder.getWidth();
+        this.height = decoder.getHeight();
+        this.decoder = decoder;
+    }
+
+    /** Returns the key of the image file, see {@link ThumbnailCache#keyOf}. */
+    public String getKey() {
+        return key;
+    }
+
+    /** Returns the stored width of the full image. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Returns the stored height of the full image. */
+    public int getHeight() {
+        return height;
+    }
+
+    /** Returns the number of tile columns at {@code level}. */
+    public int getColumnCount(int level) {
+        return (width + (TILE_SIZE << level) - 1) / (TILE_SIZE << level);
+    }
+
+    /** Returns the number of tile rows at {@code level}. */
+    public int getRowCount(int level) {
+        return (height + (TILE_SIZE << level) - 1) / (TILE_SIZE << level);
+    }
+
+    /**
+     * Sets {@code out} to the part of the full image, in its own pixels, that a tile covers.
+     * Tiles on the right and bottom edges are cut short by the image bounds.
+     */
+    public void getTileBounds(int level, int column, int row, Rect out) {
+        int span = TILE_SIZE << level;
+        out.set(column * span, row * span, Math.min(width, (column + 1) * span),
+                Math.min(height, (row + 1) * span));
+    }
+
+    @WorkerThread
+    synchronized Bitmap decodeTile(int level, int column, int row) throws IOException {
+        if (decoder == null) {
+            throw new IOException("Closed " + key);
+        }
+        long start = System.nanoTime();
+        Rect bounds = new Rect();
+        getTileBounds(level, column, row, bounds);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1 << level;
+        // Tiles are for inspecting colors up close, so they keep all eight bits per channel.
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap tile = decoder.decodeRegion(bounds, options);
+        if (tile == null) {
+            throw new IOException("Cannot decode " + bounds + " of " + key);
+        }
+        DECODE_MICROS.recordSince(start);
+        return tile;
+    }
+
+    /** Frees the decoder; tiles cannot be decoded anymore. */
+    @WorkerThread
+    synchronized void close() {
+        if (decoder != null) {
+            decoder.recycle();
+            decoder = null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.bjason.palecco.ingest;
+
+import com.bjason.palecco.library.ImageRecord;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The started jobs of an {@link IngestionPipeline}, held until their results can be handed to
+ * its {@link IngestionPipeline.Listener}.
+ * <p>
+ * Jobs that add an image to the library are delivered in the order they started, so that images
+ * picked together are inserted in the order they were picked. Jobs that only read a library
+ * image are delivered as soon as they finish: the records of a page on screen never wait for an
+ * import, nor for each other.
+ * <p>
+ * A cancelled import that stored its image before it noticed, possibly while it waited for an
+ * earlier one, is delivered as completed, so that the library lists every file it stored.
+ * <p>
+ * Only used on the main thread.
+ */
+final class DeliveryQueue {
+
+    private final ArrayDeque<IngestionJob> imports = new ArrayDeque<>();
+    private final List<IngestionJob> loads = new ArrayList<>();
+
+    void add(IngestionJob job) {
+        if (job.source.shouldPersist()) {
+            imports.add(job);
+        } else {
+            loads.add(job);
+        }
+    }
+
+    /**
+     * Returns the number of jobs started but not yet delivered.
+     */
+    int size() {
+        return imports.size() + loads.size();
+    }
+
+    boolean isEmpty() {
+        return imports.isEmpty() && loads.isEmpty();
+    }
+
+    void cancelAll() {
+        for (IngestionJob job : imports) {
+            job.cancel();
+        }
+        for (IngestionJob job : loads) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Marks {@code job} finished and delivers every job that can be delivered now.
+     */
+    void finish(IngestionJob job, @Nullable IngestionPipeline.Listener listener) {
+        job.finished = true;
+        if (loads.remove(job)) {
+            deliver(job, listener);
+        }
+        // A later import that finishes first waits here until every earlier one has been
+        // delivered.
+        while (!imports.isEmpty() && imports.peek().finished) {
+            deliver(imports.poll(), listener);
+        }
+    }
+
+    private static void deliver(IngestionJob job, @Nullable IngestionPipeline.Listener listener) {
+        if (listener == null) {
+            return;
+        }
+        boolean stored = job.file != null && job.source.shouldPersist();
+        if (job.isCancelled() && !stored) {
+            listener.onJobCancelled(job);
+        } else if (job.error != null) {
+            listener.onJobFailed(job, job.error);
+        } else {
+            listener.onJobCompleted(job, new IngestionResult(
+                    new ImageRecord(job.file, job.sourceSize[0], job.sourceSize[1], job.palette)));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.bjason.palecco.ingest;
+
+import android.graphics.Bitmap;
+
+import com.bjason.palecco.palette.Palette;
+
+import java.io.File;
+
+/**
+ * One image travelling through the {@link IngestionPipeline}.
+ * <p>
+ * Stage outputs are written by whichever worker runs the stage; the executor hand-off between
+ * stages publishes them to the next worker.
+ */
+public final class IngestionJob {
+
+    private final long sequence;
+    final IngestionSource source;
+    private volatile boolean cancelled;
+
+    Bitmap decoded;
+    final int[] sourceSize = new int[2];
+    Palette palette;
+    File file;
+    Exception error;
+    int stagesCompleted;
+    boolean finished;
+
+    IngestionJob(long sequence, IngestionSource source) {
+        this.sequence = sequence;
+        this.source = source;
+    }
+
+    /**
+     * Submission order of this job; imports are delivered in this order unless a job was
+     * prioritized.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public IngestionSource getSource() {
+        return source;
+    }
+
+    /**
+     * Asks the pipeline to stop this job before its next stage, see
+     * {@link IngestionPipeline#cancel(IngestionJob)}. A cancelled job is delivered to
+     * {@link IngestionPipeline.Listener#onJobCancelled} unless it had stored its image already.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,433 @@
+package com.bjason.palecco.ingest;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.bjason.palecco.image.BitmapPool;
+import com.bjason.palecco.image.DecodeTarget;
+import com.bjason.palecco.library.ImageRecord;
+import com.bjason.palecco.library.ImageStore;
+import com.bjason.palecco.metrics.Histogram;
+import com.bjason.palecco.metrics.Metrics;
+import com.bjason.palecco.palette.Palette;
+import com.bjason.palecco.palette.ProgressiveExtractor;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+/**
+ * Imports images and reads the metadata of library images off the UI thread.
+ * <p>
+ * Every {@link IngestionJob} runs through {@link Stage#DECODE}, {@link Stage#DOWNSCALE},
+ * {@link Stage#EXTRACT} and {@link Stage#PERSIST}, and produces an {@link ImageRecord}.
+ * Decoding, the CPU-bound middle stages and persisting each run on their own bounded executor,
+ * so one job can be written to disk while the next is being quantized. At most
+ * {@link #maxInFlight} jobs are inside the executors at once, fewer if their decoded bitmaps
+ * would not fit in a fixed share of the heap; further submissions wait in a queue of cheap,
+ * undecoded sources, which keeps memory bounded however many images are imported.
+ * <p>
+ * {@link Stage#EXTRACT} refines the palette in passes with a {@link ProgressiveExtractor}, and
+ * every palette but the final one is handed to {@link Listener#onPaletteUpdated} as soon as it
+ * is ready, so that a coarse palette can be shown long before the job completes.
+ * <p>
+ * Queued jobs start in submission order, except that {@link #prioritize} moves one to the front,
+ * e.g. because its image came on screen. Imports are delivered in the order they start, and
+ * loads of library images as soon as they finish, see {@link DeliveryQueue}.
+ * <p>
+ * All public methods and all {@link Listener} callbacks run on the main thread.
+ */
+public final class IngestionPipeline {
+
+    private static final String TAG = "IngestionPipeline";
+
+    public enum Stage {
+        DECODE,
+        DOWNSCALE,
+        EXTRACT,
+        PERSIST
+    }
+
+    /**
+     * Receives progress and results on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called whenever a stage finishes. {@code completed == total} once the pipeline is idle.
+         */
+        void onProgress(int completed, int total);
+
+        /**
+         * Called with each intermediate palette of a job, coarsest first. The final palette
+         * comes with {@link #onJobCompleted}. Not called for cancelled jobs.
+         */
+        void onPaletteUpdated(IngestionJob job, Palette palette);
+
+        void onJobCompleted(IngestionJob job, IngestionResult result);
+
+        void onJobFailed(IngestionJob job, Exception error);
+
+        /**
+         * Called when a cancelled job stops. A job cancelled after its image was stored is
+         * completed instead, as the image stays in the library.
+         */
+        void onJobCancelled(IngestionJob job);
+    }
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    /** Decoded bitmaps of jobs in flight get at most this fraction of the heap. */
+    private static final int DECODE_MEMORY_DIVISOR = 16;
+    private static final int STAGE_COUNT = Stage.values().length;
+
+    private static final Histogram QUEUE_DEPTH =
+            Metrics.getInstance().histogram("ingest.queue_depth");
+    private static final Histogram EXTRACT_MICROS =
+            Metrics.getInstance().histogram("extract.micros");
+    // Passes of the ProgressiveExtractor, by the quantizer that ran them.
+    private static final Histogram SAMPLE_PASS_MICROS =
+            Metrics.getInstance().histogram("extract.sample_pass.micros");
+    private static final Histogram MEDIAN_CUT_PASS_MICROS =
+            Metrics.getInstance().histogram("extract.median_cut_pass.micros");
+    private static final Histogram K_MEANS_PASS_MICROS =
+            Metrics.getInstance().histogram("extract.k_means_pass.micros");
+
+    private final Context context;
+    private final ImageStore imageStore;
+    private final DecodeTarget paletteTarget = DecodeTarget.forPalette();
+    private final BitmapPool bitmapPool = BitmapPool.getInstance();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final int maxInFlight;
+    private final ThreadPoolExecutor decodeExecutor;
+    private final ThreadPoolExecutor computeExecutor;
+    private final ThreadPoolExecutor persistExecutor;
+
+    // Per-worker scratch objects; none of them is thread-safe.
+    private final ThreadLocal<ProgressiveExtractor> extractors =
+            new ThreadLocal<ProgressiveExtractor>() {
+                @Override
+                protected ProgressiveExtractor initialValue() {
+                    return new ProgressiveExtractor();
+                }
+            };
+    private final ThreadLocal<int[]> pixelBuffers = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[paletteTarget.getMaxWidth() * paletteTarget.getMaxHeight()];
+        }
+    };
+
+    // Main thread only.
+    private final ArrayDeque<IngestionJob> pending = new ArrayDeque<>();
+    private final DeliveryQueue active = new DeliveryQueue();
+    private int running;
+    private long nextSequence;
+    private int completedStages;
+    private int totalStages;
+    private boolean shutdown;
+    @Nullable
+    private Listener listener;
+
+    public IngestionPipeline(Context context) {
+        this.context = context.getApplicationContext();
+        this.imageStore = new ImageStore(this.context);
+        // Decodes dominate memory, so fewer of them run at once than there are cores.
+        int decodeThreads = Math.max(1, CPU_COUNT / 2);
+        // A job in flight holds its decode and, until extracted, a downscaled copy of it.
+        long budget = Runtime.getRuntime().maxMemory() / DECODE_MEMORY_DIVISOR;
+        long bytesPerJob = 2L * paletteTarget.getMaxBytes();
+        this.maxInFlight = (int) Math.max(1,
+                Math.min(CPU_COUNT + decodeThreads, budget / bytesPerJob));
+        this.decodeExecutor = newExecutor("decode", decodeThreads, maxInFlight);
+        this.computeExecutor = newExecutor("compute", CPU_COUNT, maxInFlight);
+        this.persistExecutor = newExecutor("persist", 1, maxInFlight);
+    }
+
+    private static ThreadPoolExecutor newExecutor(final String name, int threads, int capacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }, "palecco-" + name + "-" + count.incrementAndGet());
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @MainThread
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a source for ingestion and returns its job.
+     */
+    @MainThread
+    public IngestionJob submit(IngestionSource source) {
+        IngestionJob job = new IngestionJob(nextSequence++, source);
+        pending.add(job);
+        totalStages += STAGE_COUNT;
+        QUEUE_DEPTH.record(getQueueDepth());
+        pump();
+        return job;
+    }
+
+    /**
+     * Starts {@code job} before every other queued job. Jobs that have started are not affected.
+     */
+    @MainThread
+    public void prioritize(IngestionJob job) {
+        if (pending.peekFirst() != job && pending.remove(job)) {
+            pending.addFirst(job);
+        }
+    }
+
+    /**
+     * Returns the number of jobs submitted but not yet delivered.
+     */
+    @MainThread
+    public int getQueueDepth() {
+        return pending.size() + active.size();
+    }
+
+    /**
+     * Cancels {@code job}. A queued job is dropped at once, a running one before its next stage.
+     */
+    @MainThread
+    public void cancel(IngestionJob job) {
+        job.cancel();
+        if (pending.remove(job)) {
+            totalStages -= STAGE_COUNT;
+            if (listener != null) {
+                listener.onJobCancelled(job);
+            }
+            resetProgressIfIdle();
+        }
+    }
+
+    /**
+     * Cancels every queued and running job.
+     */
+    @MainThread
+    public void cancelAll() {
+        active.cancelAll();
+        totalStages -= pending.size() * STAGE_COUNT;
+        while (!pending.isEmpty()) {
+            IngestionJob job = pending.poll();
+            job.cancel();
+            if (listener != null) {
+                listener.onJobCancelled(job);
+            }
+        }
+        resetProgressIfIdle();
+    }
+
+    /**
+     * Cancels all work and stops the worker threads. The pipeline cannot be used afterwards.
+     */
+    @MainThread
+    public void shutdown() {
+        shutdown = true;
+        listener = null;
+        cancelAll();
+        decodeExecutor.shutdownNow();
+        computeExecutor.shutdownNow();
+        persistExecutor.shutdownNow();
+    }
+
+    private void pump() {
+        while (!shutdown && running < maxInFlight && !pending.isEmpty()) {
+            final IngestionJob job = pending.poll();
+            active.add(job);
+            running++;
+            decodeExecutor.execute(() -> decode(job));
+        }
+    }
+
+    /* worker stages */
+
+    private void decode(final IngestionJob job) {
+        if (job.isCancelled()) {
+            finish(job);
+            return;
+        }
+        try {
+            job.decoded = job.source.decode(context, paletteTarget, job.sourceSize);
+            stageFinished(job);
+            computeExecutor.execute(() -> compute(job));
+        } catch (IOException | RuntimeException e) {
+            fail(job, e);
+        } catch (OutOfMemoryError e) {
+            fail(job, new IOException("Out of memory while decoding", e));
+        }
+    }
+
+    private void compute(final IngestionJob job) {
+        if (job.isCancelled()) {
+            finish(job);
+            return;
+        }
+        final Bitmap decoded = job.decoded;
+        Bitmap sample = null;
+        try {
+            // DOWNSCALE; the decoder normally delivers the target size already.
+            sample = scaleToFit(decoded, paletteTarget.getMaxWidth());
+            int width = sample.getWidth();
+            int height = sample.getHeight();
+            int[] pixels = pixelBuffers.get();
+            sample.getPixels(pixels, 0, width, 0, 0, width, height);
+            stageFinished(job);
+
+            // EXTRACT
+            final long extractStart = System.nanoTime();
+            final boolean sampled = ProgressiveExtractor.hasCoarsePass(width, height);
+            job.palette = extractors.get().extract(pixels, width, height,
+                    new ProgressiveExtractor.Listener() {
+                        private long passStart = extractStart;
+
+                        @Override
+                        public boolean onPalette(Palette palette, int pass, boolean last) {
+                            passHistogram(sampled ? pass : pass + 1).recordSince(passStart);
+                            passStart = System.nanoTime();
+                            if (!last) {
+                                paletteUpdated(job, palette);
+                            }
+                            // A cancelled job stops refining; its result is dropped anyway.
+                            return !job.isCancelled();
+                        }
+                    });
+            EXTRACT_MICROS.recordSince(extractStart);
+            stageFinished(job);
+        } catch (RuntimeException e) {
+            fail(job, e);
+            return;
+        } catch (OutOfMemoryError e) {
+            fail(job, new IOException("Out of memory while extracting", e));
+            return;
+        } finally {
+            if (sample != null && sample != decoded) {
+                bitmapPool.put(sample);
+            }
+        }
+
+        if (job.source.shouldPersist()) {
+            persistExecutor.execute(() -> persist(job));
+        } else {
+            persist(job);
+        }
+    }
+
+    private void persist(IngestionJob job) {
+        if (job.isCancelled()) {
+            finish(job);
+            return;
+        }
+        try {
+            job.file = job.source.persist(context, imageStore);
+            if (job.source.shouldPersist()) {
+                stageFinished(job);
+            }
+            finish(job);
+        } catch (IOException | RuntimeException e) {
+            fail(job, e);
+        } catch (OutOfMemoryError e) {
+            fail(job, new IOException("Out of memory while storing", e));
+        }
+    }
+
+    /**
+     * Returns the histogram of a pass, numbered as if the coarse sample pass had run.
+     */
+    private static Histogram passHistogram(int pass) {
+        return pass == 0 ? SAMPLE_PASS_MICROS : pass == 1 ? MEDIAN_CUT_PASS_MICROS
+                : K_MEANS_PASS_MICROS;
+    }
+
+    private Bitmap scaleToFit(Bitmap bitmap, int maxSide) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int longest = Math.max(width, height);
+        if (longest <= maxSide) {
+            return bitmap;
+        }
+        float scale = maxSide / (float) longest;
+        Rect bounds = new Rect(0, 0, Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)));
+        Bitmap scaled = bitmapPool.get(bounds.width(), bounds.height(), paletteTarget.getConfig());
+        new Canvas(scaled).drawBitmap(bitmap, null, bounds, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return scaled;
+    }
+
+    private void fail(IngestionJob job, Exception error) {
+        Log.e(TAG, "Ingestion failed", error);
+        job.error = error;
+        finish(job);
+    }
+
+    /* main thread bookkeeping */
+
+    private void stageFinished(final IngestionJob job) {
+        mainHandler.post(() -> {
+            job.stagesCompleted++;
+            completedStages++;
+            if (listener != null) {
+                listener.onProgress(completedStages, totalStages);
+            }
+        });
+    }
+
+    private void paletteUpdated(final IngestionJob job, final Palette palette) {
+        mainHandler.post(() -> {
+            if (!job.isCancelled() && listener != null) {
+                listener.onPaletteUpdated(job, palette);
+            }
+        });
+    }
+
+    private void finish(final IngestionJob job) {
+        // The decode is not needed past this point.
+        if (job.decoded != null) {
+            bitmapPool.put(job.decoded);
+            job.decoded = null;
+        }
+        mainHandler.post(() -> {
+            running--;
+            // Stages a job skipped still count towards the total.
+            completedStages += STAGE_COUNT - job.stagesCompleted;
+            job.stagesCompleted = STAGE_COUNT;
+            active.finish(job, listener);
+            pump();
+            if (listener != null) {
+                listener.onProgress(completedStages, totalStages);
+            }
+            resetProgressIfIdle();
+        });
+    }
+
+    private void resetProgressIfIdle() {
+        if (pending.isEmpty() && active.isEmpty()) {
+            completedStages = 0;
+            totalStages = 0;
+        }
+    }
+}
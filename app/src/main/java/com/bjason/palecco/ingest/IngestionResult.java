@@ -0,0 +1,22 @@
+package com.bjason.palecco.ingest;
+
+import com.bjason.palecco.library.ImageRecord;
+
+/**
+ * The output of a completed {@link IngestionJob}.
+ */
+public final class IngestionResult {
+
+    private final ImageRecord record;
+
+    IngestionResult(ImageRecord record) {
+        this.record = record;
+    }
+
+    /**
+     * The metadata of the ingested image, including its palette.
+     */
+    public ImageRecord getRecord() {
+        return record;
+    }
+}
@@ -0,0 +1,118 @@
+package com.bjason.palecco.ingest;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.bjason.palecco.image.BitmapDecoder;
+import com.bjason.palecco.image.DecodeTarget;
+import com.bjason.palecco.library.ImageStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where an {@link IngestionJob} gets its image from.
+ */
+public abstract class IngestionSource {
+
+    /**
+     * Decodes the source image no larger than {@code target} and stores the displayed size of
+     * the full image in {@code outSourceSize}. Called on a pipeline worker thread.
+     */
+    abstract Bitmap decode(Context context, DecodeTarget target, int[] outSourceSize)
+            throws IOException;
+
+    /**
+     * Returns the library file of the source image, adding it to the library first if needed.
+     * Called on a pipeline worker thread.
+     */
+    abstract File persist(Context context, ImageStore store) throws IOException;
+
+    /**
+     * Whether {@link #persist} writes anything.
+     */
+    abstract boolean shouldPersist();
+
+    /**
+     * An image picked from a content provider, to be added to the library. Only a small copy is
+     * ever decoded; the original bytes are copied into the library as they are.
+     */
+    public static IngestionSource fromUri(final Uri uri) {
+        return new IngestionSource() {
+            @Override
+            Bitmap decode(Context context, DecodeTarget target, int[] outSourceSize)
+                    throws IOException {
+                return BitmapDecoder.decodeUri(context, uri, target, outSourceSize);
+            }
+
+            @Override
+            public String toString() {
+                return uri.toString();
+            }
+
+            @Override
+            File persist(Context context, ImageStore store) throws IOException {
+                try (InputStream stream = context.getContentResolver().openInputStream(uri)) {
+                    if (stream == null) {
+                        throw new IOException("Cannot open " + uri);
+                    }
+                    return store.copy(stream, context.getContentResolver().getType(uri));
+                }
+            }
+
+            @Override
+            boolean shouldPersist() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * An already decoded image, e.g. the camera thumbnail, to be added to the library.
+     */
+    public static IngestionSource fromBitmap(final Bitmap bitmap) {
+        return new IngestionSource() {
+            @Override
+            Bitmap decode(Context context, DecodeTarget target, int[] outSourceSize) {
+                outSourceSize[0] = bitmap.getWidth();
+                outSourceSize[1] = bitmap.getHeight();
+                return bitmap;
+            }
+
+            @Override
+            File persist(Context context, ImageStore store) throws IOException {
+                return store.save(bitmap);
+            }
+
+            @Override
+            boolean shouldPersist() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * An image already in the library, to be loaded without saving it again.
+     */
+    public static IngestionSource fromLibraryFile(final File file) {
+        return new IngestionSource() {
+            @Override
+            Bitmap decode(Context context, DecodeTarget target, int[] outSourceSize)
+                    throws IOException {
+                return BitmapDecoder.decodeFile(file, target, outSourceSize);
+            }
+
+            @Override
+            File persist(Context context, ImageStore store) {
+                return file;
+            }
+
+            @Override
+            boolean shouldPersist() {
+                return false;
+            }
+        };
+    }
+}
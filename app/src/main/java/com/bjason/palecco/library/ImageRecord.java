@@ -0,0 +1,80 @@
+package com.bjason.palecco.library;
+
+import com.bjason.palecco.palette.Palette;
+
+import java.io.File;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Metadata of one library image. Holds no pixels.
+ */
+public final class ImageRecord {
+
+    private final String id;
+    private final File file;
+    private final int width;
+    private final int height;
+    @Nullable
+    private final Palette palette;
+
+    public ImageRecord(File file, int width, int height, @Nullable Palette palette) {
+        this.id = file.getName();
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.palette = palette;
+    }
+
+    /**
+     * A record for a library file that could not be read.
+     */
+    public static ImageRecord unreadable(File file) {
+        return new ImageRecord(file, 0, 0, null);
+    }
+
+    /**
+     * The stable id of this image, which is its file name in the library directory.
+     */
+    public String getId() {
+        return id;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** Width of the full image as displayed, or 0 if unknown. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Height of the full image as displayed, or 0 if unknown. */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns height / width, or 1 if the size is unknown.
+     */
+    public float getAspectRatio() {
+        return width > 0 && height > 0 ? height / (float) width : 1f;
+    }
+
+    @Nullable
+    public Palette getPalette() {
+        return palette;
+    }
+
+    /**
+     * Roughly how many bytes of heap this record and its palette use.
+     */
+    int estimateSize() {
+        // Object headers and fields, plus the id string held by both the record and its file.
+        int size = 128 + 4 * id.length();
+        if (palette != null) {
+            size += 48 + 8 * palette.size();
+        }
+        return size;
+    }
+}
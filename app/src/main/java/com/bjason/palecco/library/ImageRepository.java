@@ -0,0 +1,872 @@
+package com.bjason.palecco.library;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.bjason.palecco.image.ThumbnailCache;
+import com.bjason.palecco.ingest.IngestionJob;
+import com.bjason.palecco.ingest.IngestionPipeline;
+import com.bjason.palecco.ingest.IngestionResult;
+import com.bjason.palecco.ingest.IngestionSource;
+import com.bjason.palecco.palette.ColorSearchIndex;
+import com.bjason.palecco.palette.LibraryIndex;
+import com.bjason.palecco.palette.LibraryOrder;
+import com.bjason.palecco.palette.Palette;
+import com.bjason.palecco.palette.PaletteIndex;
+import com.bjason.palecco.palette.PaletteTraits;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+/**
+ * The photo library, as an ordered list of stable image ids.
+ * <p>
+ * Only file names are read at startup, in the background along with the indexes; until they
+ * are, the library is empty, see {@link Observer#onLibraryOpened()}. The metadata of an image
+ * (its size and palette) is read from the {@link PaletteIndex} the first time it is asked for.
+ * Images missing from the index are extracted a page at a time in the background and then added
+ * to it. Only a bounded number of records is kept in memory. Pixels are never held here; views
+ * load them from {@link #getFile(int)} for the rows they show, the grid through the
+ * {@link ThumbnailCache}. Memory use is therefore about the same for 10 or 10,000 photos.
+ * <p>
+ * The repository outlives activities, so a rotation or a return from the background shows the
+ * grid without decoding anything. After process death it is rebuilt from the files in the
+ * {@link ImageStore} directory and the index, never from saved instance state.
+ * <p>
+ * While the palette of an image is being extracted, the coarse palettes the pipeline reports on
+ * the way are kept as provisional palettes and passed to the {@link PaletteSubscriber}s of that
+ * image, so a card can show approximate swatches before its record is loaded.
+ * <p>
+ * Ids are the file names written by {@link ImageStore}, which never change. Images are in the
+ * order in which they were added, kept in a {@link LibraryIndex} that is updated as images are
+ * added and removed, so the directory is only listed once, at startup, to reconcile it.
+ * <p>
+ * Every known palette is also kept in a {@link ColorSearchIndex}, updated as images are added,
+ * loaded and removed, so that {@link #findByColor} and {@link #findSimilar} answer without
+ * reading any image. The same swatches sort the library by color in {@link #order}. Palettes
+ * missing from it at startup are read from the {@link PaletteIndex} in the background.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public final class ImageRepository implements IngestionPipeline.Listener {
+
+    private static final String TAG = "ImageRepository";
+    private static final String INDEX_FILE_NAME = ".palettes.idx";
+    private static final String LIBRARY_FILE_NAME = ".library.idx";
+    private static final String SEARCH_FILE_NAME = ".colors.idx";
+
+    /** Number of images whose metadata is loaded together. */
+    public static final int PAGE_SIZE = 24;
+    /** Heap bytes of the records kept in memory; several thousand typical records. */
+    private static final int MAX_RECORD_BYTES = 512 * 1024;
+
+    /**
+     * Receives changes of the library on the main thread.
+     */
+    public interface Observer {
+
+        /** The images of the library were listed at startup; until then it looks empty. */
+        void onLibraryOpened();
+
+        void onImageInserted(int position);
+
+        /** An imported image was identical to the one at {@code position}, so nothing was added. */
+        void onImageAlreadyAdded(int position);
+
+        void onImageRemoved(int position);
+
+        /** The metadata of the image at {@code position} became available. */
+        void onRecordLoaded(int position);
+
+        /** See {@link IngestionPipeline.Listener#onProgress(int, int)}. */
+        void onProgress(int completed, int total);
+
+        /** Every image of {@code batch} was imported, failed or was cancelled. */
+        void onImportFinished(ImportBatch batch);
+
+        /**
+         * The palettes of several images became known at once, so {@link ImageRepository#order}
+         * may have changed.
+         */
+        void onOrderChanged();
+    }
+
+    /**
+     * Receives the provisional palettes of one image on the main thread.
+     */
+    public interface PaletteSubscriber {
+
+        void onPaletteUpdated(String id, Palette palette);
+    }
+
+    private static ImageRepository instance;
+
+    private final File directory;
+    private final IngestionPipeline pipeline;
+    private final ThumbnailCache thumbnails;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** Opens and reads the indexes for startup work that would otherwise block the main thread. */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), r -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "palecco-library"));
+    /** Null until the library is opened, or if the index cannot be opened. */
+    @Nullable
+    private PaletteIndex index;
+    /** Null if it cannot be opened or written; positions are then looked up linearly. */
+    @Nullable
+    private LibraryIndex library;
+    /** Null if it cannot be opened or written; searches then find nothing. */
+    @Nullable
+    private ColorSearchIndex search;
+    /** Ids in the order in which they were added, i.e. by sequence in {@link #library}. */
+    private final List<String> ids = new ArrayList<>();
+    private final Comparator<String> bySequence = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            return Long.compare(library.sequenceOf(a), library.sequenceOf(b));
+        }
+    };
+    /** Loaded records by id; a miss falls back to the index on disk. */
+    private final LruCache<String, ImageRecord> records =
+            new LruCache<String, ImageRecord>(MAX_RECORD_BYTES) {
+                @Override
+                protected int sizeOf(String id, ImageRecord record) {
+                    return record.estimateSize();
+                }
+
+                @Override
+                protected ImageRecord create(String id) {
+                    return readIndex(id);
+                }
+            };
+    /** Images being imported, by job. */
+    private final Map<IngestionJob, ImportBatch> importJobs = new HashMap<>();
+    /** Library images whose metadata is being loaded, by job. */
+    private final Map<IngestionJob, String> loadingJobs = new HashMap<>();
+    private final Map<String, IngestionJob> loadingIds = new HashMap<>();
+    /** The latest intermediate palette of loading images that have one. */
+    private final Map<String, Palette> provisionalPalettes = new HashMap<>();
+    private final Map<String, List<PaletteSubscriber>> paletteSubscribers = new HashMap<>();
+    /** Whether the indexes were opened and {@link #ids} listed, see {@link #open()}. */
+    private boolean opened;
+    /** Results of imports delivered before the library was opened, replayed once it is. */
+    private final List<Runnable> deferredResults = new ArrayList<>();
+    @Nullable
+    private Observer observer;
+
+    /**
+     * The indexes and ids of the library as {@link #open()} finds them, handed from the
+     * background to the main thread.
+     */
+    private static final class Opening {
+        @Nullable
+        PaletteIndex index;
+        @Nullable
+        LibraryIndex library;
+        @Nullable
+        ColorSearchIndex search;
+        final List<String> ids = new ArrayList<>();
+    }
+
+    @MainThread
+    public static ImageRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ImageRepository(Context context) {
+        this.directory = ImageStore.getDirectory(context);
+        this.pipeline = new IngestionPipeline(context);
+        this.pipeline.setListener(this);
+        this.thumbnails = ThumbnailCache.getInstance(context);
+        this.executor.allowCoreThreadTimeOut(true);
+        open();
+    }
+
+    /**
+     * Opens the indexes, which replays their journals, and lists the images in the background.
+     * Imports that end before the library is opened are held back until it is.
+     */
+    private void open() {
+        executor.execute(() -> {
+            final Opening opening = new Opening();
+            opening.index = openIndex(directory);
+            opening.library = openLibrary(directory);
+            opening.search = openSearch(directory);
+            listImages(directory, opening);
+            mainHandler.post(() -> onOpened(opening));
+        });
+    }
+
+    private void onOpened(Opening opening) {
+        index = opening.index;
+        library = opening.library;
+        search = opening.search;
+        ids.addAll(opening.ids);
+        opened = true;
+        for (Runnable result : deferredResults) {
+            result.run();
+        }
+        deferredResults.clear();
+        reconcileSearch();
+        if (observer != null) {
+            observer.onLibraryOpened();
+        }
+    }
+
+    /**
+     * Fills the ids of {@code opening} from its library index, checked against the names in
+     * {@code directory}. Files the index does not know, left by an older version or by a crash
+     * between storing and indexing an image, are added after the others, oldest first. Ids whose
+     * file is gone are dropped, and temporary files of interrupted imports are deleted.
+     */
+    private static void listImages(File directory, Opening opening) {
+        String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        Set<String> unindexed = new HashSet<>();
+        for (String name : names) {
+            if (ImageStore.isTempName(name)) {
+                new File(directory, name).delete();
+            } else if (ImageStore.isImageName(name)) {
+                unindexed.add(name);
+            }
+        }
+        if (opening.library != null) {
+            for (String id : opening.library.ids()) {
+                if (unindexed.remove(id)) {
+                    opening.ids.add(id);
+                } else {
+                    opening.library = updateLibrary(opening.library, id, false);
+                }
+            }
+        }
+        if (unindexed.isEmpty()) {
+            return;
+        }
+        List<String> added = new ArrayList<>(unindexed);
+        final Map<String, Long> addedAt = new HashMap<>();
+        for (String id : added) {
+            // A stored file is never modified, so this is when it was added.
+            addedAt.put(id, new File(directory, id).lastModified());
+        }
+        Collections.sort(added, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int byTime = Long.compare(addedAt.get(a), addedAt.get(b));
+                return byTime != 0 ? byTime : a.compareTo(b);
+            }
+        });
+        for (String id : added) {
+            opening.library = updateLibrary(opening.library, id, true);
+            opening.ids.add(id);
+        }
+    }
+
+    @Nullable
+    private static PaletteIndex openIndex(File directory) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Cannot create " + directory);
+            return null;
+        }
+        try {
+            return PaletteIndex.open(new File(directory, INDEX_FILE_NAME));
+        } catch (IOException e) {
+            // Palettes are extracted again instead.
+            Log.e(TAG, "Cannot open the palette index", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static LibraryIndex openLibrary(File directory) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+        try {
+            return LibraryIndex.open(new File(directory, LIBRARY_FILE_NAME));
+        } catch (IOException e) {
+            // The order is rebuilt from the file times instead.
+            Log.e(TAG, "Cannot open the library index", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static ColorSearchIndex openSearch(File directory) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+        try {
+            return ColorSearchIndex.open(new File(directory, SEARCH_FILE_NAME));
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open the color search index", e);
+            return null;
+        }
+    }
+
+    /**
+     * Drops the palettes of images no longer in the library from the search index, and adds
+     * those of images it is missing that the palette index has, e.g. after a crash. The others
+     * are added as their records are loaded. The palette index is read in the background, and
+     * the search index updated once it has been; until then, searches and sorting by color miss
+     * those images.
+     */
+    private void reconcileSearch() {
+        final ColorSearchIndex search = this.search;
+        if (search == null) {
+            return;
+        }
+        final List<String> listed = new ArrayList<>(ids);
+        executor.execute(() -> {
+            Set<String> known = new HashSet<>(listed);
+            final List<String> stale = new ArrayList<>();
+            for (String id : search.ids()) {
+                if (!known.contains(id)) {
+                    stale.add(id);
+                }
+            }
+            final Map<String, Palette> missing = new HashMap<>();
+            for (String id : listed) {
+                if (!search.contains(id)) {
+                    ImageRecord record = readIndex(id);
+                    if (record != null && record.getPalette() != null) {
+                        missing.put(id, record.getPalette());
+                    }
+                }
+            }
+            mainHandler.post(() -> onSearchReconciled(stale, missing));
+        });
+    }
+
+    private void onSearchReconciled(List<String> stale, Map<String, Palette> missing) {
+        for (String id : stale) {
+            // Unless it was imported again in the meantime.
+            if (indexOf(id) < 0) {
+                updateSearch(id, null);
+            }
+        }
+        for (Map.Entry<String, Palette> entry : missing.entrySet()) {
+            String id = entry.getKey();
+            // Unless it was removed, or its record loaded, in the meantime.
+            if (search != null && !search.contains(id) && indexOf(id) >= 0) {
+                updateSearch(id, entry.getValue());
+            }
+        }
+        if (observer != null && !missing.isEmpty()) {
+            observer.onOrderChanged();
+        }
+    }
+
+    /** Adds or replaces the palette of {@code id} in the search index, or removes it if null. */
+    private void updateSearch(String id, @Nullable Palette palette) {
+        if (search == null) {
+            return;
+        }
+        try {
+            if (palette != null) {
+                search.put(id, palette);
+            } else {
+                search.remove(id);
+            }
+        } catch (IOException e) {
+            // Rebuilt from the palette index at the next start.
+            Log.e(TAG, "Cannot update the color search index", e);
+            try {
+                search.close();
+            } catch (IOException closeError) {
+                Log.e(TAG, "Cannot close the color search index", closeError);
+            }
+            search = null;
+        }
+    }
+
+    private void updateLibrary(String id, boolean add) {
+        library = updateLibrary(library, id, add);
+    }
+
+    /**
+     * Adds {@code id} to or removes it from {@code library}, and returns the index, or null if it
+     * could not be written and was closed.
+     */
+    @Nullable
+    private static LibraryIndex updateLibrary(@Nullable LibraryIndex library, String id,
+                                              boolean add) {
+        if (library == null) {
+            return null;
+        }
+        try {
+            if (add) {
+                library.add(id);
+            } else {
+                library.remove(id);
+            }
+        } catch (IOException e) {
+            // Sequences no longer match the list; it is reconciled with the directory at the
+            // next start.
+            Log.e(TAG, "Cannot update the library index", e);
+            try {
+                library.close();
+            } catch (IOException closeError) {
+                Log.e(TAG, "Cannot close the library index", closeError);
+            }
+            return null;
+        }
+        return library;
+    }
+
+    public void setObserver(@Nullable Observer observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * Whether the images have been listed. Until then the library looks empty, see
+     * {@link Observer#onLibraryOpened()}.
+     */
+    public boolean isOpened() {
+        return opened;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public String getId(int position) {
+        return ids.get(position);
+    }
+
+    /**
+     * Returns the position of {@code id}, or a negative value if it is not in the library.
+     */
+    public int indexOf(String id) {
+        if (library == null) {
+            return ids.indexOf(id);
+        }
+        if (library.sequenceOf(id) < 0) {
+            return -1;
+        }
+        // Positions are in sequence order.
+        return Collections.binarySearch(ids, id, bySequence);
+    }
+
+    /**
+     * Returns an immutable copy of the ids, in library order.
+     */
+    public List<String> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(ids));
+    }
+
+    /**
+     * Returns the ids sorted and grouped by {@code mode}, from the swatches in the search
+     * index. Images whose palette is not known yet are in {@link LibraryOrder.Group#UNSORTED}.
+     */
+    public LibraryOrder order(LibraryOrder.Mode mode) {
+        PaletteTraits[] traits = search != null && mode != LibraryOrder.Mode.ADDED
+                ? search.traits(ids) : new PaletteTraits[ids.size()];
+        return LibraryOrder.sort(ids, traits, mode);
+    }
+
+    public File getFile(int position) {
+        return getFile(ids.get(position));
+    }
+
+    public File getFile(String id) {
+        return new File(directory, id);
+    }
+
+    /**
+     * Returns the metadata of the image at {@code position}, or {@code null} if it is not loaded
+     * yet. In that case the page containing it is loaded, this image first, and the observer is
+     * told through {@link Observer#onRecordLoaded(int)}.
+     */
+    @Nullable
+    public ImageRecord getRecord(int position) {
+        ImageRecord record = records.get(ids.get(position));
+        if (record == null) {
+            loadRecord(position);
+        }
+        return record;
+    }
+
+    /**
+     * Returns the metadata of {@code id} like {@link #getRecord(int)}, or {@code null} if it is
+     * not loaded yet or no longer in the library.
+     */
+    @Nullable
+    public ImageRecord getRecord(String id) {
+        ImageRecord record = records.get(id);
+        if (record == null) {
+            int position = indexOf(id);
+            if (position >= 0) {
+                loadRecord(position);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Returns the ids of up to {@code limit} images with a swatch close to {@code argb}, the
+     * closest first. Images whose palette is not known yet are not found.
+     */
+    public List<String> findByColor(int argb, int limit) {
+        if (search == null) {
+            return Collections.emptyList();
+        }
+        return idsOf(search.searchColor(argb, limit));
+    }
+
+    /**
+     * Returns the ids of up to {@code limit} other images with a palette close to that of
+     * {@code id}, the closest first, or none if its palette is not known yet.
+     */
+    public List<String> findSimilar(String id, int limit) {
+        ImageRecord record = records.get(id);
+        if (search == null || record == null || record.getPalette() == null) {
+            return Collections.emptyList();
+        }
+        // One more, as the image itself is the closest.
+        List<String> similar = idsOf(search.searchPalette(record.getPalette(), limit + 1));
+        if (!similar.remove(id) && similar.size() > limit) {
+            similar.remove(limit);
+        }
+        return similar;
+    }
+
+    private static List<String> idsOf(List<ColorSearchIndex.Match> matches) {
+        List<String> ids = new ArrayList<>(matches.size());
+        for (ColorSearchIndex.Match match : matches) {
+            ids.add(match.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Subscribes to the provisional palettes of {@code id} until its record is loaded, and
+     * returns the latest one, or {@code null} if there is none yet. The subscriber is not told
+     * about the final palette; the record carries it, announced through
+     * {@link Observer#onRecordLoaded(int)}.
+     */
+    @Nullable
+    public Palette subscribe(String id, PaletteSubscriber subscriber) {
+        List<PaletteSubscriber> subscribers = paletteSubscribers.get(id);
+        if (subscribers == null) {
+            // Rarely more than one: a card, and briefly its replacement during animations.
+            subscribers = new ArrayList<>(1);
+            paletteSubscribers.put(id, subscribers);
+        }
+        if (!subscribers.contains(subscriber)) {
+            subscribers.add(subscriber);
+        }
+        return provisionalPalettes.get(id);
+    }
+
+    public void unsubscribe(String id, PaletteSubscriber subscriber) {
+        List<PaletteSubscriber> subscribers = paletteSubscribers.get(id);
+        if (subscribers != null && subscribers.remove(subscriber) && subscribers.isEmpty()) {
+            paletteSubscribers.remove(id);
+        }
+    }
+
+    /**
+     * Returns the record of {@code id} from the index, if it is there and still valid. Called by
+     * {@link #records} on a miss, and by {@link #reconcileSearch()} in the background.
+     */
+    @Nullable
+    private ImageRecord readIndex(String id) {
+        if (index == null) {
+            return null;
+        }
+        File file = new File(directory, id);
+        PaletteIndex.Entry entry = index.get(id, file.length(), file.lastModified());
+        if (entry == null) {
+            return null;
+        }
+        return new ImageRecord(file, entry.getWidth(), entry.getHeight(), entry.getPalette());
+    }
+
+    private void writeIndex(ImageRecord record) {
+        if (record.getPalette() == null) {
+            return;
+        }
+        updateSearch(record.getId(), record.getPalette());
+        if (index == null) {
+            return;
+        }
+        File file = record.getFile();
+        try {
+            index.put(record.getId(), file.length(), file.lastModified(),
+                    record.getWidth(), record.getHeight(), record.getPalette());
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot update the palette index", e);
+        }
+    }
+
+    /**
+     * Loads the page of {@code position}, and its image ahead of everything queued: a record is
+     * asked for when a card is bound, so the latest request is the likeliest to be on screen.
+     */
+    private void loadRecord(int position) {
+        loadPage(position / PAGE_SIZE);
+        IngestionJob job = loadingIds.get(ids.get(position));
+        if (job != null) {
+            pipeline.prioritize(job);
+        }
+    }
+
+    private void loadPage(int page) {
+        int end = Math.min(ids.size(), (page + 1) * PAGE_SIZE);
+        for (int position = page * PAGE_SIZE; position < end; position++) {
+            String id = ids.get(position);
+            if (loadingIds.containsKey(id) || records.get(id) != null) {
+                continue;
+            }
+            IngestionJob job = pipeline.submit(
+                    IngestionSource.fromLibraryFile(new File(directory, id)));
+            loadingJobs.put(job, id);
+            loadingIds.put(id, job);
+        }
+    }
+
+    /**
+     * Adds an image to the library in the background. The observer is told through
+     * {@link Observer#onImageInserted(int)} once it is stored.
+     */
+    public ImportBatch importImage(IngestionSource source) {
+        return importImages(Collections.singletonList(source));
+    }
+
+    /**
+     * Adds images to the library in the background, in the given order. Each is inserted as
+     * soon as it is stored and its predecessors are; the observer is told through
+     * {@link Observer#onImportFinished(ImportBatch)} once all of them have ended.
+     */
+    public ImportBatch importImages(List<IngestionSource> sources) {
+        ImportBatch batch = new ImportBatch(sources.size());
+        for (IngestionSource source : sources) {
+            IngestionJob job = pipeline.submit(source);
+            batch.add(job);
+            importJobs.put(job, batch);
+        }
+        if (batch.isFinished()) {
+            finishImport(batch);
+        }
+        return batch;
+    }
+
+    /**
+     * Stops importing the images of {@code batch} that are not stored yet. Images stored
+     * already stay in the library and count as imported. The observer is told through
+     * {@link Observer#onImportFinished(ImportBatch)} once the running ones have stopped.
+     */
+    public void cancelImport(ImportBatch batch) {
+        // Queued jobs are dropped, and leave the batch, right away.
+        for (IngestionJob job : new ArrayList<>(batch.getPendingJobs())) {
+            pipeline.cancel(job);
+        }
+    }
+
+    private void finishImport(ImportBatch batch) {
+        if (observer != null) {
+            observer.onImportFinished(batch);
+        }
+    }
+
+    /**
+     * Deletes the image at {@code position} from disk and from the library. An image whose file
+     * cannot be deleted stays in the library, in its place.
+     *
+     * @return whether the file could be deleted
+     */
+    public boolean remove(int position) {
+        String id = ids.get(position);
+        File file = new File(directory, id);
+        if (!file.delete() && file.exists()) {
+            return false;
+        }
+        ids.remove(position);
+        // Only after the file is gone, so that a crash in between cannot lose an image.
+        updateLibrary(id, false);
+        records.remove(id);
+        thumbnails.evict(id);
+        if (index != null) {
+            index.remove(id);
+        }
+        updateSearch(id, null);
+        IngestionJob job = loadingIds.remove(id);
+        if (job != null) {
+            job.cancel();
+            loadingJobs.remove(job);
+        }
+        provisionalPalettes.remove(id);
+        paletteSubscribers.remove(id);
+        if (observer != null) {
+            observer.onImageRemoved(position);
+        }
+        return true;
+    }
+
+    /* IngestionPipeline.Listener */
+
+    @Override
+    public void onProgress(int completed, int total) {
+        if (completed == total) {
+            // Idle: a good time to write the indexes back.
+            if (index != null) {
+                index.flush();
+            }
+            if (library != null) {
+                try {
+                    library.flush();
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot write the library index", e);
+                }
+            }
+            if (search != null) {
+                try {
+                    search.flush();
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot write the color search index", e);
+                }
+            }
+        }
+        if (observer != null) {
+            observer.onProgress(completed, total);
+        }
+    }
+
+    @Override
+    public void onPaletteUpdated(IngestionJob job, Palette palette) {
+        String id = loadingJobs.get(job);
+        if (id == null) {
+            // An import; it is not listed until it is stored, by which time its palette is final.
+            return;
+        }
+        provisionalPalettes.put(id, palette);
+        List<PaletteSubscriber> subscribers = paletteSubscribers.get(id);
+        if (subscribers != null) {
+            for (PaletteSubscriber subscriber : new ArrayList<>(subscribers)) {
+                subscriber.onPaletteUpdated(id, palette);
+            }
+        }
+    }
+
+    @Override
+    public void onJobCompleted(IngestionJob job, IngestionResult result) {
+        if (!opened) {
+            // An import, listed after the images found at startup.
+            deferredResults.add(() -> onJobCompleted(job, result));
+            return;
+        }
+        ImageRecord record = result.getRecord();
+        writeIndex(record);
+        String id = loadingJobs.remove(job);
+        if (id != null) {
+            loadingIds.remove(id);
+            onRecordLoaded(id, record);
+            return;
+        }
+        records.put(record.getId(), record);
+        ImportBatch batch = importJobs.remove(job);
+        int existing = indexOf(record.getId());
+        if (existing >= 0) {
+            // The store found identical bytes and kept the file it had.
+            if (observer != null && batch != null && batch.size() == 1) {
+                observer.onImageAlreadyAdded(existing);
+            }
+        } else {
+            if (library != null && library.sequenceOf(record.getId()) >= 0) {
+                // A stale entry would keep its old sequence, out of order at the end of the list.
+                updateLibrary(record.getId(), false);
+            }
+            updateLibrary(record.getId(), true);
+            ids.add(record.getId());
+            if (observer != null) {
+                observer.onImageInserted(ids.size() - 1);
+            }
+        }
+        if (batch != null) {
+            batch.onImported(job, existing >= 0);
+            if (batch.isFinished()) {
+                finishImport(batch);
+            }
+        }
+    }
+
+    @Override
+    public void onJobFailed(IngestionJob job, Exception error) {
+        if (!opened) {
+            deferredResults.add(() -> onJobFailed(job, error));
+            return;
+        }
+        String id = loadingJobs.remove(job);
+        if (id != null) {
+            loadingIds.remove(id);
+            // Remember the failure so that the page is not loaded again and again.
+            onRecordLoaded(id, ImageRecord.unreadable(new File(directory, id)));
+            return;
+        }
+        ImportBatch batch = importJobs.remove(job);
+        if (batch != null) {
+            batch.onFailed(job, error);
+            if (batch.isFinished()) {
+                finishImport(batch);
+            }
+        }
+    }
+
+    @Override
+    public void onJobCancelled(IngestionJob job) {
+        if (!opened) {
+            deferredResults.add(() -> onJobCancelled(job));
+            return;
+        }
+        String id = loadingJobs.remove(job);
+        if (id != null) {
+            loadingIds.remove(id);
+            return;
+        }
+        ImportBatch batch = importJobs.remove(job);
+        if (batch != null) {
+            batch.onCancelled(job);
+            if (batch.isFinished()) {
+                finishImport(batch);
+            }
+        }
+    }
+
+    private void onRecordLoaded(String id, ImageRecord record) {
+        provisionalPalettes.remove(id);
+        paletteSubscribers.remove(id);
+        int position = indexOf(id);
+        if (position < 0) {
+            return;
+        }
+        records.put(id, record);
+        if (observer != null) {
+            observer.onRecordLoaded(position);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.bjason.palecco.library;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stores library images in the app's internal {@code Palette/Images} directory.
+ * <p>
+ * The store is content addressed: every file is named after a hash of its bytes, so importing
+ * the same image again finds the file already there and stores nothing. Picked images are
+ * copied byte for byte; only decoded bitmaps, such as the camera thumbnail, are encoded. A file
+ * is written under a hidden temporary name, synced and then renamed, so the library never holds
+ * a partly written image, even after a crash.
+ * <p>
+ * Files of older versions are named after the time they were added and stay valid as they are.
+ */
+public final class ImageStore {
+
+    public static final String DIR_NAME_FOR_IMAGE = "Images";
+
+    private static final String TEMP_PREFIX = ".import-";
+    private static final String HASH_ALGORITHM = "SHA-1";
+    /** Bytes of the hash used in a file name; 128 bits make collisions practically impossible. */
+    private static final int NAME_HASH_BYTES = 16;
+    /** Quality of encoded bitmaps; visually lossless at a fraction of the size of 100. */
+    private static final int JPEG_QUALITY = 92;
+
+    private final File directory;
+
+    public ImageStore(Context context) {
+        this.directory = getDirectory(context);
+    }
+
+    /**
+     * Returns the directory holding the library images.
+     */
+    public static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), "Palette" + File.separator + DIR_NAME_FOR_IMAGE);
+    }
+
+    /**
+     * Whether {@code name} in the library directory is an image rather than bookkeeping, such as
+     * an index or a file being written, which are kept in hidden files.
+     */
+    public static boolean isImageName(String name) {
+        return !name.startsWith(".");
+    }
+
+    /**
+     * Whether {@code name} is a temporary file. Those left over by a crash can be deleted while
+     * nothing is being stored.
+     */
+    public static boolean isTempName(String name) {
+        return name.startsWith(TEMP_PREFIX);
+    }
+
+    /**
+     * Saves the bitmap as a JPEG and returns the library file, which may have been there
+     * already. May be called from any thread.
+     */
+    public File save(Bitmap bitmap) throws IOException {
+        File temp = newTempFile();
+        MessageDigest digest = newDigest();
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY,
+                    new DigestOutputStream(out, digest))) {
+                throw new IOException("Cannot encode " + temp);
+            }
+            out.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+        return commit(temp, digest, ".jpeg");
+    }
+
+    /**
+     * Copies already encoded image bytes without decoding them and returns the library file,
+     * which may have been there already. May be called from any thread.
+     */
+    public File copy(InputStream in, String mimeType) throws IOException {
+        File temp = newTempFile();
+        MessageDigest digest = newDigest();
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        return commit(temp, digest, extensionOf(mimeType));
+    }
+
+    private File newTempFile() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return File.createTempFile(TEMP_PREFIX, null, directory);
+    }
+
+    /**
+     * Moves a fully written temporary file to its content address, or drops it if an identical
+     * image is stored already.
+     */
+    private synchronized File commit(File temp, MessageDigest digest, String extension)
+            throws IOException {
+        File outFile = new File(directory, toHex(digest.digest(), NAME_HASH_BYTES) + extension);
+        if (outFile.exists()) {
+            temp.delete();
+            return outFile;
+        }
+        if (!temp.renameTo(outFile)) {
+            temp.delete();
+            throw new IOException("Cannot move " + temp + " to " + outFile);
+        }
+        return outFile;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android version provides it.
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes, int length) {
+        StringBuilder hex = new StringBuilder(length * 2);
+        for (int i = 0; i < length; i++) {
+            hex.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16))
+                    .append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
+    private static String extensionOf(String mimeType) {
+        if (mimeType == null) {
+            return ".jpeg";
+        }
+        switch (mimeType) {
+            case "image/png":
+                return ".png";
+            case "image/webp":
+                return ".webp";
+            case "image/heif":
+            case "image/heic":
+                return ".heic";
+            case "image/gif":
+                return ".gif";
+            default:
+                return ".jpeg";
+        }
+    }
+}
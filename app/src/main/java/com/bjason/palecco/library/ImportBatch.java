@@ -0,0 +1,118 @@
+package com.bjason.palecco.library;
+
+import com.bjason.palecco.ingest.IngestionJob;
+import com.bjason.palecco.ingest.IngestionSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Images imported together, such as a multiple selection from the gallery.
+ * <p>
+ * Every image of a batch ends up imported, found to be in the library already, failed, or
+ * cancelled by {@link ImageRepository#cancelImport(ImportBatch)}. An image stored before the
+ * cancellation reached it counts as imported. A failure does not stop the other images. Only
+ * used on the main thread.
+ */
+public final class ImportBatch {
+
+    /**
+     * One image that could not be imported.
+     */
+    public static final class Failure {
+        private final IngestionSource source;
+        private final Exception error;
+
+        Failure(IngestionSource source, Exception error) {
+            this.source = source;
+            this.error = error;
+        }
+
+        public IngestionSource getSource() {
+            return source;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+    }
+
+    private final int size;
+    /** Jobs not delivered yet. */
+    private final Set<IngestionJob> pending = new HashSet<>();
+    private final List<Failure> failures = new ArrayList<>();
+    private int imported;
+    private int duplicates;
+    private int cancelled;
+
+    ImportBatch(int size) {
+        this.size = size;
+    }
+
+    /** Returns the number of images in the batch. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of images added to the library. */
+    public int getImportedCount() {
+        return imported;
+    }
+
+    /** Returns the number of images that were in the library already. */
+    public int getDuplicateCount() {
+        return duplicates;
+    }
+
+    /** Returns the number of images dropped by a cancellation before they were stored. */
+    public int getCancelledCount() {
+        return cancelled;
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /** Returns the number of images that have ended one way or another. */
+    public int getFinishedCount() {
+        return size - pending.size();
+    }
+
+    /** Whether every image of the batch has ended. */
+    public boolean isFinished() {
+        return pending.isEmpty();
+    }
+
+    void add(IngestionJob job) {
+        pending.add(job);
+    }
+
+    Set<IngestionJob> getPendingJobs() {
+        return pending;
+    }
+
+    void onImported(IngestionJob job, boolean duplicate) {
+        if (pending.remove(job)) {
+            if (duplicate) {
+                duplicates++;
+            } else {
+                imported++;
+            }
+        }
+    }
+
+    void onFailed(IngestionJob job, Exception error) {
+        if (pending.remove(job)) {
+            failures.add(new Failure(job.getSource(), error));
+        }
+    }
+
+    void onCancelled(IngestionJob job) {
+        if (pending.remove(job)) {
+            cancelled++;
+        }
+    }
+}
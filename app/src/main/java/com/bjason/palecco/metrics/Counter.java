@@ -0,0 +1,30 @@
+package com.bjason.palecco.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count of events, safe to increment from any thread.
+ */
+public final class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    Counter() {
+    }
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    public long get() {
+        return value.get();
+    }
+
+    void reset() {
+        value.set(0);
+    }
+}
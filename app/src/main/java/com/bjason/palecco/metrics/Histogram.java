@@ -0,0 +1,110 @@
+package com.bjason.palecco.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A distribution of non-negative values, kept in log-linear buckets like an HDR histogram.
+ * <p>
+ * Values below {@value #SUB_BUCKETS} get a bucket each; above that, every power of two is split
+ * into {@value #SUB_BUCKETS} equal buckets, so any value is known to within about 3% however
+ * large it is. The buckets are allocated once, and recording only updates atomic counters, so it
+ * allocates nothing and can be done from any thread. Latencies are recorded in microseconds.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Values above this, over half an hour in microseconds, are recorded as this. */
+    public static final long MAX_VALUE = Integer.MAX_VALUE;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram() {
+    }
+
+    /**
+     * Records a value, clamped to [0, {@link #MAX_VALUE}].
+     */
+    public void record(long value) {
+        value = Math.max(0, Math.min(MAX_VALUE, value));
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long previous;
+        while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+            // Another thread raised the maximum in between; compare again.
+        }
+    }
+
+    /**
+     * Records the microseconds elapsed since {@code startNanos}, a {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / (double) n;
+    }
+
+    /**
+     * Returns the value below or at which {@code percentile} percent of the recorded values are,
+     * to the precision of its bucket, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        // The power of two picks the row of buckets, the bits just below its top bit the bucket.
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /** Returns the largest value that falls into bucket {@code index}. */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
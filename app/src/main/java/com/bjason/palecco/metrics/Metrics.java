@@ -0,0 +1,132 @@
+package com.bjason.palecco.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Named counters, histograms and gauges of the whole app.
+ * <p>
+ * Metrics are created on first lookup and live as long as the process. Look them up once, for
+ * example into a static field, and update them on hot paths, which allocates nothing. Latency
+ * histograms are named with a {@code .micros} suffix and record microseconds. {@link #dump()}
+ * renders every metric as text for the debug screen or a bug report.
+ */
+public final class Metrics {
+
+    /**
+     * A value read only when the metrics are dumped, such as the size of a pool.
+     */
+    public interface Gauge {
+        long read();
+    }
+
+    private static Metrics instance;
+
+    private final Map<String, Counter> counters = new TreeMap<>();
+    private final Map<String, Histogram> histograms = new TreeMap<>();
+    private final Map<String, Gauge> gauges = new TreeMap<>();
+    private final long startMillis = System.currentTimeMillis();
+
+    public static synchronized Metrics getInstance() {
+        if (instance == null) {
+            instance = new Metrics();
+        }
+        return instance;
+    }
+
+    private Metrics() {
+    }
+
+    public synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    public synchronized Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Registers a gauge, replacing any previous one of the same name. Gauges are read on the
+     * thread that dumps the metrics and must be safe to read from it.
+     */
+    public synchronized void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Zeroes every counter and histogram. Gauges are unaffected.
+     */
+    public synchronized void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns {@code part} as a percentage of {@code whole}, or 0 if {@code whole} is 0.
+     */
+    public static long percent(long part, long whole) {
+        return whole == 0 ? 0 : part * 100 / whole;
+    }
+
+    /**
+     * Returns every metric as text, one per line, sorted by name within each kind.
+     */
+    public synchronized String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "uptime %d s%n",
+                (System.currentTimeMillis() - startMillis) / 1000));
+        out.append(String.format(Locale.US, "%n%-32s %10s%n", "counter", "value"));
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            out.append(String.format(Locale.US, "%-32s %10d%n",
+                    entry.getKey(), entry.getValue().get()));
+        }
+        out.append(String.format(Locale.US, "%n%-32s %10s%n", "gauge", "value"));
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            out.append(String.format(Locale.US, "%-32s %10d%n",
+                    entry.getKey(), entry.getValue().read()));
+        }
+        out.append(String.format(Locale.US, "%n%-32s %8s %8s %8s %8s %8s %8s%n",
+                "histogram", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            out.append(String.format(Locale.US, "%-32s %8d %8.0f %8d %8d %8d %8d%n",
+                    entry.getKey(), histogram.getCount(), histogram.getMean(),
+                    histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                    histogram.getValueAtPercentile(99), histogram.getMax()));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes {@link #dump()} to a new, timestamped file in {@code directory} and returns it.
+     */
+    public File dumpToFile(File directory) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File file = new File(directory, "metrics-" + System.currentTimeMillis() + ".txt");
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(dump());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,138 @@
+package com.bjason.palecco.render;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.bjason.palecco.image.BitmapPool;
+import com.bjason.palecco.metrics.Histogram;
+import com.bjason.palecco.metrics.Metrics;
+import com.bjason.palecco.palette.Palette;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.MainThread;
+
+/**
+ * Renders "photo + palette" compositions in the background and writes them as JPEG files.
+ * <p>
+ * Exports run one at a time on a single worker, which keeps at most one composition in memory.
+ * The encoder writes straight to the output file; the result only appears under its final name
+ * once it is complete.
+ */
+public final class PaletteExporter {
+
+    private static final String TAG = "PaletteExporter";
+    private static final String DIR_NAME = "Palettes";
+    private static final int JPEG_QUALITY = 95;
+
+    /** Rendering and encoding a composition, up to its file being in place. */
+    private static final Histogram RENDER_MICROS =
+            Metrics.getInstance().histogram("export.render.micros");
+
+    /**
+     * Receives the outcome of an export on the main thread.
+     */
+    public interface Callback {
+
+        void onExported(File output);
+
+        void onExportFailed(Exception error);
+    }
+
+    private static PaletteExporter instance;
+
+    private final File directory;
+    private final BitmapPool pool = BitmapPool.getInstance();
+    private final PaletteRenderer renderer = new PaletteRenderer(pool);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), r -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "palecco-export"));
+
+    @MainThread
+    public static PaletteExporter getInstance(Context context) {
+        if (instance == null) {
+            instance = new PaletteExporter(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PaletteExporter(Context context) {
+        File pictures = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        this.directory = new File(pictures != null ? pictures : context.getFilesDir(), DIR_NAME);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Renders the image in {@code source} with {@code palette} at {@code width} pixels wide and
+     * saves it to a new file in the export directory.
+     */
+    @MainThread
+    public Future<?> export(final File source, final Palette palette, final Template template,
+                            final int width, final Callback callback) {
+        return executor.submit(() -> {
+            try {
+                long start = System.nanoTime();
+                final File output = write(source, palette, template, width);
+                RENDER_MICROS.recordSince(start);
+                mainHandler.post(() -> callback.onExported(output));
+            } catch (final IOException | RuntimeException e) {
+                Log.e(TAG, "Cannot export " + source, e);
+                mainHandler.post(() -> callback.onExportFailed(e));
+            } catch (OutOfMemoryError e) {
+                final IOException error = new IOException("Out of memory while exporting", e);
+                mainHandler.post(() -> callback.onExportFailed(error));
+            } finally {
+                renderer.release();
+            }
+        });
+    }
+
+    private File write(File source, Palette palette, Template template, int width)
+            throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        String name = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date())
+                + "_" + template.name().toLowerCase(Locale.US);
+        File output = new File(directory, name + ".jpg");
+        for (int i = 1; output.exists(); i++) {
+            output = new File(directory, name + "-" + i + ".jpg");
+        }
+        File temp = new File(directory, "." + name + ".tmp");
+        Bitmap composition = renderer.render(source, palette, template, width);
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(temp))) {
+            if (!composition.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream)) {
+                throw new IOException("Cannot encode " + output);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        } finally {
+            pool.put(composition);
+        }
+        if (!temp.renameTo(output)) {
+            temp.delete();
+            throw new IOException("Cannot write " + output);
+        }
+        return output;
+    }
+}
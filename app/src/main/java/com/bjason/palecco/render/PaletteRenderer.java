@@ -0,0 +1,229 @@
+package com.bjason.palecco.render;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+
+import com.bjason.palecco.image.BitmapDecoder;
+import com.bjason.palecco.image.BitmapPool;
+import com.bjason.palecco.image.DecodeTarget;
+import com.bjason.palecco.palette.Palette;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Composes a photo with its palette as arranged by a {@link Template}.
+ * <p>
+ * Compositions are drawn into bitmaps from the {@link BitmapPool}; put them back once done with
+ * them. When rendering from a file, the photo is decoded a band of rows at a time into one reused
+ * buffer and drawn straight into the composition, so no full-size copy of the photo is ever held
+ * next to it. Not thread-safe; use one renderer per worker thread.
+ */
+public final class PaletteRenderer {
+
+    /** Height of one decoded band, in composition pixels. */
+    private static final int BAND_HEIGHT = 256;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect rect = new Rect();
+    private final RectF rectF = new RectF();
+    private final BitmapPool pool;
+    /** Reused band buffer; grows as needed. */
+    private Bitmap band;
+
+    public PaletteRenderer() {
+        this(BitmapPool.getInstance());
+    }
+
+    public PaletteRenderer(BitmapPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Draws {@code photo} and {@code palette} into a bitmap as wide as the photo, with the
+     * swatches below it.
+     */
+    public Bitmap render(Bitmap photo, Palette palette) {
+        return render(photo, palette, Template.STRIP_BELOW, photo.getWidth());
+    }
+
+    /**
+     * Draws {@code photo} and {@code palette} into a bitmap {@code width} pixels wide.
+     */
+    public Bitmap render(Bitmap photo, Palette palette, Template template, int width) {
+        Template.Layout layout = template.layout(photo.getWidth(), photo.getHeight(), width);
+        Bitmap composition = pool.get(layout.width, layout.height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(composition);
+        canvas.drawColor(Color.WHITE);
+        canvas.drawBitmap(photo, null, layout.photo, paint);
+        drawSwatches(canvas, palette, layout);
+        return composition;
+    }
+
+    /**
+     * Draws the image in {@code file} and {@code palette} into a bitmap {@code width} pixels
+     * wide. The EXIF orientation of the file is applied.
+     */
+    public Bitmap render(File file, Palette palette, Template template, int width)
+            throws IOException {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(file.getPath(), false);
+        } catch (IOException e) {
+            // Not a format the region decoder supports; decode it whole at the size it is drawn.
+            return renderWhole(file, palette, template, width);
+        }
+        try {
+            int degrees = rotationDegrees(file);
+            int storedWidth = decoder.getWidth();
+            int storedHeight = decoder.getHeight();
+            boolean swapped = degrees % 180 != 0;
+            Template.Layout layout = template.layout(swapped ? storedHeight : storedWidth,
+                    swapped ? storedWidth : storedHeight, width);
+            Bitmap composition = pool.get(layout.width, layout.height, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(composition);
+            canvas.drawColor(Color.WHITE);
+            drawBands(canvas, decoder, layout.photo, degrees);
+            drawSwatches(canvas, palette, layout);
+            return composition;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private Bitmap renderWhole(File file, Palette palette, Template template, int width)
+            throws IOException {
+        Bitmap photo = BitmapDecoder.decodeFile(file,
+                new DecodeTarget(width, Integer.MAX_VALUE / 2, Bitmap.Config.ARGB_8888), null);
+        try {
+            return render(photo, palette, template, width);
+        } finally {
+            pool.put(photo);
+        }
+    }
+
+    /**
+     * Decodes the image a band at a time and draws it, rotated by {@code degrees}, into
+     * {@code target}.
+     */
+    private void drawBands(Canvas canvas, BitmapRegionDecoder decoder, Rect target, int degrees) {
+        int storedWidth = decoder.getWidth();
+        int storedHeight = decoder.getHeight();
+        boolean swapped = degrees % 180 != 0;
+        int drawnWidth = swapped ? target.height() : target.width();
+        int drawnHeight = swapped ? target.width() : target.height();
+        float scale = drawnWidth / (float) storedWidth;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = BitmapDecoder.calculateInSampleSize(storedWidth, storedHeight,
+                drawnWidth, drawnHeight);
+        int sample = options.inSampleSize;
+        // Source rows per band, a multiple of the sample size so bands line up exactly.
+        int bandRows = Math.max(sample, (int) (BAND_HEIGHT / scale) / sample * sample);
+        int bandWidth = (storedWidth + sample - 1) / sample;
+        int bandHeight = bandRows / sample;
+        if (band == null || band.getWidth() != bandWidth || band.getHeight() != bandHeight) {
+            if (band != null) {
+                pool.put(band);
+            }
+            band = pool.get(bandWidth, bandHeight, Bitmap.Config.ARGB_8888);
+        }
+        options.inBitmap = band;
+
+        canvas.save();
+        // Map stored image coordinates onto the target rect.
+        canvas.translate(target.exactCenterX(), target.exactCenterY());
+        canvas.rotate(degrees);
+        canvas.scale(scale, scale);
+        canvas.translate(-storedWidth / 2f, -storedHeight / 2f);
+        for (int top = 0; top < storedHeight; top += bandRows) {
+            int bottom = Math.min(storedHeight, top + bandRows);
+            rect.set(0, top, storedWidth, bottom);
+            Bitmap decoded = decoder.decodeRegion(rect, options);
+            if (decoded == null) {
+                break;
+            }
+            // A short last band only fills the top of the buffer.
+            rect.set(0, 0, bandWidth, Math.min(bandHeight, (bottom - top + sample - 1) / sample));
+            rectF.set(0, top, storedWidth, bottom);
+            canvas.drawBitmap(decoded, rect, rectF, paint);
+        }
+        canvas.restore();
+    }
+
+    private static int rotationDegrees(File file) throws IOException {
+        int orientation = new ExifInterface(file.getPath()).getAttributeInt(
+                ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    private void drawSwatches(Canvas canvas, Palette palette, Template.Layout layout) {
+        Rect area = layout.swatches;
+        int count = palette.size();
+        if (count == 0) {
+            return;
+        }
+        if (layout.style == Template.Layout.Swatches.SQUARES) {
+            int gap = area.height() / 4;
+            int side = Math.min(area.height(), (area.width() - (count - 1) * gap) / count);
+            int x = area.left + (area.width() - count * side - (count - 1) * gap) / 2;
+            for (int i = 0; i < count; i++) {
+                rect.set(x, area.top, x + side, area.top + side);
+                paint.setColor(palette.getColor(i));
+                canvas.drawRect(rect, paint);
+                x += side + gap;
+            }
+            return;
+        }
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += palette.getPopulation(i);
+        }
+        if (total == 0) {
+            return;
+        }
+        boolean vertical = layout.style == Template.Layout.Swatches.VERTICAL_STRIP;
+        int length = vertical ? area.height() : area.width();
+        long covered = 0;
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            covered += palette.getPopulation(i);
+            int end = (int) (length * covered / total);
+            if (vertical) {
+                rect.set(area.left, area.top + start, area.right, area.top + end);
+            } else {
+                rect.set(area.left + start, area.top, area.left + end, area.bottom);
+            }
+            paint.setColor(palette.getColor(i));
+            canvas.drawRect(rect, paint);
+            start = end;
+        }
+    }
+
+    /**
+     * Gives the band buffer back to the pool.
+     */
+    public void release() {
+        if (band != null) {
+            pool.put(band);
+            band = null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.bjason.palecco.render;
+
+import android.graphics.Rect;
+
+/**
+ * How a photo and its palette are arranged in a composition.
+ */
+public enum Template {
+
+    /** The photo with a strip of proportional swatches below it. */
+    STRIP_BELOW {
+        @Override
+        Layout layout(int photoWidth, int photoHeight, int width) {
+            int photoBottom = scale(width, photoHeight, photoWidth);
+            int stripHeight = Math.max(1, Math.round(width * STRIP_RATIO));
+            return new Layout(width, photoBottom + stripHeight,
+                    new Rect(0, 0, width, photoBottom),
+                    new Rect(0, photoBottom, width, photoBottom + stripHeight),
+                    Layout.Swatches.HORIZONTAL_STRIP);
+        }
+    },
+
+    /** The photo with a strip of proportional swatches on its right. */
+    STRIP_RIGHT {
+        @Override
+        Layout layout(int photoWidth, int photoHeight, int width) {
+            int stripWidth = Math.max(1, Math.round(width * STRIP_RATIO));
+            int photoRight = Math.max(1, width - stripWidth);
+            int height = scale(photoRight, photoHeight, photoWidth);
+            return new Layout(width, height,
+                    new Rect(0, 0, photoRight, height),
+                    new Rect(photoRight, 0, width, height),
+                    Layout.Swatches.VERTICAL_STRIP);
+        }
+    },
+
+    /** The photo in a white frame with a row of equal swatches below it, like a postcard. */
+    POSTCARD {
+        @Override
+        Layout layout(int photoWidth, int photoHeight, int width) {
+            int margin = Math.round(width * 0.05f);
+            int inner = Math.max(1, width - 2 * margin);
+            int photoBottom = margin + scale(inner, photoHeight, photoWidth);
+            int swatchesTop = photoBottom + margin;
+            int swatchesBottom = swatchesTop + Math.max(1, Math.round(width * STRIP_RATIO));
+            return new Layout(width, swatchesBottom + margin,
+                    new Rect(margin, margin, margin + inner, photoBottom),
+                    new Rect(margin, swatchesTop, margin + inner, swatchesBottom),
+                    Layout.Swatches.SQUARES);
+        }
+    };
+
+    /** Thickness of the swatch strip relative to the composition width. */
+    private static final float STRIP_RATIO = 0.12f;
+
+    /**
+     * Returns the layout of a composition {@code width} pixels wide for a photo of the given
+     * displayed size.
+     */
+    abstract Layout layout(int photoWidth, int photoHeight, int width);
+
+    private static int scale(int value, int numerator, int denominator) {
+        return Math.max(1, (int) ((long) value * numerator / denominator));
+    }
+
+    /**
+     * Where a template puts things, in composition pixels.
+     */
+    static final class Layout {
+
+        enum Swatches {
+            HORIZONTAL_STRIP,
+            VERTICAL_STRIP,
+            SQUARES
+        }
+
+        final int width;
+        final int height;
+        final Rect photo;
+        final Rect swatches;
+        final Swatches style;
+
+        Layout(int width, int height, Rect photo, Rect swatches, Swatches style) {
+            this.width = width;
+            this.height = height;
+            this.photo = photo;
+            this.swatches = swatches;
+            this.style = style;
+        }
+    }
+}
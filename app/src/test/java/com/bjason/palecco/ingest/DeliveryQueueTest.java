@@ -0,0 +1,119 @@
+package com.bjason.palecco.ingest;
+
+import com.bjason.palecco.palette.Palette;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeliveryQueueTest {
+
+    /** Records what is delivered, as "completed 3", "failed 3" or "cancelled 3" by sequence. */
+    private static final class RecordingListener implements IngestionPipeline.Listener {
+        final List<String> delivered = new ArrayList<>();
+
+        @Override
+        public void onProgress(int completed, int total) {
+        }
+
+        @Override
+        public void onPaletteUpdated(IngestionJob job, Palette palette) {
+        }
+
+        @Override
+        public void onJobCompleted(IngestionJob job, IngestionResult result) {
+            delivered.add("completed " + job.getSequence());
+        }
+
+        @Override
+        public void onJobFailed(IngestionJob job, Exception error) {
+            delivered.add("failed " + job.getSequence());
+        }
+
+        @Override
+        public void onJobCancelled(IngestionJob job) {
+            delivered.add("cancelled " + job.getSequence());
+        }
+    }
+
+    private final RecordingListener listener = new RecordingListener();
+    private final DeliveryQueue queue = new DeliveryQueue();
+    private long nextSequence;
+
+    /** Starts an import, or a load of a library image whose file is known from the start. */
+    private IngestionJob start(boolean imported) {
+        File file = new File("image" + nextSequence + ".jpg");
+        IngestionJob job = new IngestionJob(nextSequence++, imported
+                ? IngestionSource.fromBitmap(null) : IngestionSource.fromLibraryFile(file));
+        if (!imported) {
+            job.file = file;
+        }
+        queue.add(job);
+        return job;
+    }
+
+    private static void store(IngestionJob job) {
+        job.file = new File("stored" + job.getSequence() + ".jpg");
+    }
+
+    @Test
+    public void imports_areDeliveredInTheOrderTheyStarted() {
+        IngestionJob first = start(true);
+        IngestionJob second = start(true);
+        IngestionJob third = start(true);
+        third.error = new IOException();
+        queue.finish(third, listener);
+        store(second);
+        queue.finish(second, listener);
+        assertTrue(listener.delivered.isEmpty());
+
+        store(first);
+        queue.finish(first, listener);
+        assertEquals(Arrays.asList("completed 0", "completed 1", "failed 2"), listener.delivered);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void loads_areDeliveredAsSoonAsTheyFinish() {
+        IngestionJob imported = start(true);
+        IngestionJob first = start(false);
+        IngestionJob second = start(false);
+        queue.finish(second, listener);
+        queue.finish(first, listener);
+        assertEquals(Arrays.asList("completed 2", "completed 1"), listener.delivered);
+        assertEquals(1, queue.size());
+
+        store(imported);
+        queue.finish(imported, listener);
+        assertEquals("completed 0", listener.delivered.get(2));
+    }
+
+    @Test
+    public void cancelledJobs_areDeliveredAsCancelled() {
+        IngestionJob imported = start(true);
+        IngestionJob loaded = start(false);
+        queue.cancelAll();
+        queue.finish(loaded, listener);
+        queue.finish(imported, listener);
+        assertEquals(Arrays.asList("cancelled 1", "cancelled 0"), listener.delivered);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void storedImport_cancelledWhileWaitingForAnEarlierOne_isCompleted() {
+        IngestionJob first = start(true);
+        IngestionJob second = start(true);
+        // The second image is stored first, then waits for the first to be delivered.
+        store(second);
+        queue.finish(second, listener);
+        queue.cancelAll();
+        queue.finish(first, listener);
+        assertEquals(Arrays.asList("cancelled 0", "completed 1"), listener.delivered);
+    }
+}
@@ -0,0 +1,75 @@
+package com.bjason.palecco.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void smallValues_haveABucketEach() {
+        for (int value = 0; value < 32; value++) {
+            assertEquals(value, Histogram.indexOf(value));
+            assertEquals(value, Histogram.highestValueOf(value));
+        }
+    }
+
+    @Test
+    public void buckets_coverEveryValueWithin3Percent() {
+        long previousHighest = -1;
+        for (int index = 0; index <= Histogram.indexOf(Histogram.MAX_VALUE); index++) {
+            long highest = Histogram.highestValueOf(index);
+            // Buckets follow each other without gaps or overlaps.
+            assertEquals(index, Histogram.indexOf(previousHighest + 1));
+            assertEquals(index, Histogram.indexOf(highest));
+            long lowest = previousHighest + 1;
+            assertTrue("bucket " + index, highest - lowest <= lowest / 32);
+            previousHighest = highest;
+        }
+        assertTrue(previousHighest >= Histogram.MAX_VALUE);
+    }
+
+    @Test
+    public void percentiles_areTheValuesAtThatRank() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(25, histogram.getValueAtPercentile(25));
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        // 99 shares a bucket two wide with 98.
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        // Never above the largest value recorded, though its bucket reaches 101.
+        assertEquals(100, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void largeValues_areKnownToTheirBucket() {
+        Histogram histogram = new Histogram();
+        histogram.record(1_000_000);
+        histogram.record(1_000_000);
+        histogram.record(5);
+        long p90 = histogram.getValueAtPercentile(90);
+        assertTrue(String.valueOf(p90), p90 >= 1_000_000 && p90 <= 1_000_000 * 33 / 32);
+    }
+
+    @Test
+    public void values_areClampedAndReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Histogram.MAX_VALUE, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Histogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,119 @@
+package com.bjason.palecco.benchmark;
+
+import com.bjason.palecco.palette.ColorSearchIndex;
+import com.bjason.palecco.palette.LibraryOrder;
+import com.bjason.palecco.palette.Palette;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries and updates of a {@link ColorSearchIndex} over a library of random palettes, and
+ * sorting the library by color from it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColorSearchBenchmark {
+
+    private static final int QUERIES = 64;
+
+    @Param({"1000", "10000"})
+    public int entries;
+
+    private File file;
+    private ColorSearchIndex index;
+    private Palette[] palettes;
+    private List<String> ids;
+    private int[] colors;
+    private int next;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("colors", ".idx");
+        file.delete();
+        index = ColorSearchIndex.open(file);
+        Random random = new Random(1);
+        palettes = new Palette[entries];
+        ids = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            palettes[i] = randomPalette(random);
+            ids.add("image" + i);
+            index.put(ids.get(i), palettes[i]);
+        }
+        colors = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            colors[i] = 0xFF000000 | random.nextInt();
+        }
+    }
+
+    private static Palette randomPalette(Random random) {
+        int size = 1 + random.nextInt(ColorSearchIndex.MAX_SWATCHES);
+        int[] colors = new int[size];
+        int[] populations = new int[size];
+        for (int i = 0; i < size; i++) {
+            colors[i] = 0xFF000000 | random.nextInt();
+            populations[i] = 1 + random.nextInt(1000);
+        }
+        return new Palette(colors, populations, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        index.close();
+        file.delete();
+    }
+
+    private int nextQuery() {
+        next = next + 1 == QUERIES ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public List<ColorSearchIndex.Match> searchColor() {
+        return index.searchColor(colors[nextQuery()], 50);
+    }
+
+    @Benchmark
+    public List<ColorSearchIndex.Match> searchPalette() {
+        return index.searchPalette(palettes[nextQuery()], 50);
+    }
+
+    /** Traits of the whole library, then the sort, as when the grid changes its order. */
+    @Benchmark
+    public LibraryOrder orderByHue() {
+        return LibraryOrder.sort(ids, index.traits(ids), LibraryOrder.Mode.HUE);
+    }
+
+    /** Alternates images between two palettes, so every call appends a record. */
+    @Benchmark
+    public void put() throws IOException {
+        int i = nextQuery();
+        if (i == 0) {
+            round++;
+        }
+        index.put("image" + i, palettes[(i + round % 2) % entries]);
+    }
+}
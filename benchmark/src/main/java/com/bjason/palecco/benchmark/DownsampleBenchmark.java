@@ -0,0 +1,54 @@
+package com.bjason.palecco.benchmark;
+
+import com.bjason.palecco.palette.PixelBuffers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Box-filter downsampling of a pixel buffer to the palette input size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DownsampleBenchmark {
+
+    /** Side of the square source: a downsampled decode, a 4K frame and a 12MP photo. */
+    @Param({"512", "2048", "4000"})
+    public int side;
+
+    @Param({"256"})
+    public int maxSide;
+
+    private int[] src;
+    private int[] dst;
+    private int factor;
+
+    @Setup
+    public void setUp() {
+        src = Fixtures.image(Fixtures.Kind.PHOTO, side, side);
+        factor = PixelBuffers.factorFor(side, side, maxSide);
+        int length = PixelBuffers.downsampledLength(side, factor);
+        dst = new int[length * length];
+    }
+
+    @Benchmark
+    public int[] downsample() {
+        PixelBuffers.downsample(src, side, side, factor, dst);
+        return dst;
+    }
+}
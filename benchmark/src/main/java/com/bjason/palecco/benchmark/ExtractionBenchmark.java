@@ -0,0 +1,68 @@
+package com.bjason.palecco.benchmark;
+
+import com.bjason.palecco.palette.ColorHistogram;
+import com.bjason.palecco.palette.Palette;
+import com.bjason.palecco.palette.PaletteExtractor;
+import com.bjason.palecco.palette.Quantizer;
+import com.bjason.palecco.palette.QuantizerType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Palette extraction of one image, per quantizer and image size. {@link #quantize} excludes the
+ * histogram, so the difference to {@link #extract} is the cost of counting pixels.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExtractionBenchmark {
+
+    @Param({"MEDIAN_CUT", "OCTREE", "K_MEANS", "K_MEANS_OKLAB"})
+    public QuantizerType quantizer;
+
+    /** Side of the square input; 256 is what the ingestion pipeline decodes to. */
+    @Param({"64", "256", "1024"})
+    public int side;
+
+    @Param({"PHOTO", "NOISE"})
+    public Fixtures.Kind kind;
+
+    private int[] pixels;
+    private PaletteExtractor extractor;
+    private Quantizer bareQuantizer;
+    private ColorHistogram histogram;
+
+    @Setup
+    public void setUp() {
+        pixels = Fixtures.image(kind, side, side);
+        extractor = new PaletteExtractor(quantizer, PaletteExtractor.DEFAULT_MAX_COLORS);
+        bareQuantizer = quantizer.create();
+        histogram = new ColorHistogram();
+        histogram.add(pixels, 0, pixels.length);
+    }
+
+    @Benchmark
+    public Palette extract() {
+        return extractor.extract(pixels, side, side);
+    }
+
+    @Benchmark
+    public Palette quantize() {
+        return bareQuantizer.quantize(histogram, PaletteExtractor.DEFAULT_MAX_COLORS);
+    }
+}
@@ -0,0 +1,124 @@
+package com.bjason.palecco.benchmark;
+
+import com.bjason.palecco.palette.YuvFrame;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Synthetic ARGB images, deterministic for a given seed, so runs are comparable across machines
+ * and commits without checking in photos.
+ */
+public final class Fixtures {
+
+    public enum Kind {
+        /** Smooth two-axis gradient: many distinct colors, evenly spread. */
+        GRADIENT,
+        /** Uniform noise: the worst case for every quantizer. */
+        NOISE,
+        /** A few soft color blobs over a background with mild noise, roughly like a photo. */
+        PHOTO
+    }
+
+    static final long SEED = 0x5EED;
+
+    private Fixtures() {
+    }
+
+    static int[] image(Kind kind, int width, int height) {
+        return image(kind, width, height, SEED);
+    }
+
+    static int[] image(Kind kind, int width, int height, long seed) {
+        int[] pixels = new int[width * height];
+        Random random = new Random(seed);
+        switch (kind) {
+            case GRADIENT:
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int r = x * 255 / Math.max(1, width - 1);
+                        int g = y * 255 / Math.max(1, height - 1);
+                        pixels[y * width + x] = 0xFF000000 | r << 16 | g << 8 | (r + g) / 2;
+                    }
+                }
+                break;
+            case NOISE:
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+                }
+                break;
+            case PHOTO:
+                photo(pixels, width, height, random);
+                break;
+            default:
+                throw new AssertionError(kind);
+        }
+        return pixels;
+    }
+
+    /**
+     * Encodes an image as an NV21 camera frame: full range BT.601, chroma averaged over 2x2
+     * blocks, V and U interleaved in one direct buffer.
+     */
+    static YuvFrame nv21(int[] pixels, int width, int height) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        ByteBuffer y = ByteBuffer.allocateDirect(width * height);
+        ByteBuffer vu = ByteBuffer.allocateDirect(chromaWidth * 2 * chromaHeight);
+        for (int i = 0; i < width * height; i++) {
+            int c = pixels[i];
+            y.put(i, (byte) clamp(0.299f * (c >> 16 & 0xFF) + 0.587f * (c >> 8 & 0xFF)
+                    + 0.114f * (c & 0xFF)));
+        }
+        for (int cy = 0; cy < chromaHeight; cy++) {
+            for (int cx = 0; cx < chromaWidth; cx++) {
+                // The top left pixel stands for its block; close enough for timing.
+                int c = pixels[Math.min(height - 1, 2 * cy) * width + Math.min(width - 1, 2 * cx)];
+                int r = c >> 16 & 0xFF, g = c >> 8 & 0xFF, b = c & 0xFF;
+                int offset = (cy * chromaWidth + cx) * 2;
+                vu.put(offset, (byte) clamp(0.5f * r - 0.418688f * g - 0.081312f * b + 128));
+                vu.put(offset + 1, (byte) clamp(-0.168736f * r - 0.331264f * g + 0.5f * b + 128));
+            }
+        }
+        ByteBuffer u = vu.duplicate();
+        u.position(1);
+        return new YuvFrame(width, height, y, width, u.slice(), vu, chromaWidth * 2, 2);
+    }
+
+    private static void photo(int[] pixels, int width, int height, Random random) {
+        int blobs = 6;
+        float[] cx = new float[blobs];
+        float[] cy = new float[blobs];
+        float[] radius = new float[blobs];
+        int[] color = new int[blobs];
+        for (int i = 0; i < blobs; i++) {
+            cx[i] = random.nextFloat() * width;
+            cy[i] = random.nextFloat() * height;
+            radius[i] = (0.15f + random.nextFloat() * 0.35f) * Math.max(width, height);
+            color[i] = random.nextInt(0x1000000);
+        }
+        int background = random.nextInt(0x1000000);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float r = (background >> 16) & 0xFF;
+                float g = (background >> 8) & 0xFF;
+                float b = background & 0xFF;
+                for (int i = 0; i < blobs; i++) {
+                    float dx = (x - cx[i]) / radius[i];
+                    float dy = (y - cy[i]) / radius[i];
+                    float weight = Math.max(0f, 1f - (dx * dx + dy * dy));
+                    r += (((color[i] >> 16) & 0xFF) - r) * weight;
+                    g += (((color[i] >> 8) & 0xFF) - g) * weight;
+                    b += ((color[i] & 0xFF) - b) * weight;
+                }
+                int noise = random.nextInt(17) - 8;
+                pixels[y * width + x] = 0xFF000000 | clamp(r + noise) << 16
+                        | clamp(g + noise) << 8 | clamp(b + noise);
+            }
+        }
+    }
+
+    private static int clamp(float value) {
+        return Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
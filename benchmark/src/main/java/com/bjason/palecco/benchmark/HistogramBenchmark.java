@@ -0,0 +1,72 @@
+package com.bjason.palecco.benchmark;
+
+import com.bjason.palecco.palette.ColorHistogram;
+import com.bjason.palecco.palette.TiledHistogramBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Histogram building of a full-resolution image, sequential and tiled over a fork-join pool of
+ * each size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistogramBenchmark {
+
+    /** Side of the square image: a pipeline decode, a 4MP and a 16MP photo. */
+    @Param({"256", "2048", "4000"})
+    public int side;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private int[] pixels;
+    private ColorHistogram histogram;
+    private ForkJoinPool pool;
+    private TiledHistogramBuilder builder;
+
+    @Setup
+    public void setUp() {
+        pixels = Fixtures.image(Fixtures.Kind.PHOTO, side, side);
+        histogram = new ColorHistogram();
+        pool = new ForkJoinPool(threads);
+        builder = new TiledHistogramBuilder(pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public ColorHistogram sequential() {
+        histogram.clear();
+        histogram.addRows(pixels, side, 0, side);
+        return histogram;
+    }
+
+    @Benchmark
+    public ColorHistogram tiled() {
+        histogram.clear();
+        builder.addImage(pixels, side, side, histogram);
+        return histogram;
+    }
+}
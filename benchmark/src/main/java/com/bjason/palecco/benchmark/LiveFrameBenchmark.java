@@ -0,0 +1,59 @@
+package com.bjason.palecco.benchmark;
+
+import com.bjason.palecco.palette.LivePaletteTracker;
+import com.bjason.palecco.palette.Palette;
+import com.bjason.palecco.palette.PaletteExtractor;
+import com.bjason.palecco.palette.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One camera preview frame through {@link LivePaletteTracker}, warm started from the previous
+ * frame as in the live view, and seeded from scratch as for the first frame. A frame must take
+ * well under 33 ms on a device to keep up with 30 fps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LiveFrameBenchmark {
+
+    @Param({"4096", "16384", "65536"})
+    public int budget;
+
+    private YuvFrame frame;
+    private LivePaletteTracker tracker;
+
+    @Setup
+    public void setUp() {
+        int[] pixels = Fixtures.image(Fixtures.Kind.PHOTO, 640, 480);
+        frame = Fixtures.nv21(pixels, 640, 480);
+        tracker = new LivePaletteTracker(PaletteExtractor.DEFAULT_MAX_COLORS, budget);
+        tracker.update(frame);
+    }
+
+    @Benchmark
+    public Palette warm() {
+        return tracker.update(frame);
+    }
+
+    @Benchmark
+    public Palette cold() {
+        tracker.reset();
+        return tracker.update(frame);
+    }
+}
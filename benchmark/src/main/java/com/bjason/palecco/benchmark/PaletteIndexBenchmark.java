@@ -0,0 +1,90 @@
+package com.bjason.palecco.benchmark;
+
+import com.bjason.palecco.palette.Palette;
+import com.bjason.palecco.palette.PaletteExtractor;
+import com.bjason.palecco.palette.PaletteIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups, updates and opening of a {@link PaletteIndex} of a given library size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PaletteIndexBenchmark {
+
+    @Param({"1000", "10000"})
+    public int entries;
+
+    private File file;
+    private PaletteIndex index;
+    private Palette palette;
+    private String[] names;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("palettes", ".idx");
+        int[] pixels = Fixtures.image(Fixtures.Kind.PHOTO, 64, 64);
+        palette = new PaletteExtractor().extract(pixels, 64, 64);
+        names = new String[entries];
+        index = PaletteIndex.open(file);
+        for (int i = 0; i < entries; i++) {
+            names[i] = String.format("%014d.jpg", 20200101000000L + i);
+            index.put(names[i], 1000 + i, i, 4000, 3000, palette);
+        }
+        index.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        index.close();
+        file.delete();
+    }
+
+    /** Cycles through the entries; entry {@code i} has file size {@code 1000 + i}, mtime i. */
+    private int nextEntry() {
+        next = next + 1 == entries ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public PaletteIndex.Entry get() {
+        int i = nextEntry();
+        return index.get(names[i], 1000 + i, i);
+    }
+
+    @Benchmark
+    public void put() throws IOException {
+        int i = nextEntry();
+        index.put(names[i], 1000 + i, i, 4000, 3000, palette);
+    }
+
+    /** Opening scans every name once; this is paid at each app start. */
+    @Benchmark
+    public int open() throws IOException {
+        try (PaletteIndex reopened = PaletteIndex.open(file)) {
+            return reopened.size();
+        }
+    }
+}
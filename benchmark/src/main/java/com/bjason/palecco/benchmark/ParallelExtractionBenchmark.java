@@ -0,0 +1,86 @@
+package com.bjason.palecco.benchmark;
+
+import com.bjason.palecco.palette.PaletteExtractor;
+import com.bjason.palecco.palette.QuantizerType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of a batch of pipeline-sized images spread over a fixed number of worker threads,
+ * with one extractor per thread as in the ingestion pipeline. Shows how well extraction scales
+ * with cores, e.g. to size the compute executor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelExtractionBenchmark {
+
+    private static final int BATCH_SIZE = 32;
+    private static final int SIDE = 256;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"MEDIAN_CUT", "K_MEANS"})
+    public QuantizerType quantizer;
+
+    private int[][] images;
+    private ExecutorService executor;
+    private ThreadLocal<PaletteExtractor> extractors;
+
+    @Setup
+    public void setUp() {
+        images = new int[BATCH_SIZE][];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            images[i] = Fixtures.image(Fixtures.Kind.PHOTO, SIDE, SIDE, Fixtures.SEED + i);
+        }
+        executor = Executors.newFixedThreadPool(threads);
+        final QuantizerType type = quantizer;
+        extractors = new ThreadLocal<PaletteExtractor>() {
+            @Override
+            protected PaletteExtractor initialValue() {
+                return new PaletteExtractor(type, PaletteExtractor.DEFAULT_MAX_COLORS);
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int extractBatch() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> results = new ArrayList<>(BATCH_SIZE);
+        for (final int[] pixels : images) {
+            results.add(executor.submit(() -> extractors.get().extract(pixels, SIDE, SIDE).size()));
+        }
+        int colors = 0;
+        for (Future<Integer> result : results) {
+            colors += result.get();
+        }
+        return colors;
+    }
+}
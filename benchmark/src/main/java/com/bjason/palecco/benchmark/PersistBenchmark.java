@@ -0,0 +1,101 @@
+package com.bjason.palecco.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * The two ways an image reaches the library: camera thumbnails are encoded as JPEG at quality 100,
+ * picked images are copied byte for byte. {@code Bitmap.compress} is not available on the JVM,
+ * so ImageIO's JPEG encoder stands in for it; compare runs with each other, not with devices.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PersistBenchmark {
+
+    /** Side of the square image. */
+    @Param({"256", "1024", "3000"})
+    public int side;
+
+    private BufferedImage image;
+    private File source;
+    private File target;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        image = new BufferedImage(side, side, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, side, side, Fixtures.image(Fixtures.Kind.PHOTO, side, side), 0, side);
+        source = File.createTempFile("source", ".jpg");
+        target = File.createTempFile("target", ".jpg");
+        encode(source);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        source.delete();
+        target.delete();
+    }
+
+    @Benchmark
+    public long encodeJpeg() throws IOException {
+        encode(target);
+        return target.length();
+    }
+
+    @Benchmark
+    public long copyBytes() throws IOException {
+        long copied = 0;
+        try (InputStream in = new FileInputStream(source);
+             OutputStream out = new FileOutputStream(target)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                copied += read;
+            }
+        }
+        return copied;
+    }
+
+    private void encode(File file) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(1f);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.bjason.palecco.benchmark;
+
+import com.bjason.palecco.palette.ColorHistogram;
+import com.bjason.palecco.palette.Palette;
+import com.bjason.palecco.palette.RegionHistogram;
+import com.bjason.palecco.palette.RegionPaletteTracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One step of dragging a region across a region-sized image, as in the pager: the histogram
+ * updated from the cells of a {@link RegionHistogram}, the same histogram scanned from the
+ * pixels, and the whole step through {@link RegionPaletteTracker}. A step must take well under
+ * 16 ms on a device to keep up with 60 fps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RegionBenchmark {
+
+    private static final int SIDE = 1024;
+    /** Pixels the region moves per step, about a finger's move per frame. */
+    private static final int STEP = 6;
+
+    /** Side of the square region. */
+    @Param({"128", "512"})
+    public int region;
+
+    private int[] pixels;
+    private RegionHistogram regions;
+    private RegionPaletteTracker tracker;
+    private final ColorHistogram scanned = new ColorHistogram();
+    private int offset;
+    private int direction = 1;
+
+    @Setup
+    public void setUp() {
+        pixels = Fixtures.image(Fixtures.Kind.PHOTO, SIDE, SIDE);
+        regions = new RegionHistogram(pixels, SIDE, SIDE);
+        tracker = new RegionPaletteTracker(new RegionHistogram(pixels, SIDE, SIDE));
+        tracker.update(0, 0, region, region);
+    }
+
+    /** Moves the region diagonally back and forth across the image. */
+    private int nextOffset() {
+        int next = offset + direction * STEP;
+        if (next < 0 || next > SIDE - region) {
+            direction = -direction;
+        }
+        offset += direction * STEP;
+        return offset;
+    }
+
+    @Benchmark
+    public int incremental() {
+        int o = nextOffset();
+        return regions.setRect(o, o, o + region, o + region).totalCount();
+    }
+
+    @Benchmark
+    public int rescan() {
+        int o = nextOffset();
+        scanned.clear();
+        for (int y = o; y < o + region; y++) {
+            scanned.add(pixels, y * SIDE + o, y * SIDE + o + region);
+        }
+        return scanned.totalCount();
+    }
+
+    @Benchmark
+    public Palette palette() {
+        int o = nextOffset();
+        return tracker.update(o, o, o + region, o + region);
+    }
+
+    @Benchmark
+    public RegionHistogram index() {
+        return new RegionHistogram(pixels, SIDE, SIDE);
+    }
+}
@@ -0,0 +1,57 @@
+package com.bjason.palecco.benchmark;
+
+import com.bjason.palecco.palette.PaletteExtractor;
+import com.bjason.palecco.palette.PaletteSampler;
+import com.bjason.palecco.palette.QuantizerType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Approximate extraction from a sample budget, against {@link ExtractionBenchmark}'s exact
+ * extraction. How far sampled palettes are from the exact one is checked by the tests of
+ * {@link PaletteSampler}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SamplingBenchmark {
+
+    @Param({"STRIDE", "RANDOM"})
+    public PaletteSampler.Mode mode;
+
+    @Param({"1024", "4096", "16384"})
+    public int budget;
+
+    @Param({"1024"})
+    public int side;
+
+    private int[] pixels;
+    private PaletteSampler sampler;
+
+    @Setup
+    public void setUp() {
+        pixels = Fixtures.image(Fixtures.Kind.PHOTO, side, side);
+        sampler = new PaletteSampler(QuantizerType.MEDIAN_CUT,
+                PaletteExtractor.DEFAULT_MAX_COLORS, mode);
+    }
+
+    @Benchmark
+    public PaletteSampler.Sample sample() {
+        return sampler.sample(pixels, side, side, budget);
+    }
+}
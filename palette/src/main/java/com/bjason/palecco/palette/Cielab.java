@@ -0,0 +1,83 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Conversion between sRGB and CIELAB under the D65 white point.
+ * <p>
+ * L runs from 0 to 100; a and b stay within about +-128 for sRGB colors, and their Euclidean
+ * distance is the CIE76 delta E. Channels are linearized through {@link Srgb}'s tables. To
+ * convert many colors, go through {@link LabCache#cielab()} instead.
+ */
+public final class Cielab {
+
+    private static final double WHITE_X = 0.95047;
+    private static final double WHITE_Z = 1.08883;
+    private static final double DELTA = 6.0 / 29;
+    private static final double DELTA_CUBED = DELTA * DELTA * DELTA;
+    private static final double SLOPE = 3 * DELTA * DELTA;
+
+    private Cielab() {
+    }
+
+    /**
+     * Writes L, a and b of an ARGB color to {@code out[0..2]}; alpha is ignored.
+     */
+    public static void fromArgb(int argb, float[] out) {
+        double fx = fx(argb);
+        double fy = fy(argb);
+        double fz = fz(argb);
+        out[0] = (float) (116 * fy - 16);
+        out[1] = (float) (500 * (fx - fy));
+        out[2] = (float) (200 * (fy - fz));
+    }
+
+    /**
+     * Returns the opaque ARGB color of a CIELAB color, clamping channels outside the sRGB gamut.
+     */
+    public static int toArgb(float lightness, float a, float b) {
+        double fy = (lightness + 16) / 116.0;
+        double x = inverse(fy + a / 500.0) * WHITE_X;
+        double y = inverse(fy);
+        double z = inverse(fy - b / 200.0) * WHITE_Z;
+        int red = Srgb.fromLinear((float) (3.2404542 * x - 1.5371385 * y - 0.4985314 * z));
+        int green = Srgb.fromLinear((float) (-0.9692660 * x + 1.8760108 * y + 0.0415560 * z));
+        int blue = Srgb.fromLinear((float) (0.0556434 * x - 0.2040259 * y + 1.0572252 * z));
+        return 0xFF000000 | red << 16 | green << 8 | blue;
+    }
+
+    /**
+     * Returns the CIE76 color difference delta E between two ARGB colors, without allocating.
+     */
+    public static float deltaE(int argb1, int argb2) {
+        // L, a and b are linear in f(X), f(Y) and f(Z), so their differences are too.
+        double dfx = fx(argb1) - fx(argb2);
+        double dfy = fy(argb1) - fy(argb2);
+        double dfz = fz(argb1) - fz(argb2);
+        double dl = 116 * dfy;
+        double da = 500 * (dfx - dfy);
+        double db = 200 * (dfy - dfz);
+        return (float) Math.sqrt(dl * dl + da * da + db * db);
+    }
+
+    private static double fx(int argb) {
+        return f((0.4124564 * Srgb.toLinear(argb >> 16) + 0.3575761 * Srgb.toLinear(argb >> 8)
+                + 0.1804375 * Srgb.toLinear(argb)) / WHITE_X);
+    }
+
+    private static double fy(int argb) {
+        return f(0.2126729 * Srgb.toLinear(argb >> 16) + 0.7151522 * Srgb.toLinear(argb >> 8)
+                + 0.0721750 * Srgb.toLinear(argb));
+    }
+
+    private static double fz(int argb) {
+        return f((0.0193339 * Srgb.toLinear(argb >> 16) + 0.1191920 * Srgb.toLinear(argb >> 8)
+                + 0.9503041 * Srgb.toLinear(argb)) / WHITE_Z);
+    }
+
+    private static double f(double t) {
+        return t > DELTA_CUBED ? Math.cbrt(t) : t / SLOPE + 4.0 / 29;
+    }
+
+    private static double inverse(double t) {
+        return t > DELTA ? t * t * t : SLOPE * (t - 4.0 / 29);
+    }
+}
@@ -0,0 +1,195 @@
+package com.bjason.palecco.palette;
+
+import java.util.Arrays;
+
+/**
+ * A primitive color histogram over packed ARGB pixels.
+ * <p>
+ * Every opaque pixel is reduced to 5 bits per channel, so the whole histogram is a single
+ * {@code int[32768]} of populations indexed by {@code (r5 << 10) | (g5 << 5) | b5}. Adding pixels
+ * never allocates, and a histogram can be cleared and reused for the next image.
+ */
+public final class ColorHistogram {
+
+    /** Number of bits kept per color channel. */
+    public static final int CHANNEL_BITS = 5;
+    /** Number of distinct values per quantized channel. */
+    public static final int CHANNEL_SIZE = 1 << CHANNEL_BITS;
+    /** Number of buckets in the histogram. */
+    public static final int SIZE = 1 << (CHANNEL_BITS * 3);
+
+    /** Pixels with an alpha below this value are ignored. */
+    private static final int MIN_ALPHA = 0x80;
+
+    private final int[] counts = new int[SIZE];
+    private int total;
+
+    /**
+     * Adds every pixel of {@code pixels[from, to)}.
+     */
+    public void add(int[] pixels, int from, int to) {
+        final int[] counts = this.counts;
+        int added = 0;
+        for (int i = from; i < to; i++) {
+            final int argb = pixels[i];
+            if ((argb >>> 24) >= MIN_ALPHA) {
+                counts[indexOf(argb)]++;
+                added++;
+            }
+        }
+        total += added;
+    }
+
+    /**
+     * Adds a single pixel.
+     */
+    public void add(int argb) {
+        if ((argb >>> 24) >= MIN_ALPHA) {
+            counts[indexOf(argb)]++;
+            total++;
+        }
+    }
+
+    /**
+     * Adds one pixel to the bucket at {@code index}, for callers that compute it themselves.
+     */
+    void addToBucket(int index) {
+        counts[index]++;
+        total++;
+    }
+
+    /**
+     * Adds {@code count} pixels to the bucket at {@code index}, or takes them out if
+     * {@code count} is negative.
+     */
+    void addToBucket(int index, int count) {
+        counts[index] += count;
+        total += count;
+    }
+
+    /**
+     * Takes out a single pixel added with {@link #add(int)}.
+     */
+    void remove(int argb) {
+        if (isCounted(argb)) {
+            counts[indexOf(argb)]--;
+            total--;
+        }
+    }
+
+    /**
+     * Returns whether {@link #add(int)} counts {@code argb}; pixels that are mostly transparent
+     * are not.
+     */
+    static boolean isCounted(int argb) {
+        return (argb >>> 24) >= MIN_ALPHA;
+    }
+
+    /**
+     * Adds the rows {@code [rowStart, rowEnd)} of an image stored row by row with the given
+     * {@code width}.
+     */
+    public void addRows(int[] pixels, int width, int rowStart, int rowEnd) {
+        add(pixels, rowStart * width, rowEnd * width);
+    }
+
+    /**
+     * Adds the populations of {@code other} to this histogram.
+     */
+    public void merge(ColorHistogram other) {
+        final int[] counts = this.counts;
+        final int[] otherCounts = other.counts;
+        for (int i = 0; i < SIZE; i++) {
+            counts[i] += otherCounts[i];
+        }
+        total += other.total;
+    }
+
+    /**
+     * Resets every bucket so this histogram can be reused.
+     */
+    public void clear() {
+        Arrays.fill(counts, 0);
+        total = 0;
+    }
+
+    /**
+     * Returns the population of the bucket at {@code index}.
+     */
+    public int count(int index) {
+        return counts[index];
+    }
+
+    /**
+     * Returns the number of pixels added so far.
+     */
+    public int totalCount() {
+        return total;
+    }
+
+    /**
+     * Returns the number of non-empty buckets.
+     */
+    public int distinctColors() {
+        int distinct = 0;
+        for (int count : counts) {
+            if (count != 0) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Writes the indices of all non-empty buckets into {@code out} and returns how many were
+     * written. {@code out} must hold at least {@link #distinctColors()} entries.
+     */
+    public int copyNonEmptyIndices(int[] out) {
+        int n = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (counts[i] != 0) {
+                out[n++] = i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the histogram bucket of an ARGB color.
+     */
+    public static int indexOf(int argb) {
+        return ((argb >> 9) & 0x7C00) | ((argb >> 6) & 0x03E0) | ((argb >> 3) & 0x001F);
+    }
+
+    /** Returns the quantized red channel of a bucket index. */
+    public static int red(int index) {
+        return (index >> 10) & 0x1F;
+    }
+
+    /** Returns the quantized green channel of a bucket index. */
+    public static int green(int index) {
+        return (index >> 5) & 0x1F;
+    }
+
+    /** Returns the quantized blue channel of a bucket index. */
+    public static int blue(int index) {
+        return index & 0x1F;
+    }
+
+    /**
+     * Widens a 5-bit channel value back to 8 bits.
+     */
+    public static int expand(int channel5) {
+        return (channel5 << 3) | (channel5 >> 2);
+    }
+
+    /**
+     * Returns the opaque ARGB color at the center of a bucket.
+     */
+    public static int toArgb(int index) {
+        return 0xFF000000
+                | expand(red(index)) << 16
+                | expand(green(index)) << 8
+                | expand(blue(index));
+    }
+}
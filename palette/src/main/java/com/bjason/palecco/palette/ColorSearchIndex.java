@@ -0,0 +1,639 @@
+package com.bjason.palecco.palette;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent index of the palettes of a library for finding images by color.
+ * <p>
+ * Every swatch of every palette is a point in {@link Oklab}, stored as a packed value of
+ * {@link LabCache} with its share of the image. The points are bucketed in a uniform grid of
+ * cells {@value #CELL_SIZE} fixed-point steps wide, so a query only visits the cells around it,
+ * ring by ring, until no unvisited cell can hold anything closer. Adding or removing an image
+ * relinks its points and nothing else, and the cost of a query depends on how many swatches are
+ * near it rather than on the size of the library.
+ * <p>
+ * The file is a journal like that of {@link LibraryIndex}: additions and removals are appended
+ * as they happen, a record cut short by a crash is dropped on opening, and the journal is
+ * rewritten once more records are dead than live. All methods are thread-safe.
+ */
+public final class ColorSearchIndex implements Closeable {
+
+    /** Swatches kept per image; the least populated ones beyond this are dropped. */
+    public static final int MAX_SWATCHES = PaletteIndex.MAX_COLORS;
+    /** Longest id, in bytes. */
+    public static final int MAX_ID_LENGTH = 255;
+
+    private static final int MAGIC = 0x504C4353; // "PLCS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    /** Dead records tolerated before a rewrite is worth it. */
+    private static final int MIN_DEAD_TO_COMPACT = 64;
+
+    // The grid: 32 cells of lightness by 64 of a and 64 of b, each CELL_SIZE steps or about 0.03
+    // OKLab wide. Its cell heads take half a megabyte however small the library is.
+    private static final int CELL_SHIFT = 5;
+    static final int CELL_SIZE = 1 << CELL_SHIFT;
+    private static final int L_CELLS = 1024 >> CELL_SHIFT;
+    private static final int AB_CELLS = 2048 >> CELL_SHIFT;
+    private static final int AB_OFFSET = 1024;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NONE = -1;
+
+    /**
+     * An image found by a query.
+     */
+    public static final class Match {
+        private final String id;
+        private final float distance;
+
+        Match(String id, float distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /** Distance from the query in OKLab units; 0 is an exact match. */
+        public float getDistance() {
+            return distance;
+        }
+
+        @Override
+        public String toString() {
+            return id + "@" + distance;
+        }
+    }
+
+    private static final Comparator<Match> BY_DISTANCE = new Comparator<Match>() {
+        @Override
+        public int compare(Match a, Match b) {
+            int byDistance = Float.compare(a.distance, b.distance);
+            return byDistance != 0 ? byDistance : a.id.compareTo(b.id);
+        }
+    };
+
+    private final File path;
+    private final LabCache lab = LabCache.oklab();
+    private final float scale = lab.getScale();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final int[] cellHeads = new int[L_CELLS * AB_CELLS * AB_CELLS];
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(MAX_ID_LENGTH + 64);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    // Image slots; slot s owns points s * MAX_SWATCHES up to s * MAX_SWATCHES + swatchCounts[s].
+    private String[] slotIds = new String[0];
+    private int[] swatchCounts = new int[0];
+    /** Summaries of the palettes by slot, kept so that sorting the library reads nothing else. */
+    private PaletteTraits[] slotTraits = new PaletteTraits[0];
+    private int[] freeSlots = new int[0];
+    private int freeCount;
+    private int slotCount;
+    // Points, linked into the list of their cell.
+    private int[] pointLab = new int[0];
+    private char[] pointShare = new char[0];
+    private int[] pointNext = new int[0];
+    private int[] pointPrev = new int[0];
+    // Query scratch: the distance to each slot, MAX_VALUE between queries, and the slots reached.
+    private int[] best = new int[0];
+    private int[] reached = new int[0];
+    private int reachedCount;
+    private RandomAccessFile file;
+    private int deadRecords;
+
+    private ColorSearchIndex(File path) {
+        this.path = path;
+        Arrays.fill(cellHeads, NONE);
+    }
+
+    /**
+     * Opens the index at {@code path}, creating it if needed. An unreadable or incompatible file
+     * is discarded and replaced by an empty index.
+     */
+    public static ColorSearchIndex open(File path) throws IOException {
+        ColorSearchIndex index = new ColorSearchIndex(path);
+        try {
+            index.load();
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        long validLength = path.exists() ? replay() : 0;
+        file = new RandomAccessFile(path, "rw");
+        if (validLength < HEADER_SIZE) {
+            // New or incompatible: start over.
+            for (String id : new ArrayList<>(slots.keySet())) {
+                unlink(id);
+            }
+            deadRecords = 0;
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+        } else if (deadRecords >= MIN_DEAD_TO_COMPACT && deadRecords > slots.size()) {
+            compact();
+        } else {
+            // Drops a torn record at the end, if any.
+            file.setLength(validLength);
+            file.seek(validLength);
+        }
+    }
+
+    /**
+     * Reads the journal into memory and returns the length of its intact part, or 0 if the file
+     * is not a journal.
+     */
+    private long replay() throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return 0;
+            }
+            long validLength = HEADER_SIZE;
+            byte[] idBuffer = new byte[MAX_ID_LENGTH];
+            int[] labs = new int[MAX_SWATCHES];
+            char[] shares = new char[MAX_SWATCHES];
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return validLength;
+                }
+                try {
+                    int length = in.readUnsignedByte();
+                    in.readFully(idBuffer, 0, length);
+                    String id = new String(idBuffer, 0, length, StandardCharsets.UTF_8);
+                    if (op == OP_ADD) {
+                        int count = in.readUnsignedByte();
+                        if (count > MAX_SWATCHES) {
+                            return validLength;
+                        }
+                        for (int i = 0; i < count; i++) {
+                            labs[i] = in.readInt();
+                            shares[i] = in.readChar();
+                        }
+                        if (unlink(id)) {
+                            deadRecords++;
+                        }
+                        link(id, labs, shares, count);
+                        validLength += 3 + length + 6 * count;
+                    } else if (op == OP_REMOVE) {
+                        unlink(id);
+                        // The removal and the addition it cancels are both dead.
+                        deadRecords += 2;
+                        validLength += 2 + length;
+                    } else {
+                        return validLength;
+                    }
+                } catch (EOFException e) {
+                    return validLength;
+                }
+            }
+        } catch (EOFException e) {
+            // Shorter than the header.
+            return 0;
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the live additions, through a temporary file so that a
+     * crash leaves either the old or the new journal.
+     */
+    private void compact() throws IOException {
+        File temp = new File(path.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            record.reset();
+            recordOut.writeInt(MAGIC);
+            recordOut.writeInt(VERSION);
+            int[] labs = new int[MAX_SWATCHES];
+            char[] shares = new char[MAX_SWATCHES];
+            for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+                int slot = entry.getValue();
+                int count = swatchCounts[slot];
+                System.arraycopy(pointLab, slot * MAX_SWATCHES, labs, 0, count);
+                System.arraycopy(pointShare, slot * MAX_SWATCHES, shares, 0, count);
+                writeAdd(entry.getKey(), labs, shares, count);
+            }
+            out.write(record.toByteArray());
+            out.getFD().sync();
+        }
+        file.close();
+        if (!temp.renameTo(path)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + path);
+        }
+        file = new RandomAccessFile(path, "rw");
+        file.seek(file.length());
+        deadRecords = 0;
+    }
+
+    /** Returns the number of images. */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /** Returns whether {@code id} is in the index. */
+    public synchronized boolean contains(String id) {
+        return slots.containsKey(id);
+    }
+
+    /** Returns the ids of all images, in no particular order. */
+    public synchronized List<String> ids() {
+        return new ArrayList<>(slots.keySet());
+    }
+
+    /**
+     * Returns the {@link PaletteTraits} of each of {@code ids}, or null for those not in the
+     * index. They are computed as palettes are added, so this only looks them up.
+     */
+    public synchronized PaletteTraits[] traits(List<String> ids) {
+        PaletteTraits[] traits = new PaletteTraits[ids.size()];
+        for (int i = 0; i < traits.length; i++) {
+            Integer slot = slots.get(ids.get(i));
+            if (slot != null) {
+                traits[i] = slotTraits[slot];
+            }
+        }
+        return traits;
+    }
+
+    /**
+     * Adds the palette of {@code id}, replacing the one it had. Nothing is written if the index
+     * holds the same swatches already.
+     */
+    public synchronized void put(String id, Palette palette) throws IOException {
+        if (id.getBytes(StandardCharsets.UTF_8).length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Id too long: " + id);
+        }
+        int count = Math.min(palette.size(), MAX_SWATCHES);
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += palette.getPopulation(i);
+        }
+        int[] labs = new int[count];
+        char[] shares = new char[count];
+        for (int i = 0; i < count; i++) {
+            labs[i] = lab.get(palette.getColor(i));
+            shares[i] = (char) (total == 0 ? 0 : palette.getPopulation(i) * 0xFFFFL / total);
+        }
+        Integer existing = slots.get(id);
+        if (existing != null && sameSwatches(existing, labs, shares, count)) {
+            return;
+        }
+        record.reset();
+        writeAdd(id, labs, shares, count);
+        // One write per record, so a crash can only tear the last one.
+        file.write(record.toByteArray());
+        if (unlink(id)) {
+            deadRecords++;
+        }
+        link(id, labs, shares, count);
+    }
+
+    /**
+     * Removes {@code id}, if it is in the index, and returns whether it was.
+     */
+    public synchronized boolean remove(String id) throws IOException {
+        if (!slots.containsKey(id)) {
+            return false;
+        }
+        record.reset();
+        writeHeader(OP_REMOVE, id);
+        file.write(record.toByteArray());
+        unlink(id);
+        deadRecords += 2;
+        return true;
+    }
+
+    /**
+     * Returns up to {@code limit} images with a swatch close to {@code argb}, nearest first. The
+     * distance of an image is that of its nearest swatch.
+     */
+    public synchronized List<Match> searchColor(int argb, int limit) {
+        long[] nearest = nearest(lab.get(argb), limit);
+        List<Match> matches = new ArrayList<>(nearest.length);
+        for (long key : nearest) {
+            matches.add(new Match(slotIds[(int) key], (float) Math.sqrt(key >>> 32) / scale));
+        }
+        return matches;
+    }
+
+    /**
+     * Returns up to {@code limit} images whose palette is close to {@code palette}, nearest
+     * first. The distance is the average distance from each swatch to the nearest swatch of the
+     * other palette, weighted by share and taken both ways, like
+     * {@link Palette#distanceTo(Palette)} but in OKLab.
+     * <p>
+     * Candidates are the images with a swatch near one of the query swatches, found through the
+     * grid; only they are compared in full. An image with no swatch near any of the query's is
+     * far from it anyway, but it may be missed when fewer than {@code limit} images qualify.
+     */
+    public synchronized List<Match> searchPalette(Palette palette, int limit) {
+        int count = Math.min(palette.size(), MAX_SWATCHES);
+        if (count == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += palette.getPopulation(i);
+        }
+        int[] labs = new int[count];
+        float[] shares = new float[count];
+        for (int i = 0; i < count; i++) {
+            labs[i] = lab.get(palette.getColor(i));
+            shares[i] = total == 0 ? 1f / count : palette.getPopulation(i) / (float) total;
+        }
+        int[] candidates = new int[count * limit];
+        int candidateCount = 0;
+        for (int i = 0; i < count; i++) {
+            for (long key : nearest(labs[i], limit)) {
+                candidates[candidateCount++] = (int) key;
+            }
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+        List<Match> matches = new ArrayList<>();
+        for (int i = 0; i < candidateCount; i++) {
+            int slot = candidates[i];
+            if (i > 0 && slot == candidates[i - 1]) {
+                continue;
+            }
+            float distance = (directedDistance(labs, shares, count, slot)
+                    + directedDistance(slot, labs, count)) / 2;
+            matches.add(new Match(slotIds[slot], distance / scale));
+        }
+        return top(matches, limit);
+    }
+
+    /**
+     * Writes outstanding changes to storage.
+     */
+    public synchronized void flush() throws IOException {
+        file.getFD().sync();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /* grid */
+
+    /**
+     * Returns the {@code limit} images with the swatches nearest to {@code query}, or all images
+     * if there are fewer, nearest first. Each is a key holding the squared distance in
+     * fixed-point steps in its upper half and the slot in its lower half.
+     */
+    private long[] nearest(int query, int limit) {
+        int cl = LabCache.lightness(query) >> CELL_SHIFT;
+        int ca = (LabCache.a(query) + AB_OFFSET) >> CELL_SHIFT;
+        int cb = (LabCache.b(query) + AB_OFFSET) >> CELL_SHIFT;
+        int maxRing = Math.max(L_CELLS, AB_CELLS);
+        reachedCount = 0;
+        for (int ring = 0; ring < maxRing && limit > 0; ring++) {
+            visitRing(query, cl, ca, cb, ring);
+            // Cells beyond this ring are at least this far from anything in the query's cell.
+            long reach = (long) ring * CELL_SIZE;
+            int within = 0;
+            for (int i = 0; i < reachedCount && within < limit; i++) {
+                if (best[reached[i]] <= reach * reach) {
+                    within++;
+                }
+            }
+            if (within >= limit) {
+                break;
+            }
+        }
+        // Pack distance and slot so that a primitive sort ranks them.
+        long[] keys = new long[reachedCount];
+        for (int i = 0; i < reachedCount; i++) {
+            int slot = reached[i];
+            keys[i] = (long) best[slot] << 32 | slot;
+            best[slot] = Integer.MAX_VALUE;
+        }
+        Arrays.sort(keys);
+        return keys.length > limit ? Arrays.copyOf(keys, Math.max(0, limit)) : keys;
+    }
+
+    /** Visits the cells at Chebyshev distance {@code ring} from cell (cl, ca, cb). */
+    private void visitRing(int query, int cl, int ca, int cb, int ring) {
+        for (int l = cl - ring; l <= cl + ring; l++) {
+            if (l < 0 || l >= L_CELLS) {
+                continue;
+            }
+            for (int a = ca - ring; a <= ca + ring; a++) {
+                if (a < 0 || a >= AB_CELLS) {
+                    continue;
+                }
+                // Inside the shell only its two faces along b belong to the ring.
+                boolean shell = Math.abs(l - cl) == ring || Math.abs(a - ca) == ring;
+                int step = shell ? 1 : Math.max(1, 2 * ring);
+                for (int b = cb - ring; b <= cb + ring; b += step) {
+                    if (b >= 0 && b < AB_CELLS) {
+                        visitCell(query, cellOf(l, a, b));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lowers the distances of the images with a swatch in {@code cell}, and lists the images
+     * reached for the first time in {@link #reached}.
+     */
+    private void visitCell(int query, int cell) {
+        for (int point = cellHeads[cell]; point != NONE; point = pointNext[point]) {
+            int slot = point / MAX_SWATCHES;
+            int distance = LabCache.distanceSquared(query, pointLab[point]);
+            if (best[slot] == Integer.MAX_VALUE) {
+                reached[reachedCount++] = slot;
+            }
+            if (distance < best[slot]) {
+                best[slot] = distance;
+            }
+        }
+    }
+
+    private static int cellOf(int l, int a, int b) {
+        return (l * AB_CELLS + a) * AB_CELLS + b;
+    }
+
+    private static int cellOf(int packed) {
+        return cellOf(LabCache.lightness(packed) >> CELL_SHIFT,
+                (LabCache.a(packed) + AB_OFFSET) >> CELL_SHIFT,
+                (LabCache.b(packed) + AB_OFFSET) >> CELL_SHIFT);
+    }
+
+    /** Weighted average distance from the query swatches to the nearest swatch of a slot. */
+    private float directedDistance(int[] labs, float[] shares, int count, int slot) {
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += shares[i] * (float) Math.sqrt(nearestDistance(labs[i], slot));
+        }
+        return sum;
+    }
+
+    /** Weighted average distance from the swatches of a slot to the nearest query swatch. */
+    private float directedDistance(int slot, int[] labs, int count) {
+        int first = slot * MAX_SWATCHES;
+        long total = 0;
+        float sum = 0;
+        for (int point = first; point < first + swatchCounts[slot]; point++) {
+            int nearest = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                nearest = Math.min(nearest, LabCache.distanceSquared(pointLab[point], labs[i]));
+            }
+            sum += pointShare[point] * (float) Math.sqrt(nearest);
+            total += pointShare[point];
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    private int nearestDistance(int query, int slot) {
+        int first = slot * MAX_SWATCHES;
+        int nearest = Integer.MAX_VALUE;
+        for (int point = first; point < first + swatchCounts[slot]; point++) {
+            nearest = Math.min(nearest, LabCache.distanceSquared(query, pointLab[point]));
+        }
+        return nearest;
+    }
+
+    private static List<Match> top(List<Match> matches, int limit) {
+        Collections.sort(matches, BY_DISTANCE);
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /* slots and points */
+
+    private boolean sameSwatches(int slot, int[] labs, char[] shares, int count) {
+        if (swatchCounts[slot] != count) {
+            return false;
+        }
+        int first = slot * MAX_SWATCHES;
+        for (int i = 0; i < count; i++) {
+            if (pointLab[first + i] != labs[i] || pointShare[first + i] != shares[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Stores the swatches of {@code id} in a free slot and links them into their cells. */
+    private void link(String id, int[] labs, char[] shares, int count) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount == slotIds.length) {
+                grow(Math.max(INITIAL_CAPACITY, slotCount * 2));
+            }
+            slot = slotCount++;
+        }
+        slotIds[slot] = id;
+        swatchCounts[slot] = count;
+        slots.put(id, slot);
+        for (int i = 0; i < count; i++) {
+            int point = slot * MAX_SWATCHES + i;
+            int cell = cellOf(labs[i]);
+            pointLab[point] = labs[i];
+            pointShare[point] = shares[i];
+            pointPrev[point] = NONE;
+            pointNext[point] = cellHeads[cell];
+            if (cellHeads[cell] != NONE) {
+                pointPrev[cellHeads[cell]] = point;
+            }
+            cellHeads[cell] = point;
+        }
+        slotTraits[slot] = PaletteTraits.of(pointLab, pointShare, slot * MAX_SWATCHES, count);
+    }
+
+    /** Unlinks the swatches of {@code id} and frees its slot; returns whether it had one. */
+    private boolean unlink(String id) {
+        Integer slot = slots.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        int first = slot * MAX_SWATCHES;
+        for (int point = first; point < first + swatchCounts[slot]; point++) {
+            int next = pointNext[point];
+            int prev = pointPrev[point];
+            if (prev != NONE) {
+                pointNext[prev] = next;
+            } else {
+                cellHeads[cellOf(pointLab[point])] = next;
+            }
+            if (next != NONE) {
+                pointPrev[next] = prev;
+            }
+        }
+        slotIds[slot] = null;
+        swatchCounts[slot] = 0;
+        slotTraits[slot] = null;
+        freeSlots[freeCount++] = slot;
+        return true;
+    }
+
+    private void grow(int capacity) {
+        slotIds = Arrays.copyOf(slotIds, capacity);
+        swatchCounts = Arrays.copyOf(swatchCounts, capacity);
+        slotTraits = Arrays.copyOf(slotTraits, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+        pointLab = Arrays.copyOf(pointLab, capacity * MAX_SWATCHES);
+        pointShare = Arrays.copyOf(pointShare, capacity * MAX_SWATCHES);
+        pointNext = Arrays.copyOf(pointNext, capacity * MAX_SWATCHES);
+        pointPrev = Arrays.copyOf(pointPrev, capacity * MAX_SWATCHES);
+        int previous = best.length;
+        best = Arrays.copyOf(best, capacity);
+        Arrays.fill(best, previous, capacity, Integer.MAX_VALUE);
+        reached = new int[capacity];
+    }
+
+    /* journal */
+
+    private void writeAdd(String id, int[] labs, char[] shares, int count) throws IOException {
+        writeHeader(OP_ADD, id);
+        recordOut.writeByte(count);
+        for (int i = 0; i < count; i++) {
+            recordOut.writeInt(labs[i]);
+            recordOut.writeChar(shares[i]);
+        }
+    }
+
+    private void writeHeader(byte op, String id) throws IOException {
+        byte[] encoded = id.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Id too long: " + id);
+        }
+        recordOut.writeByte(op);
+        recordOut.writeByte(encoded.length);
+        recordOut.write(encoded);
+    }
+}
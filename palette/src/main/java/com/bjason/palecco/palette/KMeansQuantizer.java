@@ -0,0 +1,170 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Weighted k-means quantizer.
+ * <p>
+ * Clusters the non-empty histogram buckets, each weighted by its population, in RGB space or,
+ * given a {@link LabCache}, in that Lab space. Lab coordinates come from the cache, so perceptual
+ * clustering costs little more than RGB. The centroids are seeded with a
+ * {@link MedianCutQuantizer} result unless the caller supplies seeds, for example the palette of a
+ * previous, similar image.
+ */
+public final class KMeansQuantizer implements Quantizer {
+
+    /** Default upper bound on Lloyd iterations. */
+    public static final int DEFAULT_MAX_ITERATIONS = 8;
+
+    /**
+     * Iteration stops once no centroid moves by more than this squared distance, in RGB steps or
+     * in the fixed-point steps of the {@link LabCache}.
+     */
+    private static final double CONVERGENCE_DISTANCE = 1.0;
+
+    private final int maxIterations;
+    private final LabCache lab;
+    private final MedianCutQuantizer seeder = new MedianCutQuantizer();
+    private final int[] buckets = new int[ColorHistogram.SIZE];
+    /** Bucket colors as packed RGB, or packed Lab when clustering perceptually. */
+    private final int[] bucketColors = new int[ColorHistogram.SIZE];
+    private final int[] weights = new int[ColorHistogram.SIZE];
+
+    public KMeansQuantizer() {
+        this(DEFAULT_MAX_ITERATIONS);
+    }
+
+    public KMeansQuantizer(int maxIterations) {
+        this(maxIterations, null);
+    }
+
+    /**
+     * @param lab the Lab space to cluster in, or null for RGB
+     */
+    public KMeansQuantizer(int maxIterations, LabCache lab) {
+        if (maxIterations < 1) {
+            throw new IllegalArgumentException("maxIterations must be positive: " + maxIterations);
+        }
+        this.maxIterations = maxIterations;
+        this.lab = lab;
+    }
+
+    @Override
+    public Palette quantize(ColorHistogram histogram, int maxColors) {
+        Palette seed = seeder.quantize(histogram, maxColors);
+        return quantize(histogram, seed.getColors(), seed.size());
+    }
+
+    /**
+     * Runs k-means starting from the first {@code k} colors of {@code seeds}.
+     */
+    public Palette quantize(ColorHistogram histogram, int[] seeds, int k) {
+        int distinct = histogram.copyNonEmptyIndices(buckets);
+        for (int i = 0; i < distinct; i++) {
+            int index = buckets[i];
+            bucketColors[i] = lab == null ? ColorHistogram.toArgb(index) : lab.getBucket(index);
+            weights[i] = histogram.count(index);
+        }
+        if (k == 0 || distinct == 0) {
+            return new Palette(new int[0], new int[0], 0);
+        }
+
+        double[] x = new double[k];
+        double[] y = new double[k];
+        double[] z = new double[k];
+        // Centroid coordinates: red, green and blue, or L, a and b.
+        for (int c = 0; c < k; c++) {
+            int seed = lab == null ? seeds[c] : lab.get(seeds[c]);
+            x[c] = first(seed);
+            y[c] = second(seed);
+            z[c] = third(seed);
+        }
+
+        double[] xSum = new double[k];
+        double[] ySum = new double[k];
+        double[] zSum = new double[k];
+        int[] populations = new int[k];
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            assign(distinct, x, y, z, xSum, ySum, zSum, populations);
+            double maxShift = 0;
+            for (int c = 0; c < k; c++) {
+                if (populations[c] == 0) {
+                    continue;
+                }
+                double nx = xSum[c] / populations[c];
+                double ny = ySum[c] / populations[c];
+                double nz = zSum[c] / populations[c];
+                double shift = (nx - x[c]) * (nx - x[c])
+                        + (ny - y[c]) * (ny - y[c])
+                        + (nz - z[c]) * (nz - z[c]);
+                maxShift = Math.max(maxShift, shift);
+                x[c] = nx;
+                y[c] = ny;
+                z[c] = nz;
+            }
+            if (maxShift <= CONVERGENCE_DISTANCE) {
+                break;
+            }
+        }
+        // Final populations must match the final centroids.
+        assign(distinct, x, y, z, xSum, ySum, zSum, populations);
+
+        int[] colors = new int[k];
+        int n = 0;
+        for (int c = 0; c < k; c++) {
+            if (populations[c] == 0) {
+                continue;
+            }
+            colors[n] = lab != null ? lab.toArgb(x[c], y[c], z[c])
+                    : 0xFF000000
+                    | (int) Math.round(x[c]) << 16
+                    | (int) Math.round(y[c]) << 8
+                    | (int) Math.round(z[c]);
+            populations[n] = populations[c];
+            n++;
+        }
+        return new Palette(colors, populations, n);
+    }
+
+    private void assign(int distinct, double[] x, double[] y, double[] z,
+                        double[] xSum, double[] ySum, double[] zSum, int[] populations) {
+        int k = x.length;
+        for (int c = 0; c < k; c++) {
+            xSum[c] = ySum[c] = zSum[c] = 0;
+            populations[c] = 0;
+        }
+        for (int i = 0; i < distinct; i++) {
+            int color = bucketColors[i];
+            int cx = first(color);
+            int cy = second(color);
+            int cz = third(color);
+            int nearest = 0;
+            double nearestDistance = Double.MAX_VALUE;
+            for (int c = 0; c < k; c++) {
+                double dx = cx - x[c];
+                double dy = cy - y[c];
+                double dz = cz - z[c];
+                double distance = dx * dx + dy * dy + dz * dz;
+                if (distance < nearestDistance) {
+                    nearestDistance = distance;
+                    nearest = c;
+                }
+            }
+            int weight = weights[i];
+            xSum[nearest] += (double) weight * cx;
+            ySum[nearest] += (double) weight * cy;
+            zSum[nearest] += (double) weight * cz;
+            populations[nearest] += weight;
+        }
+    }
+
+    private int first(int color) {
+        return lab == null ? (color >> 16) & 0xFF : LabCache.lightness(color);
+    }
+
+    private int second(int color) {
+        return lab == null ? (color >> 8) & 0xFF : LabCache.a(color);
+    }
+
+    private int third(int color) {
+        return lab == null ? color & 0xFF : LabCache.b(color);
+    }
+}
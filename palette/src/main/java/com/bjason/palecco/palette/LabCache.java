@@ -0,0 +1,163 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Lab values of every RGB color quantized to 5 bits of red, 6 of green and 5 of blue.
+ * <p>
+ * The 65536 entries are converted once, on first use of each space, after which a perceptual
+ * lookup costs about as much as unpacking an RGB int. Entries are packed into an int as 10 bits
+ * of lightness and 11 bits each of a and b, all in the same fixed-point unit of
+ * {@link #getScale()} steps per Lab unit. Squared distances between packed values are therefore
+ * proportional to squared Lab distances and can be computed in integer arithmetic with
+ * {@link #distanceSquared(int, int)}.
+ */
+public final class LabCache {
+
+    public enum Space {
+        /** {@link Oklab}, at 1023 steps per unit. */
+        OKLAB(1023f),
+        /** {@link Cielab}, at 8 steps per unit. */
+        CIELAB(8f);
+
+        private final float scale;
+
+        Space(float scale) {
+            this.scale = scale;
+        }
+
+        void fromArgb(int argb, float[] out) {
+            if (this == OKLAB) {
+                Oklab.fromArgb(argb, out);
+            } else {
+                Cielab.fromArgb(argb, out);
+            }
+        }
+
+        int toArgb(float lightness, float a, float b) {
+            return this == OKLAB ? Oklab.toArgb(lightness, a, b) : Cielab.toArgb(lightness, a, b);
+        }
+    }
+
+    public static final int SIZE = 1 << 16;
+
+    private static final int L_MAX = (1 << 10) - 1;
+    private static final int AB_OFFSET = 1 << 10;
+    private static final int AB_MAX = (1 << 11) - 1;
+
+    private final Space space;
+    private final int[] table = new int[SIZE];
+
+    private LabCache(Space space) {
+        this.space = space;
+        float[] lab = new float[3];
+        for (int i = 0; i < SIZE; i++) {
+            space.fromArgb(argbOf(i), lab);
+            table[i] = pack(lab[0] * space.scale, lab[1] * space.scale, lab[2] * space.scale);
+        }
+    }
+
+    private static final class OklabHolder {
+        static final LabCache INSTANCE = new LabCache(Space.OKLAB);
+    }
+
+    private static final class CielabHolder {
+        static final LabCache INSTANCE = new LabCache(Space.CIELAB);
+    }
+
+    /** Returns the OKLab cache, building it on first use. */
+    public static LabCache oklab() {
+        return OklabHolder.INSTANCE;
+    }
+
+    /** Returns the CIELAB cache, building it on first use. */
+    public static LabCache cielab() {
+        return CielabHolder.INSTANCE;
+    }
+
+    public Space getSpace() {
+        return space;
+    }
+
+    /** Fixed-point steps per Lab unit of the packed values. */
+    public float getScale() {
+        return space.scale;
+    }
+
+    /**
+     * Returns the packed Lab value of an ARGB color, quantized to 5-6-5 bits; alpha is ignored.
+     */
+    public int get(int argb) {
+        return table[((argb >> 8) & 0xF800) | ((argb >> 5) & 0x07E0) | ((argb >> 3) & 0x001F)];
+    }
+
+    /**
+     * Returns the packed Lab value of the center of a {@link ColorHistogram} bucket.
+     */
+    public int getBucket(int index) {
+        int green = ColorHistogram.green(index);
+        return table[ColorHistogram.red(index) << 11
+                | (green << 1 | green >> 4) << 5
+                | ColorHistogram.blue(index)];
+    }
+
+    /**
+     * Returns the opaque ARGB color of a Lab color given in fixed-point steps, clamping channels
+     * outside the sRGB gamut.
+     */
+    public int toArgb(double lightness, double a, double b) {
+        return space.toArgb((float) (lightness / space.scale), (float) (a / space.scale),
+                (float) (b / space.scale));
+    }
+
+    /**
+     * Returns the opaque ARGB color of a packed Lab value.
+     */
+    public int toArgb(int packed) {
+        return toArgb(lightness(packed), a(packed), b(packed));
+    }
+
+    /**
+     * Packs a Lab color given in fixed-point steps, clamping each component to its field.
+     */
+    public static int pack(float lightness, float a, float b) {
+        int l = Math.max(0, Math.min(L_MAX, Math.round(lightness)));
+        int pa = Math.max(0, Math.min(AB_MAX, Math.round(a) + AB_OFFSET));
+        int pb = Math.max(0, Math.min(AB_MAX, Math.round(b) + AB_OFFSET));
+        return l << 22 | pa << 11 | pb;
+    }
+
+    /** Returns the lightness of a packed value, in fixed-point steps. */
+    public static int lightness(int packed) {
+        return packed >>> 22;
+    }
+
+    /** Returns the green-red component of a packed value, in fixed-point steps. */
+    public static int a(int packed) {
+        return ((packed >> 11) & AB_MAX) - AB_OFFSET;
+    }
+
+    /** Returns the blue-yellow component of a packed value, in fixed-point steps. */
+    public static int b(int packed) {
+        return (packed & AB_MAX) - AB_OFFSET;
+    }
+
+    /**
+     * Returns the squared distance between two packed values, in squared fixed-point steps.
+     */
+    public static int distanceSquared(int packed1, int packed2) {
+        int dl = lightness(packed1) - lightness(packed2);
+        int da = a(packed1) - a(packed2);
+        int db = b(packed1) - b(packed2);
+        return dl * dl + da * da + db * db;
+    }
+
+    /** Returns the opaque ARGB color at the center of a 5-6-5 cell. */
+    private static int argbOf(int index) {
+        int r = index >> 11;
+        int g = (index >> 5) & 0x3F;
+        int b = index & 0x1F;
+        return 0xFF000000
+                | (r << 3 | r >> 2) << 16
+                | (g << 2 | g >> 4) << 8
+                | (b << 3 | b >> 2);
+    }
+}
@@ -0,0 +1,247 @@
+package com.bjason.palecco.palette;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent list of the images in a library, in the order in which they were added.
+ * <p>
+ * Every image is known by a stable id, such as its file name, and gets a sequence number that
+ * grows with every addition, so the order does not depend on how files are named or listed. The
+ * file is a journal: additions and removals are appended as they happen, so both cost the same
+ * however large the library is. When the index is opened, a record cut short by a crash is
+ * dropped, and if more records are dead than live the journal is rewritten without them.
+ * <p>
+ * The dimensions and palettes of the images are kept apart, in a {@link PaletteIndex} under the
+ * same ids. All methods are thread-safe.
+ */
+public final class LibraryIndex implements Closeable {
+
+    /** Longest id, in bytes. */
+    public static final int MAX_ID_LENGTH = 255;
+
+    private static final int MAGIC = 0x504C4C49; // "PLLI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    /** Dead records tolerated before a rewrite is worth it. */
+    private static final int MIN_DEAD_TO_COMPACT = 64;
+
+    private final File path;
+    /** Live ids by sequence number, in sequence order. */
+    private final Map<String, Long> sequences = new LinkedHashMap<>();
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(MAX_ID_LENGTH + 16);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private RandomAccessFile file;
+    private long nextSequence;
+    private int deadRecords;
+
+    private LibraryIndex(File path) {
+        this.path = path;
+    }
+
+    /**
+     * Opens the index at {@code path}, creating it if needed. An unreadable or incompatible file
+     * is discarded and replaced by an empty index.
+     */
+    public static LibraryIndex open(File path) throws IOException {
+        LibraryIndex index = new LibraryIndex(path);
+        try {
+            index.load();
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        long validLength = path.exists() ? replay() : 0;
+        file = new RandomAccessFile(path, "rw");
+        if (validLength < HEADER_SIZE) {
+            // New or incompatible: start over.
+            sequences.clear();
+            deadRecords = 0;
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+        } else if (deadRecords >= MIN_DEAD_TO_COMPACT && deadRecords > sequences.size()) {
+            compact();
+        } else {
+            // Drops a torn record at the end, if any.
+            file.setLength(validLength);
+            file.seek(validLength);
+        }
+    }
+
+    /**
+     * Reads the journal into {@link #sequences} and returns the length of its intact part, or 0
+     * if the file is not a journal.
+     */
+    private long replay() throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return 0;
+            }
+            long validLength = HEADER_SIZE;
+            byte[] idBuffer = new byte[MAX_ID_LENGTH];
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return validLength;
+                }
+                try {
+                    int length = in.readUnsignedByte();
+                    in.readFully(idBuffer, 0, length);
+                    String id = new String(idBuffer, 0, length, StandardCharsets.UTF_8);
+                    if (op == OP_ADD) {
+                        long sequence = in.readLong();
+                        sequences.put(id, sequence);
+                        nextSequence = Math.max(nextSequence, sequence + 1);
+                        validLength += 2 + length + 8;
+                    } else if (op == OP_REMOVE) {
+                        sequences.remove(id);
+                        // The removal and the addition it cancels are both dead.
+                        deadRecords += 2;
+                        validLength += 2 + length;
+                    } else {
+                        return validLength;
+                    }
+                } catch (EOFException e) {
+                    return validLength;
+                }
+            }
+        } catch (EOFException e) {
+            // Shorter than the header.
+            return 0;
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the live additions, through a temporary file so that a
+     * crash leaves either the old or the new journal.
+     */
+    private void compact() throws IOException {
+        File temp = new File(path.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            record.reset();
+            recordOut.writeInt(MAGIC);
+            recordOut.writeInt(VERSION);
+            for (Map.Entry<String, Long> entry : sequences.entrySet()) {
+                writeRecord(OP_ADD, entry.getKey(), entry.getValue());
+            }
+            out.write(record.toByteArray());
+            out.getFD().sync();
+        }
+        file.close();
+        if (!temp.renameTo(path)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + path);
+        }
+        file = new RandomAccessFile(path, "rw");
+        file.seek(file.length());
+        deadRecords = 0;
+    }
+
+    /** Returns the number of images. */
+    public synchronized int size() {
+        return sequences.size();
+    }
+
+    /** Returns the ids of all images, in the order in which they were added. */
+    public synchronized List<String> ids() {
+        return new ArrayList<>(sequences.keySet());
+    }
+
+    /**
+     * Returns the sequence number of {@code id}, or -1 if it is not in the index. Sequence
+     * numbers grow in the order of addition.
+     */
+    public synchronized long sequenceOf(String id) {
+        Long sequence = sequences.get(id);
+        return sequence != null ? sequence : -1;
+    }
+
+    /**
+     * Adds {@code id} after every other image and returns its sequence number. An id already in
+     * the index keeps its place.
+     */
+    public synchronized long add(String id) throws IOException {
+        Long existing = sequences.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        long sequence = nextSequence;
+        append(OP_ADD, id, sequence);
+        sequences.put(id, sequence);
+        nextSequence++;
+        return sequence;
+    }
+
+    /**
+     * Removes {@code id}, if it is in the index, and returns whether it was.
+     */
+    public synchronized boolean remove(String id) throws IOException {
+        if (!sequences.containsKey(id)) {
+            return false;
+        }
+        append(OP_REMOVE, id, 0);
+        sequences.remove(id);
+        deadRecords += 2;
+        return true;
+    }
+
+    /**
+     * Writes outstanding changes to storage.
+     */
+    public synchronized void flush() throws IOException {
+        file.getFD().sync();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    private void append(byte op, String id, long sequence) throws IOException {
+        record.reset();
+        writeRecord(op, id, sequence);
+        // One write per record, so a crash can only tear the last one.
+        file.write(record.toByteArray());
+    }
+
+    private void writeRecord(byte op, String id, long sequence) throws IOException {
+        byte[] encoded = id.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Id too long: " + id);
+        }
+        recordOut.writeByte(op);
+        recordOut.writeByte(encoded.length);
+        recordOut.write(encoded);
+        if (op == OP_ADD) {
+            recordOut.writeLong(sequence);
+        }
+    }
+}
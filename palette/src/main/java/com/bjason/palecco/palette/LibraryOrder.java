@@ -0,0 +1,184 @@
+package com.bjason.palecco.palette;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The images of a library sorted by a {@link Mode} and split into sections of one
+ * {@link Group} each.
+ * <p>
+ * Each image is reduced to a long: its group, its rank within the group and its position in
+ * the input, from the most significant bits down. One primitive sort of those keys orders the
+ * library, so switching modes costs O(n log n) on the {@link PaletteTraits} alone. Images that
+ * rank equally keep their input order.
+ */
+public final class LibraryOrder {
+
+    public enum Mode {
+        /** The input order, in a single section without a header. */
+        ADDED,
+        /** Rainbow order of the dominant hue, gray palettes last. */
+        HUE,
+        /** Dark to light. */
+        LIGHTNESS,
+        /** Vivid, pastel, muted, deep and gray palettes, each in rainbow order. */
+        MOOD
+    }
+
+    /**
+     * The section an image falls in. Sections appear in the order of the constants. Their titles
+     * are left to the UI.
+     */
+    public enum Group {
+        ALL,
+        RED,
+        ORANGE,
+        YELLOW,
+        GREEN,
+        CYAN,
+        BLUE,
+        PURPLE,
+        PINK,
+        DARK,
+        MEDIUM,
+        LIGHT,
+        VIVID,
+        PASTEL,
+        MUTED,
+        DEEP,
+        NEUTRAL,
+        /** Images whose palette is not known yet. */
+        UNSORTED
+    }
+
+    private static final Group[] GROUPS = Group.values();
+    /** {@link Oklab} hues in degrees where the hue groups from {@link Group#RED} on begin. */
+    private static final float[] HUE_STARTS = {15, 42, 80, 125, 175, 225, 280, 315};
+    private static final float DARK_BELOW = 0.45f;
+    private static final float LIGHT_FROM = 0.7f;
+    private static final float VIVID_CHROMA = 0.1f;
+    private static final float PASTEL_LIGHTNESS = 0.75f;
+    /** Resolution of ranks; a rank must fit in {@link #RANK_BITS}. */
+    private static final int RANK_STEPS = 1 << 20;
+    private static final int RANK_BITS = 24;
+
+    private final List<String> ids;
+    private final Group[] groups;
+    private final int[] starts;
+
+    private LibraryOrder(List<String> ids, Group[] groups, int[] starts) {
+        this.ids = ids;
+        this.groups = groups;
+        this.starts = starts;
+    }
+
+    /**
+     * Sorts {@code ids} by {@code mode}. {@code traits[i]} describes {@code ids.get(i)} and is
+     * null if its palette is not known; it is not read for {@link Mode#ADDED}.
+     */
+    public static LibraryOrder sort(List<String> ids, PaletteTraits[] traits, Mode mode) {
+        if (mode == Mode.ADDED) {
+            return new LibraryOrder(Collections.unmodifiableList(new ArrayList<>(ids)),
+                    new Group[0], new int[0]);
+        }
+        if (traits.length != ids.size()) {
+            throw new IllegalArgumentException(
+                    traits.length + " traits for " + ids.size() + " images");
+        }
+        long[] keys = new long[ids.size()];
+        for (int i = 0; i < keys.length; i++) {
+            PaletteTraits t = traits[i];
+            Group group = t == null ? Group.UNSORTED : groupOf(t, mode);
+            long rank = t == null ? 0 : rankOf(t, group);
+            keys[i] = (long) group.ordinal() << (32 + RANK_BITS) | rank << 32 | i;
+        }
+        Arrays.sort(keys);
+
+        List<String> sorted = new ArrayList<>(keys.length);
+        List<Group> groups = new ArrayList<>();
+        int[] starts = new int[GROUPS.length];
+        int previous = -1;
+        for (long key : keys) {
+            int group = (int) (key >>> (32 + RANK_BITS));
+            if (group != previous) {
+                starts[groups.size()] = sorted.size();
+                groups.add(GROUPS[group]);
+                previous = group;
+            }
+            sorted.add(ids.get((int) key));
+        }
+        return new LibraryOrder(Collections.unmodifiableList(sorted),
+                groups.toArray(new Group[0]), Arrays.copyOf(starts, groups.size()));
+    }
+
+    private static Group groupOf(PaletteTraits traits, Mode mode) {
+        switch (mode) {
+            case HUE:
+                return traits.isNeutral() ? Group.NEUTRAL : hueGroupOf(traits.getHue());
+            case LIGHTNESS:
+                return traits.getLightness() < DARK_BELOW ? Group.DARK
+                        : traits.getLightness() < LIGHT_FROM ? Group.MEDIUM : Group.LIGHT;
+            case MOOD:
+                if (traits.isNeutral()) {
+                    return Group.NEUTRAL;
+                } else if (traits.getLightness() < DARK_BELOW) {
+                    return Group.DEEP;
+                } else if (traits.getChroma() >= VIVID_CHROMA) {
+                    return Group.VIVID;
+                } else if (traits.getLightness() >= PASTEL_LIGHTNESS) {
+                    return Group.PASTEL;
+                }
+                return Group.MUTED;
+            default:
+                return Group.ALL;
+        }
+    }
+
+    private static Group hueGroupOf(float hue) {
+        // Below the first start, the hue wraps around into the last group.
+        int group = HUE_STARTS.length - 1;
+        for (int i = 0; i < HUE_STARTS.length && hue >= HUE_STARTS[i]; i++) {
+            group = i;
+        }
+        return GROUPS[Group.RED.ordinal() + group];
+    }
+
+    /** Returns the position within {@code group}, in [0, {@link #RANK_STEPS}]. */
+    private static long rankOf(PaletteTraits traits, Group group) {
+        if (group == Group.NEUTRAL) {
+            // White to black.
+            return scaled(1 - traits.getLightness());
+        }
+        if (group == Group.DARK || group == Group.MEDIUM || group == Group.LIGHT) {
+            return scaled(traits.getLightness());
+        }
+        // Around the wheel from where red begins, so that the groups follow each other.
+        float angle = traits.getHue() - HUE_STARTS[0];
+        return scaled((angle < 0 ? angle + 360 : angle) / 360);
+    }
+
+    private static long scaled(float fraction) {
+        return Math.round(Math.max(0, Math.min(1, fraction)) * RANK_STEPS);
+    }
+
+    /** Returns the sorted ids. */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /** Returns the number of non-empty sections, 0 for {@link Mode#ADDED}. */
+    public int getSectionCount() {
+        return groups.length;
+    }
+
+    public Group getSection(int section) {
+        return groups[section];
+    }
+
+    /** Returns the position in {@link #getIds()} of the first image of {@code section}. */
+    public int getSectionStart(int section) {
+        return starts[section];
+    }
+}
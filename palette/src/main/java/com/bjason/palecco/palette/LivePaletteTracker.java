@@ -0,0 +1,66 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Extracts the palette of every frame of a live video stream, such as the camera preview.
+ * <p>
+ * Each frame is read straight from its YUV planes into a reused histogram, at most
+ * {@code maxSamples} pixels of it, so no RGB copy of the frame is made. Consecutive frames are
+ * alike, so k-means starts from the previous frame's palette and usually converges after an
+ * iteration or two. It is seeded with median cut again for the first frame, after
+ * {@link #reset()}, and whenever the warm start leaves a centroid without pixels, which happens
+ * when the scene changes.
+ * <p>
+ * A tracker is not thread-safe. Frames that arrive while one is being processed should be
+ * dropped by the caller rather than queued, so the palette follows the newest frame.
+ */
+public final class LivePaletteTracker {
+
+    /** Default number of pixels read per frame; about a 128x128 image. */
+    public static final int DEFAULT_MAX_SAMPLES = 16 * 1024;
+
+    private final int maxColors;
+    private final int maxSamples;
+    private final ColorHistogram histogram = new ColorHistogram();
+    private final KMeansQuantizer quantizer = new KMeansQuantizer();
+    private Palette previous;
+
+    public LivePaletteTracker() {
+        this(PaletteExtractor.DEFAULT_MAX_COLORS, DEFAULT_MAX_SAMPLES);
+    }
+
+    public LivePaletteTracker(int maxColors, int maxSamples) {
+        if (maxColors < 1) {
+            throw new IllegalArgumentException("maxColors must be positive: " + maxColors);
+        }
+        if (maxSamples < 1) {
+            throw new IllegalArgumentException("maxSamples must be positive: " + maxSamples);
+        }
+        this.maxColors = maxColors;
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * Returns the palette of {@code frame}.
+     */
+    public Palette update(YuvFrame frame) {
+        histogram.clear();
+        frame.addTo(histogram, frame.stepFor(maxSamples));
+        Palette palette = null;
+        if (previous != null && previous.size() == maxColors) {
+            palette = quantizer.quantize(histogram, previous.getColors(), previous.size());
+        }
+        if (palette == null || palette.size() < maxColors) {
+            // First frame, or centroids were left empty, typically by a cut to another scene.
+            palette = quantizer.quantize(histogram, maxColors);
+        }
+        previous = palette;
+        return palette;
+    }
+
+    /**
+     * Forgets the previous palette, e.g. when the camera is switched.
+     */
+    public void reset() {
+        previous = null;
+    }
+}
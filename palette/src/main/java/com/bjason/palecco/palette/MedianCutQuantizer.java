@@ -0,0 +1,212 @@
+package com.bjason.palecco.palette;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Median-cut quantizer.
+ * <p>
+ * Starts with one box containing every non-empty histogram bucket and repeatedly splits the
+ * largest box along its longest channel at the population median, until there are
+ * {@code maxColors} boxes. Each box then contributes its population-weighted average color.
+ */
+public final class MedianCutQuantizer implements Quantizer {
+
+    private static final int COMPONENT_RED = 0;
+    private static final int COMPONENT_GREEN = 1;
+    private static final int COMPONENT_BLUE = 2;
+
+    private static final Comparator<Box> VOLUME_COMPARATOR = new Comparator<Box>() {
+        @Override
+        public int compare(Box a, Box b) {
+            return b.volume() - a.volume();
+        }
+    };
+
+    private final int[] buckets = new int[ColorHistogram.SIZE];
+    private ColorHistogram histogram;
+
+    @Override
+    public Palette quantize(ColorHistogram histogram, int maxColors) {
+        this.histogram = histogram;
+        try {
+            int distinct = histogram.copyNonEmptyIndices(buckets);
+            if (distinct <= maxColors) {
+                int[] colors = new int[distinct];
+                int[] populations = new int[distinct];
+                for (int i = 0; i < distinct; i++) {
+                    colors[i] = ColorHistogram.toArgb(buckets[i]);
+                    populations[i] = histogram.count(buckets[i]);
+                }
+                return new Palette(colors, populations, distinct);
+            }
+
+            PriorityQueue<Box> queue = new PriorityQueue<>(maxColors, VOLUME_COMPARATOR);
+            queue.offer(new Box(0, distinct - 1));
+            splitBoxes(queue, maxColors);
+
+            int[] colors = new int[queue.size()];
+            int[] populations = new int[queue.size()];
+            int n = 0;
+            for (Box box : queue) {
+                colors[n] = box.averageColor();
+                populations[n] = box.population;
+                n++;
+            }
+            return new Palette(colors, populations, n);
+        } finally {
+            this.histogram = null;
+        }
+    }
+
+    private void splitBoxes(PriorityQueue<Box> queue, int maxColors) {
+        while (queue.size() < maxColors) {
+            Box box = queue.poll();
+            if (box == null || !box.canSplit()) {
+                if (box != null) {
+                    queue.offer(box);
+                }
+                return;
+            }
+            queue.offer(box.split());
+            queue.offer(box);
+        }
+    }
+
+    /**
+     * A range {@code [lower, upper]} of {@link #buckets} and its bounding box in 5-bit RGB space.
+     */
+    private final class Box {
+        private final int lower;
+        private int upper;
+        private int population;
+        private int minRed, maxRed, minGreen, maxGreen, minBlue, maxBlue;
+
+        Box(int lower, int upper) {
+            this.lower = lower;
+            this.upper = upper;
+            fitBox();
+        }
+
+        int volume() {
+            return (maxRed - minRed + 1) * (maxGreen - minGreen + 1) * (maxBlue - minBlue + 1);
+        }
+
+        boolean canSplit() {
+            return upper > lower;
+        }
+
+        /** Recomputes population and bounds from the buckets in range. */
+        void fitBox() {
+            minRed = minGreen = minBlue = Integer.MAX_VALUE;
+            maxRed = maxGreen = maxBlue = Integer.MIN_VALUE;
+            population = 0;
+            for (int i = lower; i <= upper; i++) {
+                int index = buckets[i];
+                population += histogram.count(index);
+                int r = ColorHistogram.red(index);
+                int g = ColorHistogram.green(index);
+                int b = ColorHistogram.blue(index);
+                if (r < minRed) minRed = r;
+                if (r > maxRed) maxRed = r;
+                if (g < minGreen) minGreen = g;
+                if (g > maxGreen) maxGreen = g;
+                if (b < minBlue) minBlue = b;
+                if (b > maxBlue) maxBlue = b;
+            }
+        }
+
+        /**
+         * Splits this box at the population median of its longest channel, shrinking this box to
+         * the lower half and returning the upper half.
+         */
+        Box split() {
+            int splitPoint = findSplitPoint();
+            Box upperBox = new Box(splitPoint + 1, upper);
+            upper = splitPoint;
+            fitBox();
+            return upperBox;
+        }
+
+        private int longestComponent() {
+            int redLength = maxRed - minRed;
+            int greenLength = maxGreen - minGreen;
+            int blueLength = maxBlue - minBlue;
+            if (redLength >= greenLength && redLength >= blueLength) {
+                return COMPONENT_RED;
+            } else if (greenLength >= redLength && greenLength >= blueLength) {
+                return COMPONENT_GREEN;
+            }
+            return COMPONENT_BLUE;
+        }
+
+        private int findSplitPoint() {
+            int component = longestComponent();
+
+            // Make the split component the most significant bits so that a plain int sort orders
+            // the range along it, then restore the original layout.
+            swapSignificantComponent(component, lower, upper);
+            Arrays.sort(buckets, lower, upper + 1);
+            swapSignificantComponent(component, lower, upper);
+
+            int midPoint = population / 2;
+            int count = 0;
+            for (int i = lower; i < upper; i++) {
+                count += histogram.count(buckets[i]);
+                if (count >= midPoint) {
+                    return i;
+                }
+            }
+            return lower;
+        }
+
+        int averageColor() {
+            long redSum = 0, greenSum = 0, blueSum = 0;
+            long total = 0;
+            for (int i = lower; i <= upper; i++) {
+                int index = buckets[i];
+                int count = histogram.count(index);
+                total += count;
+                redSum += (long) count * ColorHistogram.expand(ColorHistogram.red(index));
+                greenSum += (long) count * ColorHistogram.expand(ColorHistogram.green(index));
+                blueSum += (long) count * ColorHistogram.expand(ColorHistogram.blue(index));
+            }
+            if (total == 0) {
+                return 0xFF000000;
+            }
+            return 0xFF000000
+                    | (int) Math.round(redSum / (double) total) << 16
+                    | (int) Math.round(greenSum / (double) total) << 8
+                    | (int) Math.round(blueSum / (double) total);
+        }
+    }
+
+    /**
+     * Swaps the red channel bits with those of {@code component} for {@code buckets[lower, upper]}.
+     * The operation is its own inverse.
+     */
+    private void swapSignificantComponent(int component, int lower, int upper) {
+        switch (component) {
+            case COMPONENT_GREEN:
+                for (int i = lower; i <= upper; i++) {
+                    int index = buckets[i];
+                    buckets[i] = ColorHistogram.green(index) << 10
+                            | ColorHistogram.red(index) << 5
+                            | ColorHistogram.blue(index);
+                }
+                break;
+            case COMPONENT_BLUE:
+                for (int i = lower; i <= upper; i++) {
+                    int index = buckets[i];
+                    buckets[i] = ColorHistogram.blue(index) << 10
+                            | ColorHistogram.green(index) << 5
+                            | ColorHistogram.red(index);
+                }
+                break;
+            case COMPONENT_RED:
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.bjason.palecco.palette;
+
+import java.util.Arrays;
+
+/**
+ * Octree quantizer.
+ * <p>
+ * The histogram already holds 5 bits per channel, which is exactly the leaf level of a depth-5
+ * octree. The tree is therefore implicit: a node at level {@code l} is identified by interleaving
+ * the top {@code l} bits of each channel, and its parent is simply {@code node >> 3}. Level sums
+ * are kept in flat primitive arrays. Reduction folds the least populated nodes of the deepest
+ * level into their parents until no more than {@code maxColors} leaves remain.
+ */
+public final class OctreeQuantizer implements Quantizer {
+
+    private static final int DEPTH = ColorHistogram.CHANNEL_BITS;
+
+    private final long[][] counts = new long[DEPTH + 1][];
+    private final long[][] redSums = new long[DEPTH + 1][];
+    private final long[][] greenSums = new long[DEPTH + 1][];
+    private final long[][] blueSums = new long[DEPTH + 1][];
+    private final boolean[] merged = new boolean[1 << (3 * (DEPTH - 1))];
+    private final long[] order = new long[1 << (3 * (DEPTH - 1))];
+
+    public OctreeQuantizer() {
+        for (int level = 0; level <= DEPTH; level++) {
+            int nodes = 1 << (3 * level);
+            counts[level] = new long[nodes];
+            redSums[level] = new long[nodes];
+            greenSums[level] = new long[nodes];
+            blueSums[level] = new long[nodes];
+        }
+    }
+
+    @Override
+    public Palette quantize(ColorHistogram histogram, int maxColors) {
+        buildLeaves(histogram);
+        for (int level = DEPTH - 1; level >= 0; level--) {
+            aggregate(level);
+        }
+
+        int leaves = countNonEmpty(DEPTH);
+        if (leaves <= maxColors) {
+            return collect(DEPTH, false, leaves);
+        }
+
+        // Fold whole levels away until the next one up is small enough to finish partially.
+        int level = DEPTH - 1;
+        while (level > 0 && countNonEmpty(level) > maxColors) {
+            level--;
+        }
+        // Every node below 'level + 1' is gone; the leaves are now the non-empty nodes of
+        // 'level + 1', and merging a node of 'level' replaces its children by itself.
+        leaves = countNonEmpty(level + 1);
+        int candidates = 0;
+        int nodes = 1 << (3 * level);
+        for (int node = 0; node < nodes; node++) {
+            merged[node] = false;
+            long count = counts[level][node];
+            if (count != 0) {
+                order[candidates++] = (count << 24) | node;
+            }
+        }
+        Arrays.sort(order, 0, candidates);
+        for (int i = 0; i < candidates && leaves > maxColors; i++) {
+            int node = (int) (order[i] & 0xFFFFFF);
+            leaves -= childCount(level, node) - 1;
+            merged[node] = true;
+        }
+        return collect(level, true, leaves);
+    }
+
+    private void buildLeaves(ColorHistogram histogram) {
+        long[] count = counts[DEPTH];
+        long[] red = redSums[DEPTH];
+        long[] green = greenSums[DEPTH];
+        long[] blue = blueSums[DEPTH];
+        for (int index = 0; index < ColorHistogram.SIZE; index++) {
+            int population = histogram.count(index);
+            int r = ColorHistogram.red(index);
+            int g = ColorHistogram.green(index);
+            int b = ColorHistogram.blue(index);
+            int node = leafNode(r, g, b);
+            count[node] = population;
+            red[node] = (long) population * ColorHistogram.expand(r);
+            green[node] = (long) population * ColorHistogram.expand(g);
+            blue[node] = (long) population * ColorHistogram.expand(b);
+        }
+    }
+
+    private void aggregate(int level) {
+        int nodes = 1 << (3 * level);
+        long[] childCount = counts[level + 1];
+        long[] childRed = redSums[level + 1];
+        long[] childGreen = greenSums[level + 1];
+        long[] childBlue = blueSums[level + 1];
+        for (int node = 0; node < nodes; node++) {
+            long count = 0, red = 0, green = 0, blue = 0;
+            int first = node << 3;
+            for (int child = first; child < first + 8; child++) {
+                count += childCount[child];
+                red += childRed[child];
+                green += childGreen[child];
+                blue += childBlue[child];
+            }
+            counts[level][node] = count;
+            redSums[level][node] = red;
+            greenSums[level][node] = green;
+            blueSums[level][node] = blue;
+        }
+    }
+
+    private int countNonEmpty(int level) {
+        int n = 0;
+        for (long count : counts[level]) {
+            if (count != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private int childCount(int level, int node) {
+        int n = 0;
+        int first = node << 3;
+        for (int child = first; child < first + 8; child++) {
+            if (counts[level + 1][child] != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Gathers the final leaves. With {@code partial} set, merged nodes of {@code level} are
+     * leaves and the non-empty children of unmerged nodes are leaves; otherwise every non-empty
+     * node of {@code level} is a leaf.
+     */
+    private Palette collect(int level, boolean partial, int leaves) {
+        int[] colors = new int[leaves];
+        int[] populations = new int[leaves];
+        int n = 0;
+        int nodes = 1 << (3 * level);
+        for (int node = 0; node < nodes; node++) {
+            if (counts[level][node] == 0) {
+                continue;
+            }
+            if (!partial || merged[node]) {
+                colors[n] = average(level, node);
+                populations[n] = (int) counts[level][node];
+                n++;
+            } else {
+                int first = node << 3;
+                for (int child = first; child < first + 8; child++) {
+                    if (counts[level + 1][child] != 0) {
+                        colors[n] = average(level + 1, child);
+                        populations[n] = (int) counts[level + 1][child];
+                        n++;
+                    }
+                }
+            }
+        }
+        return new Palette(colors, populations, n);
+    }
+
+    private int average(int level, int node) {
+        long count = counts[level][node];
+        return 0xFF000000
+                | (int) ((redSums[level][node] + count / 2) / count) << 16
+                | (int) ((greenSums[level][node] + count / 2) / count) << 8
+                | (int) ((blueSums[level][node] + count / 2) / count);
+    }
+
+    /**
+     * Interleaves the bits of three 5-bit channels, most significant first, into a leaf node id.
+     */
+    private static int leafNode(int r, int g, int b) {
+        int node = 0;
+        for (int bit = DEPTH - 1; bit >= 0; bit--) {
+            node = (node << 3)
+                    | ((r >> bit) & 1) << 2
+                    | ((g >> bit) & 1) << 1
+                    | ((b >> bit) & 1);
+        }
+        return node;
+    }
+}
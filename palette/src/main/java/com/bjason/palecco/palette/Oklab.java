@@ -0,0 +1,76 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Conversion between sRGB and OKLab.
+ * <p>
+ * OKLab is close to perceptually uniform: Euclidean distance tracks how different two colors
+ * look far better than in RGB. L runs from 0 for black to 1 for white; a and b stay within about
+ * +-0.4 for sRGB colors. Channels are linearized through {@link Srgb}'s tables, so the only
+ * transcendental work left is three cube roots per color. To convert many colors, go through
+ * {@link LabCache#oklab()} instead.
+ */
+public final class Oklab {
+
+    private Oklab() {
+    }
+
+    /**
+     * Writes L, a and b of an ARGB color to {@code out[0..2]}; alpha is ignored.
+     */
+    public static void fromArgb(int argb, float[] out) {
+        double l = cbrtL(argb);
+        double m = cbrtM(argb);
+        double s = cbrtS(argb);
+        out[0] = (float) (0.2104542553 * l + 0.7936177850 * m - 0.0040720468 * s);
+        out[1] = (float) (1.9779984951 * l - 2.4285922050 * m + 0.4505937099 * s);
+        out[2] = (float) (0.0259040371 * l + 0.7827717662 * m - 0.8086757660 * s);
+    }
+
+    /**
+     * Returns the opaque ARGB color of an OKLab color, clamping channels outside the sRGB gamut.
+     */
+    public static int toArgb(float lightness, float a, float b) {
+        double l = lightness + 0.3963377774 * a + 0.2158037573 * b;
+        double m = lightness - 0.1055613458 * a - 0.0638541728 * b;
+        double s = lightness - 0.0894841775 * a - 1.2914855480 * b;
+        l = l * l * l;
+        m = m * m * m;
+        s = s * s * s;
+        int red = Srgb.fromLinear(
+                (float) (4.0767416621 * l - 3.3077115913 * m + 0.2309699292 * s));
+        int green = Srgb.fromLinear(
+                (float) (-1.2684380046 * l + 2.6097574011 * m - 0.3413193965 * s));
+        int blue = Srgb.fromLinear(
+                (float) (-0.0041960863 * l - 0.7034186147 * m + 1.7076147010 * s));
+        return 0xFF000000 | red << 16 | green << 8 | blue;
+    }
+
+    /**
+     * Returns the squared OKLab distance between two ARGB colors, without allocating.
+     */
+    public static float distanceSquared(int argb1, int argb2) {
+        // L, a and b are linear in the cube roots, so their differences are too.
+        double dl = cbrtL(argb1) - cbrtL(argb2);
+        double dm = cbrtM(argb1) - cbrtM(argb2);
+        double ds = cbrtS(argb1) - cbrtS(argb2);
+        double lightness = 0.2104542553 * dl + 0.7936177850 * dm - 0.0040720468 * ds;
+        double a = 1.9779984951 * dl - 2.4285922050 * dm + 0.4505937099 * ds;
+        double b = 0.0259040371 * dl + 0.7827717662 * dm - 0.8086757660 * ds;
+        return (float) (lightness * lightness + a * a + b * b);
+    }
+
+    private static double cbrtL(int argb) {
+        return Math.cbrt(0.4122214708 * Srgb.toLinear(argb >> 16)
+                + 0.5363325363 * Srgb.toLinear(argb >> 8) + 0.0514459929 * Srgb.toLinear(argb));
+    }
+
+    private static double cbrtM(int argb) {
+        return Math.cbrt(0.2119034982 * Srgb.toLinear(argb >> 16)
+                + 0.6806995451 * Srgb.toLinear(argb >> 8) + 0.1073969566 * Srgb.toLinear(argb));
+    }
+
+    private static double cbrtS(int argb) {
+        return Math.cbrt(0.0883024619 * Srgb.toLinear(argb >> 16)
+                + 0.2817188376 * Srgb.toLinear(argb >> 8) + 0.6299787005 * Srgb.toLinear(argb));
+    }
+}
@@ -0,0 +1,127 @@
+package com.bjason.palecco.palette;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of colors extracted from an image, ordered from the most to the least
+ * populated.
+ */
+public final class Palette {
+
+    private final int[] colors;
+    private final int[] populations;
+
+    /**
+     * Creates a palette from parallel color and population arrays. The arrays are copied and
+     * sorted by descending population.
+     */
+    public Palette(int[] colors, int[] populations, int size) {
+        if (size < 0 || size > colors.length || size > populations.length) {
+            throw new IllegalArgumentException("size " + size + " out of range");
+        }
+        // Pack population and slot into one long so a primitive sort orders the swatches. The
+        // slot is inverted so that equal populations keep their order, which keeps a palette
+        // rebuilt from a sorted one, e.g. a k-means warm start, in the same order.
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) populations[i] << 32) | (~i & 0xFFFFFFFFL);
+        }
+        Arrays.sort(order);
+        this.colors = new int[size];
+        this.populations = new int[size];
+        for (int i = 0; i < size; i++) {
+            int slot = ~(int) order[size - 1 - i];
+            this.colors[i] = colors[slot];
+            this.populations[i] = populations[slot];
+        }
+    }
+
+    /** Returns the number of swatches. */
+    public int size() {
+        return colors.length;
+    }
+
+    /** Returns the opaque ARGB color of the swatch at {@code index}. */
+    public int getColor(int index) {
+        return colors[index];
+    }
+
+    /** Returns the number of pixels represented by the swatch at {@code index}. */
+    public int getPopulation(int index) {
+        return populations[index];
+    }
+
+    /** Returns the most populated color, or {@code fallback} if the palette is empty. */
+    public int getDominantColor(int fallback) {
+        return colors.length == 0 ? fallback : colors[0];
+    }
+
+    /** Returns a copy of the swatch colors. */
+    public int[] getColors() {
+        return colors.clone();
+    }
+
+    /** Returns a copy of the swatch populations. */
+    public int[] getPopulations() {
+        return populations.clone();
+    }
+
+    /**
+     * Returns how far this palette is from {@code other}: the average distance in RGB from each
+     * swatch to the nearest swatch of the other palette, weighted by population and taken both
+     * ways. 0 means the same colors; the largest possible value is about 441.
+     */
+    public double distanceTo(Palette other) {
+        if (size() == 0 || other.size() == 0) {
+            return size() == other.size() ? 0 : Math.sqrt(3 * 255 * 255);
+        }
+        return (directedDistance(this, other) + directedDistance(other, this)) / 2;
+    }
+
+    private static double directedDistance(Palette from, Palette to) {
+        double sum = 0;
+        long total = 0;
+        for (int i = 0; i < from.size(); i++) {
+            int color = from.colors[i];
+            int nearest = Integer.MAX_VALUE;
+            for (int j = 0; j < to.size(); j++) {
+                int dr = ((color >> 16) & 0xFF) - ((to.colors[j] >> 16) & 0xFF);
+                int dg = ((color >> 8) & 0xFF) - ((to.colors[j] >> 8) & 0xFF);
+                int db = (color & 0xFF) - (to.colors[j] & 0xFF);
+                nearest = Math.min(nearest, dr * dr + dg * dg + db * db);
+            }
+            sum += Math.sqrt(nearest) * from.populations[i];
+            total += from.populations[i];
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Palette)) {
+            return false;
+        }
+        Palette other = (Palette) o;
+        return Arrays.equals(colors, other.colors) && Arrays.equals(populations, other.populations);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(colors) + Arrays.hashCode(populations);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Palette[");
+        for (int i = 0; i < colors.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format("#%06X", colors[i] & 0xFFFFFF)).append('x').append(populations[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
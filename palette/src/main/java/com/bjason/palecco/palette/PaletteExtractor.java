@@ -0,0 +1,75 @@
+package com.bjason.palecco.palette;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Extracts a {@link Palette} from a raw ARGB pixel buffer.
+ * <p>
+ * The extractor owns a reusable {@link ColorHistogram} and a {@link Quantizer}, so extracting
+ * from a sequence of images allocates nothing per pixel. Given a {@link ForkJoinPool}, the
+ * histogram of a large image is built in parallel, see {@link TiledHistogramBuilder}. An instance
+ * is not thread-safe; use one per worker thread.
+ */
+public final class PaletteExtractor {
+
+    /** Number of swatches extracted when none is specified. */
+    public static final int DEFAULT_MAX_COLORS = 6;
+
+    private final Quantizer quantizer;
+    private final int maxColors;
+    private final ColorHistogram histogram = new ColorHistogram();
+    private final TiledHistogramBuilder tiles;
+
+    public PaletteExtractor() {
+        this(QuantizerType.MEDIAN_CUT, DEFAULT_MAX_COLORS);
+    }
+
+    public PaletteExtractor(QuantizerType type, int maxColors) {
+        this(type.create(), maxColors);
+    }
+
+    public PaletteExtractor(Quantizer quantizer, int maxColors) {
+        this(quantizer, maxColors, null);
+    }
+
+    /**
+     * Creates an extractor that counts large images on {@code pool}, or on the calling thread
+     * if {@code pool} is {@code null}.
+     */
+    public PaletteExtractor(Quantizer quantizer, int maxColors, ForkJoinPool pool) {
+        if (maxColors < 1) {
+            throw new IllegalArgumentException("maxColors must be positive: " + maxColors);
+        }
+        this.quantizer = quantizer;
+        this.maxColors = maxColors;
+        this.tiles = pool != null ? new TiledHistogramBuilder(pool) : null;
+    }
+
+    /**
+     * Extracts the palette of a {@code width} x {@code height} image stored row by row in
+     * {@code pixels}.
+     */
+    public Palette extract(int[] pixels, int width, int height) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("pixel buffer smaller than " + width + "x" + height);
+        }
+        histogram.clear();
+        if (tiles != null) {
+            tiles.addImage(pixels, width, height, histogram);
+        } else {
+            histogram.add(pixels, 0, width * height);
+        }
+        return quantizer.quantize(histogram, maxColors);
+    }
+
+    /**
+     * Quantizes a histogram built by the caller.
+     */
+    public Palette extract(ColorHistogram histogram) {
+        return quantizer.quantize(histogram, maxColors);
+    }
+
+    public int getMaxColors() {
+        return maxColors;
+    }
+}
@@ -0,0 +1,257 @@
+package com.bjason.palecco.palette;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A persistent, memory-mapped index of extracted palettes.
+ * <p>
+ * The file is a small header followed by fixed-size records. Each record holds the image name,
+ * the size and modification time of the image file when its palette was extracted, the image
+ * dimensions and up to {@link #MAX_COLORS} colors with their populations. An entry whose size or
+ * modification time no longer matches the file is treated as missing.
+ * <p>
+ * Opening the index maps the whole file and scans the names once; lookups are then a hash probe
+ * and a few reads from the mapping. Records are updated in place, deletions move the last record
+ * into the freed slot, and the file grows by doubling. All methods are thread-safe.
+ */
+public final class PaletteIndex implements Closeable {
+
+    /** Largest palette a record can hold. */
+    public static final int MAX_COLORS = 8;
+    /** Longest image name, in bytes, a record can hold. */
+    public static final int MAX_NAME_LENGTH = 64;
+
+    private static final int MAGIC = 0x504C4958; // "PLIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    // Record layout.
+    private static final int NAME_LENGTH_OFFSET = 0;
+    private static final int NAME_OFFSET = 1;
+    private static final int FILE_SIZE_OFFSET = NAME_OFFSET + MAX_NAME_LENGTH;
+    private static final int MTIME_OFFSET = FILE_SIZE_OFFSET + 8;
+    private static final int WIDTH_OFFSET = MTIME_OFFSET + 8;
+    private static final int HEIGHT_OFFSET = WIDTH_OFFSET + 4;
+    private static final int COLOR_COUNT_OFFSET = HEIGHT_OFFSET + 4;
+    private static final int COLORS_OFFSET = COLOR_COUNT_OFFSET + 4;
+    private static final int POPULATIONS_OFFSET = COLORS_OFFSET + 4 * MAX_COLORS;
+    static final int RECORD_SIZE = POPULATIONS_OFFSET + 4 * MAX_COLORS;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * One valid index entry.
+     */
+    public static final class Entry {
+        private final int width;
+        private final int height;
+        private final Palette palette;
+
+        Entry(int width, int height, Palette palette) {
+            this.width = width;
+            this.height = height;
+            this.palette = palette;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public Palette getPalette() {
+            return palette;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final byte[] nameBuffer = new byte[MAX_NAME_LENGTH];
+    private final int[] colorBuffer = new int[MAX_COLORS];
+    private final int[] populationBuffer = new int[MAX_COLORS];
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+
+    private PaletteIndex(File path) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * Opens the index at {@code path}, creating it if needed. An unreadable or incompatible file
+     * is discarded and replaced by an empty index.
+     */
+    public static PaletteIndex open(File path) throws IOException {
+        PaletteIndex index = new PaletteIndex(path);
+        try {
+            index.load();
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        long length = channel.size();
+        if (length >= HEADER_SIZE) {
+            map((int) ((length - HEADER_SIZE) / RECORD_SIZE));
+            if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                    && buffer.getInt(8) == RECORD_SIZE && buffer.getInt(12) >= 0) {
+                count = Math.min(buffer.getInt(12), capacity);
+                for (int slot = 0; slot < count; slot++) {
+                    slots.put(readName(slot), slot);
+                }
+                return;
+            }
+        }
+        // New, incompatible or corrupt: start over.
+        channel.truncate(0);
+        map(INITIAL_CAPACITY);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, RECORD_SIZE);
+        setCount(0);
+    }
+
+    private void map(int records) throws IOException {
+        capacity = records;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) records * RECORD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Returns the number of entries, valid or not. */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns the entry for {@code name}, or {@code null} if there is none or if the image file
+     * changed since it was written.
+     */
+    public synchronized Entry get(String name, long fileSize, long lastModified) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            return null;
+        }
+        int base = offsetOf(slot);
+        if (buffer.getLong(base + FILE_SIZE_OFFSET) != fileSize
+                || buffer.getLong(base + MTIME_OFFSET) != lastModified) {
+            return null;
+        }
+        int colors = Math.max(0, Math.min(buffer.getInt(base + COLOR_COUNT_OFFSET), MAX_COLORS));
+        for (int i = 0; i < colors; i++) {
+            colorBuffer[i] = buffer.getInt(base + COLORS_OFFSET + 4 * i);
+            populationBuffer[i] = buffer.getInt(base + POPULATIONS_OFFSET + 4 * i);
+        }
+        return new Entry(buffer.getInt(base + WIDTH_OFFSET), buffer.getInt(base + HEIGHT_OFFSET),
+                new Palette(colorBuffer, populationBuffer, colors));
+    }
+
+    /**
+     * Adds or replaces the entry for {@code name}. Only the first {@link #MAX_COLORS} colors of
+     * {@code palette} are kept.
+     */
+    public synchronized void put(String name, long fileSize, long lastModified,
+                                 int width, int height, Palette palette) throws IOException {
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Name too long: " + name);
+        }
+        Integer existing = slots.get(name);
+        int slot;
+        if (existing != null) {
+            slot = existing;
+        } else {
+            if (count == capacity) {
+                map(Math.max(INITIAL_CAPACITY, capacity * 2));
+            }
+            slot = count;
+            slots.put(name, slot);
+            setCount(count + 1);
+        }
+        int base = offsetOf(slot);
+        buffer.put(base + NAME_LENGTH_OFFSET, (byte) encoded.length);
+        for (int i = 0; i < encoded.length; i++) {
+            buffer.put(base + NAME_OFFSET + i, encoded[i]);
+        }
+        buffer.putLong(base + FILE_SIZE_OFFSET, fileSize);
+        buffer.putLong(base + MTIME_OFFSET, lastModified);
+        buffer.putInt(base + WIDTH_OFFSET, width);
+        buffer.putInt(base + HEIGHT_OFFSET, height);
+        int colors = Math.min(palette.size(), MAX_COLORS);
+        buffer.putInt(base + COLOR_COUNT_OFFSET, colors);
+        for (int i = 0; i < colors; i++) {
+            buffer.putInt(base + COLORS_OFFSET + 4 * i, palette.getColor(i));
+            buffer.putInt(base + POPULATIONS_OFFSET + 4 * i, palette.getPopulation(i));
+        }
+    }
+
+    /**
+     * Removes the entry for {@code name}, if any.
+     */
+    public synchronized void remove(String name) {
+        Integer slot = slots.remove(name);
+        if (slot == null) {
+            return;
+        }
+        int last = count - 1;
+        if (slot != last) {
+            int from = offsetOf(last);
+            int to = offsetOf(slot);
+            for (int i = 0; i < RECORD_SIZE; i++) {
+                buffer.put(to + i, buffer.get(from + i));
+            }
+            slots.put(readName(slot), slot);
+        }
+        setCount(last);
+    }
+
+    /**
+     * Writes outstanding changes to storage.
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        channel.close();
+        file.close();
+    }
+
+    private int offsetOf(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private String readName(int slot) {
+        int base = offsetOf(slot);
+        int length = Math.min(buffer.get(base + NAME_LENGTH_OFFSET) & 0xFF, MAX_NAME_LENGTH);
+        for (int i = 0; i < length; i++) {
+            nameBuffer[i] = buffer.get(base + NAME_OFFSET + i);
+        }
+        return new String(nameBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void setCount(int count) {
+        this.count = count;
+        buffer.putInt(12, count);
+    }
+}
@@ -0,0 +1,207 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Extracts an approximate {@link Palette} from a subset of the pixels of an image.
+ * <p>
+ * The subset is bounded by a number of samples, a time budget or both. {@link Mode#STRIDE}
+ * visits a regular lattice that is refined pass by pass, each pass halving the step and adding
+ * the points between the previous ones, so that stopping after any pass leaves evenly spread
+ * samples. {@link Mode#RANDOM} draws pixels uniformly, which avoids aliasing with regular
+ * patterns in the image. Both are deterministic for the same input.
+ * <p>
+ * An instance reuses its histogram and is not thread-safe.
+ */
+public final class PaletteSampler {
+
+    public enum Mode {
+        STRIDE,
+        RANDOM
+    }
+
+    /** Samples of the first stride pass, and between two clock reads when drawing randomly. */
+    private static final int CHUNK = 1024;
+    /** Two-sided 95% normal quantile. */
+    private static final double Z_95 = 1.96;
+
+    /**
+     * A palette extracted from a sample, with the size of the sample and an error estimate.
+     */
+    public static final class Sample {
+        private final Palette palette;
+        private final int sampleCount;
+        private final int pixelCount;
+        private final float shareError;
+        private final boolean exact;
+
+        Sample(Palette palette, int sampleCount, int pixelCount, float shareError, boolean exact) {
+            this.palette = palette;
+            this.sampleCount = sampleCount;
+            this.pixelCount = pixelCount;
+            this.shareError = shareError;
+            this.exact = exact;
+        }
+
+        public Palette getPalette() {
+            return palette;
+        }
+
+        /** Number of pixels that were read, counting repeats. */
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        /** Number of pixels in the image. */
+        public int getPixelCount() {
+            return pixelCount;
+        }
+
+        /**
+         * Returns the 95% confidence bound on how far the population share of any swatch, as a
+         * fraction of the image, may be from its share over all pixels. It is 0 when every pixel
+         * was read. Palette colors are not covered; see {@link Palette#distanceTo(Palette)} to
+         * measure them against an exact palette.
+         */
+        public float getShareError() {
+            return shareError;
+        }
+
+        /** Whether every pixel was read exactly once, i.e. the palette is the exact one. */
+        public boolean isExact() {
+            return exact;
+        }
+    }
+
+    private final Quantizer quantizer;
+    private final int maxColors;
+    private final Mode mode;
+    private final ColorHistogram histogram = new ColorHistogram();
+
+    public PaletteSampler(QuantizerType type, int maxColors, Mode mode) {
+        if (maxColors < 1) {
+            throw new IllegalArgumentException("maxColors must be positive: " + maxColors);
+        }
+        this.quantizer = type.create();
+        this.maxColors = maxColors;
+        this.mode = mode;
+    }
+
+    /**
+     * Extracts a palette from at most {@code maxSamples} pixels.
+     */
+    public Sample sample(int[] pixels, int width, int height, int maxSamples) {
+        return sample(pixels, width, height, maxSamples, Long.MAX_VALUE);
+    }
+
+    /**
+     * Extracts a palette from at most {@code maxSamples} pixels, reading pixels for at most
+     * about {@code maxNanos}. Quantization comes on top of that time. At least one stride pass
+     * or random round is always read.
+     */
+    public Sample sample(int[] pixels, int width, int height, int maxSamples, long maxNanos) {
+        int pixelCount = width * height;
+        if (pixels.length < pixelCount) {
+            throw new IllegalArgumentException("pixel buffer smaller than " + width + "x" + height);
+        }
+        histogram.clear();
+        int samples;
+        boolean exact;
+        if (pixelCount == 0 || (maxSamples >= pixelCount && maxNanos == Long.MAX_VALUE)) {
+            // An empty image is read at once, and random samples would have nothing to draw from.
+            histogram.add(pixels, 0, pixelCount);
+            samples = pixelCount;
+            exact = true;
+        } else if (mode == Mode.STRIDE) {
+            // The lattice never visits a pixel twice, so reading them all is exact.
+            samples = sampleStride(pixels, width, height, maxSamples, maxNanos);
+            exact = samples == pixelCount;
+        } else {
+            samples = sampleRandom(pixels, pixelCount, maxSamples, maxNanos);
+            exact = false;
+        }
+        Palette palette = quantizer.quantize(histogram, maxColors);
+        float error = exact ? 0f : shareError(palette, histogram.totalCount(),
+                mode == Mode.STRIDE ? pixelCount : Integer.MAX_VALUE, samples);
+        return new Sample(palette, samples, pixelCount, error, exact);
+    }
+
+    private int sampleStride(int[] pixels, int width, int height, int maxSamples, long maxNanos) {
+        long start = System.nanoTime();
+        // The first pass reads about CHUNK pixels, or fewer if that is over the budget.
+        int firstBudget = Math.max(1, Math.min(CHUNK, maxSamples));
+        int step = 1;
+        while ((long) ((width + step - 1) / step) * ((height + step - 1) / step) > firstBudget) {
+            step *= 2;
+        }
+        int samples = addLattice(pixels, width, height, step, 0);
+        while (step > 1) {
+            int next = step / 2;
+            // A pass reads about three times as many pixels as all previous passes together.
+            long passSamples = (long) ((width + next - 1) / next) * ((height + next - 1) / next)
+                    - samples;
+            long elapsed = System.nanoTime() - start;
+            if (samples + passSamples > maxSamples
+                    || (maxNanos != Long.MAX_VALUE && elapsed + 3 * elapsed > maxNanos)) {
+                break;
+            }
+            samples += addLattice(pixels, width, height, next, step);
+            step = next;
+        }
+        return samples;
+    }
+
+    /**
+     * Adds the points of the lattice with the given {@code step} that are not on the lattice
+     * with step {@code skip} (0 to skip none), and returns how many were added.
+     */
+    private int addLattice(int[] pixels, int width, int height, int step, int skip) {
+        int added = 0;
+        for (int y = 0; y < height; y += step) {
+            boolean rowVisited = skip != 0 && y % skip == 0;
+            int row = y * width;
+            // On visited rows, only the odd multiples of step are new.
+            int x = rowVisited ? step : 0;
+            int dx = rowVisited ? 2 * step : step;
+            for (; x < width; x += dx) {
+                histogram.add(pixels[row + x]);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private int sampleRandom(int[] pixels, int pixelCount, int maxSamples, long maxNanos) {
+        long deadline = maxNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + maxNanos;
+        int state = 0x9E3779B9 ^ pixelCount;
+        int samples = 0;
+        do {
+            int end = Math.min(maxSamples, samples + CHUNK);
+            for (; samples < end; samples++) {
+                // xorshift32, scaled onto [0, pixelCount) by a multiply instead of a modulo.
+                state ^= state << 13;
+                state ^= state >>> 17;
+                state ^= state << 5;
+                histogram.add(pixels[(int) ((state & 0xFFFFFFFFL) * pixelCount >>> 32)]);
+            }
+        } while (samples < maxSamples && System.nanoTime() < deadline);
+        return samples;
+    }
+
+    /**
+     * Returns the largest 95% confidence half-width of the population share of a swatch. The
+     * finite population correction applies to stride samples, which never repeat a pixel; random
+     * samples are drawn with replacement, as if from an infinite population.
+     */
+    private static float shareError(Palette palette, int counted, int population, int samples) {
+        if (counted == 0) {
+            return 0f;
+        }
+        double correction = population == Integer.MAX_VALUE ? 1
+                : Math.sqrt(Math.max(0, population - samples) / (double) (population - 1));
+        double worst = 0;
+        for (int i = 0; i < palette.size(); i++) {
+            double share = palette.getPopulation(i) / (double) counted;
+            worst = Math.max(worst, share * (1 - share));
+        }
+        return (float) (Z_95 * Math.sqrt(worst / counted) * correction);
+    }
+}
@@ -0,0 +1,111 @@
+package com.bjason.palecco.palette;
+
+/**
+ * The character of a palette, for sorting and grouping a library: the hue of its dominant
+ * colorful swatch, and its lightness and chroma averaged by share. All values are in
+ * {@link Oklab} and come from the swatches alone, so no image has to be decoded.
+ */
+public final class PaletteTraits {
+
+    /** Swatches with less {@link Oklab} chroma than this count as gray. */
+    public static final float NEUTRAL_CHROMA = 0.04f;
+    /** Palettes whose colorful swatches cover less of the image than this count as gray. */
+    private static final float MIN_COLORFUL_SHARE = 0.1f;
+
+    private final float hue;
+    private final float lightness;
+    private final float chroma;
+
+    private PaletteTraits(float hue, float lightness, float chroma) {
+        this.hue = hue;
+        this.lightness = lightness;
+        this.chroma = chroma;
+    }
+
+    /**
+     * Returns the traits of {@code palette}, with its colors quantized as in the
+     * {@link ColorSearchIndex}.
+     */
+    public static PaletteTraits of(Palette palette) {
+        LabCache lab = LabCache.oklab();
+        int count = palette.size();
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += palette.getPopulation(i);
+        }
+        int[] labs = new int[count];
+        char[] shares = new char[count];
+        for (int i = 0; i < count; i++) {
+            labs[i] = lab.get(palette.getColor(i));
+            shares[i] = (char) (total == 0 ? 0 : palette.getPopulation(i) * 0xFFFFL / total);
+        }
+        return of(labs, shares, 0, count);
+    }
+
+    /**
+     * Returns the traits of the {@code count} swatches from {@code offset}, given as packed
+     * {@link LabCache#oklab()} values and shares in units of 1/0xFFFF.
+     */
+    static PaletteTraits of(int[] labs, char[] shares, int offset, int count) {
+        float scale = LabCache.oklab().getScale();
+        long totalShare = 0;
+        for (int i = offset; i < offset + count; i++) {
+            totalShare += shares[i];
+        }
+        double lightness = 0;
+        double chroma = 0;
+        double colorfulShare = 0;
+        int dominant = -1;
+        for (int i = offset; i < offset + count; i++) {
+            // Swatches too small to register still count, equally, if all of them are.
+            double share = totalShare == 0 ? 1.0 / count : shares[i] / (double) totalShare;
+            int a = LabCache.a(labs[i]);
+            int b = LabCache.b(labs[i]);
+            double c = Math.sqrt(a * a + b * b) / scale;
+            lightness += share * LabCache.lightness(labs[i]) / scale;
+            chroma += share * c;
+            if (c >= NEUTRAL_CHROMA) {
+                colorfulShare += share;
+                if (dominant < 0 || shares[i] > shares[dominant]) {
+                    dominant = i;
+                }
+            }
+        }
+        float hue = Float.NaN;
+        if (dominant >= 0 && colorfulShare >= MIN_COLORFUL_SHARE) {
+            double degrees = Math.toDegrees(Math.atan2(LabCache.b(labs[dominant]),
+                    LabCache.a(labs[dominant])));
+            hue = (float) (degrees < 0 ? degrees + 360 : degrees);
+        }
+        return new PaletteTraits(hue, (float) lightness, (float) chroma);
+    }
+
+    /** Whether the palette is mostly gray, in which case it has no hue. */
+    public boolean isNeutral() {
+        return Float.isNaN(hue);
+    }
+
+    /**
+     * Returns the {@link Oklab} hue angle of the largest colorful swatch in degrees, in
+     * [0, 360), or NaN if the palette {@link #isNeutral() is neutral}.
+     */
+    public float getHue() {
+        return hue;
+    }
+
+    /** Returns the {@link Oklab} lightness averaged by share, in [0, 1]. */
+    public float getLightness() {
+        return lightness;
+    }
+
+    /** Returns the {@link Oklab} chroma averaged by share. */
+    public float getChroma() {
+        return chroma;
+    }
+
+    @Override
+    public String toString() {
+        return "PaletteTraits{hue=" + hue + ", lightness=" + lightness + ", chroma=" + chroma
+                + "}";
+    }
+}
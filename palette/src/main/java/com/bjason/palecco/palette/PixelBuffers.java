@@ -0,0 +1,86 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Operations on ARGB pixel buffers stored row by row.
+ */
+public final class PixelBuffers {
+
+    private PixelBuffers() {
+    }
+
+    /**
+     * Returns the smallest integer factor that brings a {@code width} x {@code height} image to
+     * at most {@code maxSide} pixels per side with {@link #downsample}.
+     */
+    public static int factorFor(int width, int height, int maxSide) {
+        int longest = Math.max(width, height);
+        return Math.max(1, (longest + maxSide - 1) / maxSide);
+    }
+
+    /** Width or height of an image side of {@code length} pixels downsampled by {@code factor}. */
+    public static int downsampledLength(int length, int factor) {
+        return (length + factor - 1) / factor;
+    }
+
+    /**
+     * Downsamples {@code src} by averaging each {@code factor} x {@code factor} block, alpha
+     * included, into {@code dst}. Blocks at the right and bottom edges may be partial. {@code dst}
+     * needs room for {@code downsampledLength(width, factor) * downsampledLength(height, factor)}
+     * pixels.
+     */
+    public static void downsample(int[] src, int width, int height, int factor, int[] dst) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("factor < 1: " + factor);
+        }
+        int dstWidth = downsampledLength(width, factor);
+        int dstHeight = downsampledLength(height, factor);
+        if (factor == 1) {
+            System.arraycopy(src, 0, dst, 0, width * height);
+            return;
+        }
+        int[] a = new int[dstWidth];
+        int[] r = new int[dstWidth];
+        int[] g = new int[dstWidth];
+        int[] b = new int[dstWidth];
+        for (int dy = 0; dy < dstHeight; dy++) {
+            int yStart = dy * factor;
+            int yEnd = Math.min(height, yStart + factor);
+            for (int y = yStart; y < yEnd; y++) {
+                int row = y * width;
+                int x = 0;
+                for (int dx = 0; dx < dstWidth; dx++) {
+                    int xEnd = Math.min(width, x + factor);
+                    int sa = 0;
+                    int sr = 0;
+                    int sg = 0;
+                    int sb = 0;
+                    for (; x < xEnd; x++) {
+                        int pixel = src[row + x];
+                        sa += pixel >>> 24;
+                        sr += (pixel >> 16) & 0xFF;
+                        sg += (pixel >> 8) & 0xFF;
+                        sb += pixel & 0xFF;
+                    }
+                    a[dx] += sa;
+                    r[dx] += sr;
+                    g[dx] += sg;
+                    b[dx] += sb;
+                }
+            }
+            int rows = yEnd - yStart;
+            int out = dy * dstWidth;
+            for (int dx = 0; dx < dstWidth; dx++) {
+                int count = rows * (Math.min(width, (dx + 1) * factor) - dx * factor);
+                int half = count / 2;
+                dst[out + dx] = (a[dx] + half) / count << 24
+                        | (r[dx] + half) / count << 16
+                        | (g[dx] + half) / count << 8
+                        | (b[dx] + half) / count;
+                a[dx] = 0;
+                r[dx] = 0;
+                g[dx] = 0;
+                b[dx] = 0;
+            }
+        }
+    }
+}
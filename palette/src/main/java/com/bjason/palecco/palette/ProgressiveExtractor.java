@@ -0,0 +1,97 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Extracts a palette in passes of increasing quality, reporting each intermediate result.
+ * <p>
+ * The first pass quantizes a {@link PaletteSampler.Mode#STRIDE} sample of about a thousand
+ * pixels and is ready almost at once. The second quantizes the full histogram with median cut.
+ * Later passes run a few k-means iterations at a time, starting from the previous palette,
+ * until it stops changing. A listener can stop the extraction after any pass.
+ * <p>
+ * An instance reuses its histogram and quantizers and is not thread-safe.
+ */
+public final class ProgressiveExtractor {
+
+    /** Pixels read by the coarse first pass. */
+    public static final int COARSE_SAMPLES = 1024;
+    /** K-means iterations per refinement pass. */
+    private static final int ITERATIONS_PER_PASS = 2;
+    /** As many k-means iterations in total as a plain {@link KMeansQuantizer} runs. */
+    private static final int MAX_REFINEMENTS =
+            KMeansQuantizer.DEFAULT_MAX_ITERATIONS / ITERATIONS_PER_PASS;
+
+    /**
+     * Receives the palette after every pass, on the extracting thread.
+     */
+    public interface Listener {
+
+        /**
+         * @param palette the palette so far
+         * @param pass    0 for the coarse pass, increasing by one per pass
+         * @param last    whether this is the final palette
+         * @return whether to continue refining
+         */
+        boolean onPalette(Palette palette, int pass, boolean last);
+    }
+
+    private final int maxColors;
+    private final PaletteSampler sampler;
+    private final MedianCutQuantizer medianCut = new MedianCutQuantizer();
+    private final KMeansQuantizer kMeans = new KMeansQuantizer(ITERATIONS_PER_PASS);
+    private final ColorHistogram histogram = new ColorHistogram();
+
+    public ProgressiveExtractor() {
+        this(PaletteExtractor.DEFAULT_MAX_COLORS);
+    }
+
+    public ProgressiveExtractor(int maxColors) {
+        if (maxColors < 1) {
+            throw new IllegalArgumentException("maxColors must be positive: " + maxColors);
+        }
+        this.maxColors = maxColors;
+        this.sampler = new PaletteSampler(QuantizerType.MEDIAN_CUT, maxColors,
+                PaletteSampler.Mode.STRIDE);
+    }
+
+    /**
+     * Returns whether extracting a {@code width} x {@code height} image starts with the coarse
+     * pass. Smaller images go straight to the full histogram.
+     */
+    public static boolean hasCoarsePass(int width, int height) {
+        return width * height > COARSE_SAMPLES * 4;
+    }
+
+    /**
+     * Extracts the palette of a {@code width} x {@code height} image stored row by row in
+     * {@code pixels}, reporting every pass to {@code listener}, and returns the last palette.
+     */
+    public Palette extract(int[] pixels, int width, int height, Listener listener) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("pixel buffer smaller than " + width + "x" + height);
+        }
+        int pass = 0;
+        Palette palette;
+        if (hasCoarsePass(width, height)) {
+            palette = sampler.sample(pixels, width, height, COARSE_SAMPLES).getPalette();
+            if (!listener.onPalette(palette, pass++, false)) {
+                return palette;
+            }
+        }
+
+        histogram.clear();
+        histogram.add(pixels, 0, width * height);
+        palette = medianCut.quantize(histogram, maxColors);
+        if (!listener.onPalette(palette, pass++, false)) {
+            return palette;
+        }
+        for (int refinement = 1; ; refinement++) {
+            Palette next = kMeans.quantize(histogram, palette.getColors(), palette.size());
+            // The final palette is reported even if unchanged, so exactly one call is last.
+            boolean last = next.equals(palette) || refinement == MAX_REFINEMENTS;
+            palette = next;
+            if (!listener.onPalette(palette, pass++, last) || last) {
+                return palette;
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Reduces a {@link ColorHistogram} to a small {@link Palette}.
+ * <p>
+ * Implementations work on histogram buckets rather than on individual pixels, so their cost
+ * depends on the number of distinct colors and not on the image size. Instances may keep scratch
+ * buffers between calls and are therefore not thread-safe.
+ */
+public interface Quantizer {
+
+    /**
+     * Returns at most {@code maxColors} colors representing {@code histogram}.
+     */
+    Palette quantize(ColorHistogram histogram, int maxColors);
+}
@@ -0,0 +1,30 @@
+package com.bjason.palecco.palette;
+
+/**
+ * The available {@link Quantizer} implementations.
+ */
+public enum QuantizerType {
+    MEDIAN_CUT,
+    OCTREE,
+    K_MEANS,
+    /** K-means in {@link Oklab}, which groups colors the way they look rather than by RGB. */
+    K_MEANS_OKLAB;
+
+    /**
+     * Creates a new quantizer of this type.
+     */
+    public Quantizer create() {
+        switch (this) {
+            case OCTREE:
+                return new OctreeQuantizer();
+            case K_MEANS:
+                return new KMeansQuantizer();
+            case K_MEANS_OKLAB:
+                return new KMeansQuantizer(KMeansQuantizer.DEFAULT_MAX_ITERATIONS,
+                        LabCache.oklab());
+            case MEDIAN_CUT:
+            default:
+                return new MedianCutQuantizer();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.bjason.palecco.palette;
+
+import java.util.Arrays;
+
+/**
+ * The {@link ColorHistogram} of a part of an image, a rectangle or a mask, kept up to date as
+ * the part moves without reading all of it again.
+ * <p>
+ * The image is cut into {@link #CELL_SIZE} pixel square cells, and the histogram of each cell is
+ * kept as the short list of its non-empty buckets. A region adds up the lists of the cells it
+ * covers whole and only reads pixels along its edges, where it cuts cells. When the rectangle is
+ * moved or resized, the strips it left are taken out and the strips it entered added, so a drag
+ * costs in proportion to how far the rectangle moved rather than to its area.
+ * <p>
+ * The cell lists take about as much memory as the pixels. The pixels are not copied and must not
+ * change. A region histogram is not thread-safe.
+ */
+public final class RegionHistogram {
+
+    /** Side of a cell in pixels. */
+    public static final int CELL_SIZE = 16;
+
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    /** The entries of cell {@code c} are {@code [cellStarts[c], cellStarts[c + 1])}. */
+    private final int[] cellStarts;
+    private final char[] entryBuckets;
+    /** Populations of the entries; a cell has at most 256 pixels. */
+    private final char[] entryCounts;
+    private final ColorHistogram histogram = new ColorHistogram();
+    /** The rectangle counted in {@link #histogram}, empty for none or a mask. */
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+
+    /**
+     * Indexes the cells of a {@code width} x {@code height} image stored row by row in
+     * {@code pixels}.
+     */
+    public RegionHistogram(int[] pixels, int width, int height) {
+        if (width < 1 || height < 1 || pixels.length < width * height) {
+            throw new IllegalArgumentException("pixel buffer smaller than " + width + "x" + height);
+        }
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        this.rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        this.cellStarts = new int[columns * rows + 1];
+
+        // Sized for every pixel in a bucket of its own, then trimmed.
+        char[] buckets = new char[width * height];
+        char[] counts = new char[width * height];
+        int[] cell = new int[CELL_SIZE * CELL_SIZE];
+        int entries = 0;
+        for (int cellRow = 0; cellRow < rows; cellRow++) {
+            int yEnd = Math.min(height, (cellRow + 1) * CELL_SIZE);
+            for (int cellColumn = 0; cellColumn < columns; cellColumn++) {
+                int xStart = cellColumn * CELL_SIZE;
+                int xEnd = Math.min(width, xStart + CELL_SIZE);
+                int n = 0;
+                for (int y = cellRow * CELL_SIZE; y < yEnd; y++) {
+                    for (int i = y * width + xStart, end = y * width + xEnd; i < end; i++) {
+                        if (ColorHistogram.isCounted(pixels[i])) {
+                            cell[n++] = ColorHistogram.indexOf(pixels[i]);
+                        }
+                    }
+                }
+                // Sorted, equal buckets are adjacent and collapse into one entry.
+                Arrays.sort(cell, 0, n);
+                for (int i = 0; i < n; i++) {
+                    if (i == 0 || cell[i] != cell[i - 1]) {
+                        buckets[entries] = (char) cell[i];
+                        counts[entries++] = 1;
+                    } else {
+                        counts[entries - 1]++;
+                    }
+                }
+                cellStarts[cellRow * columns + cellColumn + 1] = entries;
+            }
+        }
+        this.entryBuckets = Arrays.copyOf(buckets, entries);
+        this.entryCounts = Arrays.copyOf(counts, entries);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Counts the pixels in {@code [left, right) x [top, bottom)}, clipped to the image, and
+     * returns their histogram. The histogram belongs to this object and changes with the next
+     * region.
+     */
+    public ColorHistogram setRect(int left, int top, int right, int bottom) {
+        int l = clamp(left, width);
+        int t = clamp(top, height);
+        int r = Math.max(l, clamp(right, width));
+        int b = Math.max(t, clamp(bottom, height));
+        int overlapLeft = Math.max(l, this.left);
+        int overlapTop = Math.max(t, this.top);
+        int overlapRight = Math.min(r, this.right);
+        int overlapBottom = Math.min(b, this.bottom);
+        if (overlapLeft >= overlapRight || overlapTop >= overlapBottom) {
+            histogram.clear();
+            addRect(l, t, r, b, 1);
+        } else {
+            addDifference(this.left, this.top, this.right, this.bottom,
+                    overlapLeft, overlapTop, overlapRight, overlapBottom, -1);
+            addDifference(l, t, r, b, overlapLeft, overlapTop, overlapRight, overlapBottom, 1);
+        }
+        this.left = l;
+        this.top = t;
+        this.right = r;
+        this.bottom = b;
+        return histogram;
+    }
+
+    /**
+     * Counts the pixels whose entry in {@code mask}, stored row by row like the image, is true,
+     * and returns their histogram like {@link #setRect}. A mask is counted afresh; it is read
+     * in full, but the pixels only in the cells it cuts.
+     */
+    public ColorHistogram setMask(boolean[] mask) {
+        if (mask.length < width * height) {
+            throw new IllegalArgumentException("mask smaller than " + width + "x" + height);
+        }
+        histogram.clear();
+        left = top = right = bottom = 0;
+        for (int cellRow = 0; cellRow < rows; cellRow++) {
+            int yStart = cellRow * CELL_SIZE;
+            int yEnd = Math.min(height, yStart + CELL_SIZE);
+            for (int cellColumn = 0; cellColumn < columns; cellColumn++) {
+                int xStart = cellColumn * CELL_SIZE;
+                int xEnd = Math.min(width, xStart + CELL_SIZE);
+                int selected = 0;
+                for (int y = yStart; y < yEnd; y++) {
+                    for (int i = y * width + xStart, end = y * width + xEnd; i < end; i++) {
+                        if (mask[i]) {
+                            selected++;
+                        }
+                    }
+                }
+                if (selected == (yEnd - yStart) * (xEnd - xStart)) {
+                    addCell(cellRow * columns + cellColumn, 1);
+                } else if (selected > 0) {
+                    for (int y = yStart; y < yEnd; y++) {
+                        for (int i = y * width + xStart, end = y * width + xEnd; i < end; i++) {
+                            if (mask[i]) {
+                                histogram.add(pixels[i]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the histogram of the last region.
+     */
+    public ColorHistogram getHistogram() {
+        return histogram;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+
+    /**
+     * Adds, or takes out for a negative {@code sign}, the part of rectangle {@code a} outside
+     * {@code overlap}, which lies within it: the full-width strips above and below the overlap,
+     * and the strips on either side of it.
+     */
+    private void addDifference(int aLeft, int aTop, int aRight, int aBottom, int overlapLeft,
+                               int overlapTop, int overlapRight, int overlapBottom, int sign) {
+        addRect(aLeft, aTop, aRight, overlapTop, sign);
+        addRect(aLeft, overlapBottom, aRight, aBottom, sign);
+        addRect(aLeft, overlapTop, overlapLeft, overlapBottom, sign);
+        addRect(overlapRight, overlapTop, aRight, overlapBottom, sign);
+    }
+
+    private void addRect(int l, int t, int r, int b, int sign) {
+        if (l >= r || t >= b) {
+            return;
+        }
+        // Cells inside the rectangle; one cut short by the image edge is inside if it reaches it.
+        int firstColumn = (l + CELL_SIZE - 1) / CELL_SIZE;
+        int endColumn = r == width ? columns : r / CELL_SIZE;
+        int firstRow = (t + CELL_SIZE - 1) / CELL_SIZE;
+        int endRow = b == height ? rows : b / CELL_SIZE;
+        if (firstColumn >= endColumn || firstRow >= endRow) {
+            addPixels(l, t, r, b, sign);
+            return;
+        }
+        for (int cellRow = firstRow; cellRow < endRow; cellRow++) {
+            for (int cellColumn = firstColumn; cellColumn < endColumn; cellColumn++) {
+                addCell(cellRow * columns + cellColumn, sign);
+            }
+        }
+        int innerLeft = firstColumn * CELL_SIZE;
+        int innerTop = firstRow * CELL_SIZE;
+        int innerRight = Math.min(width, endColumn * CELL_SIZE);
+        int innerBottom = Math.min(height, endRow * CELL_SIZE);
+        addPixels(l, t, r, innerTop, sign);
+        addPixels(l, innerBottom, r, b, sign);
+        addPixels(l, innerTop, innerLeft, innerBottom, sign);
+        addPixels(innerRight, innerTop, r, innerBottom, sign);
+    }
+
+    private void addCell(int cell, int sign) {
+        for (int e = cellStarts[cell], end = cellStarts[cell + 1]; e < end; e++) {
+            histogram.addToBucket(entryBuckets[e], sign * entryCounts[e]);
+        }
+    }
+
+    private void addPixels(int l, int t, int r, int b, int sign) {
+        for (int y = t; y < b; y++) {
+            int row = y * width;
+            if (sign > 0) {
+                histogram.add(pixels, row + l, row + r);
+            } else {
+                for (int i = row + l; i < row + r; i++) {
+                    histogram.remove(pixels[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Extracts the palette of a region of an image, such as a face, the sky or a crop, as the user
+ * drags or resizes it.
+ * <p>
+ * The histogram of the region is kept up to date by a {@link RegionHistogram}, so a small move
+ * reads few pixels whatever the size of the region. The regions of a drag are alike, so k-means
+ * starts from the previous palette as in {@link LivePaletteTracker}, and is seeded with median
+ * cut again for the first region, after {@link #reset()}, and whenever the warm start leaves a
+ * centroid without pixels.
+ * <p>
+ * A tracker is not thread-safe. Regions that change while one is being processed should be
+ * coalesced by the caller rather than queued, so the palette follows the latest.
+ */
+public final class RegionPaletteTracker {
+
+    private final RegionHistogram regions;
+    private final int maxColors;
+    private final KMeansQuantizer quantizer = new KMeansQuantizer();
+    private Palette previous;
+
+    public RegionPaletteTracker(RegionHistogram regions) {
+        this(regions, PaletteExtractor.DEFAULT_MAX_COLORS);
+    }
+
+    public RegionPaletteTracker(RegionHistogram regions, int maxColors) {
+        if (maxColors < 1) {
+            throw new IllegalArgumentException("maxColors must be positive: " + maxColors);
+        }
+        this.regions = regions;
+        this.maxColors = maxColors;
+    }
+
+    /**
+     * Returns the palette of {@code [left, right) x [top, bottom)}, in the pixels of the
+     * {@link RegionHistogram}.
+     */
+    public Palette update(int left, int top, int right, int bottom) {
+        return quantize(regions.setRect(left, top, right, bottom));
+    }
+
+    /**
+     * Returns the palette of the pixels selected by {@code mask}, see
+     * {@link RegionHistogram#setMask(boolean[])}.
+     */
+    public Palette update(boolean[] mask) {
+        return quantize(regions.setMask(mask));
+    }
+
+    private Palette quantize(ColorHistogram histogram) {
+        Palette palette = null;
+        if (previous != null && previous.size() == maxColors) {
+            palette = quantizer.quantize(histogram, previous.getColors(), previous.size());
+        }
+        if (palette == null || palette.size() < maxColors) {
+            // First region, or centroids were left empty, typically by a jump to other colors.
+            palette = quantizer.quantize(histogram, maxColors);
+        }
+        previous = palette;
+        return palette;
+    }
+
+    /**
+     * Forgets the previous palette, e.g. when a new selection starts.
+     */
+    public void reset() {
+        previous = null;
+    }
+}
@@ -0,0 +1,59 @@
+package com.bjason.palecco.palette;
+
+/**
+ * Table-driven conversion between 8-bit sRGB channels and linear light.
+ * <p>
+ * Decoding looks up all 256 channel values. Encoding looks up the linear value quantized to
+ * {@value #ENCODE_STEPS} steps, which is fine enough that every 8-bit channel survives a round
+ * trip.
+ */
+public final class Srgb {
+
+    /** Steps of the encoding table over [0, 1]. */
+    static final int ENCODE_STEPS = 1 << 14;
+
+    private static final float[] TO_LINEAR = new float[256];
+    private static final byte[] FROM_LINEAR = new byte[ENCODE_STEPS + 1];
+
+    static {
+        for (int c = 0; c < 256; c++) {
+            TO_LINEAR[c] = (float) decode(c / 255.0);
+        }
+        for (int i = 0; i <= ENCODE_STEPS; i++) {
+            FROM_LINEAR[i] = (byte) Math.round(encode(i / (double) ENCODE_STEPS) * 255);
+        }
+    }
+
+    private Srgb() {
+    }
+
+    /**
+     * Returns the linear light of an 8-bit sRGB channel value, in [0, 1].
+     */
+    public static float toLinear(int channel) {
+        return TO_LINEAR[channel & 0xFF];
+    }
+
+    /**
+     * Returns the 8-bit sRGB channel value of a linear light value, clamped to [0, 1].
+     */
+    public static int fromLinear(float linear) {
+        if (!(linear > 0f)) {
+            return 0;
+        }
+        if (linear >= 1f) {
+            return 255;
+        }
+        return FROM_LINEAR[(int) (linear * ENCODE_STEPS + 0.5f)] & 0xFF;
+    }
+
+    /** Exact sRGB decoding of a channel in [0, 1]. */
+    static double decode(double channel) {
+        return channel <= 0.04045 ? channel / 12.92 : Math.pow((channel + 0.055) / 1.055, 2.4);
+    }
+
+    /** Exact sRGB encoding of a linear value in [0, 1]. */
+    static double encode(double linear) {
+        return linear <= 0.0031308 ? linear * 12.92 : 1.055 * Math.pow(linear, 1 / 2.4) - 0.055;
+    }
+}
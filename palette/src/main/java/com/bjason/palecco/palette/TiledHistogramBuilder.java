@@ -0,0 +1,92 @@
+package com.bjason.palecco.palette;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds a {@link ColorHistogram} of a large image in parallel.
+ * <p>
+ * The image is split into row bands, twice as many as the pool has workers so that stealing can
+ * even out slow bands. Each band is counted into its own histogram on a {@link ForkJoinPool},
+ * and the band histograms are then merged. Images below {@code minParallelPixels} are counted on
+ * the calling thread, where splitting would cost more than it saves.
+ * <p>
+ * The band histograms are kept for the next image, so a builder is not thread-safe.
+ */
+public final class TiledHistogramBuilder {
+
+    /** Inputs smaller than this are counted on the calling thread by default. */
+    public static final int DEFAULT_MIN_PARALLEL_PIXELS = 512 * 512;
+
+    private final ForkJoinPool pool;
+    private final int minParallelPixels;
+    private final ColorHistogram[] bands;
+
+    public TiledHistogramBuilder(ForkJoinPool pool) {
+        this(pool, DEFAULT_MIN_PARALLEL_PIXELS);
+    }
+
+    public TiledHistogramBuilder(ForkJoinPool pool, int minParallelPixels) {
+        this.pool = pool;
+        this.minParallelPixels = minParallelPixels;
+        this.bands = new ColorHistogram[pool.getParallelism() * 2];
+    }
+
+    /**
+     * Adds every pixel of a {@code width} x {@code height} image to {@code histogram}.
+     */
+    public void addImage(int[] pixels, int width, int height, ColorHistogram histogram) {
+        int bandCount = Math.min(bands.length, height);
+        if ((long) width * height < minParallelPixels || bandCount < 2) {
+            histogram.addRows(pixels, width, 0, height);
+            return;
+        }
+        for (int i = 0; i < bandCount; i++) {
+            if (bands[i] == null) {
+                bands[i] = new ColorHistogram();
+            } else {
+                bands[i].clear();
+            }
+        }
+        pool.invoke(new BandTask(pixels, width, height, bandCount, 0, bandCount));
+        for (int i = 0; i < bandCount; i++) {
+            histogram.merge(bands[i]);
+        }
+    }
+
+    /**
+     * Counts the bands {@code [from, to)}, halving the range until a single band is left.
+     */
+    private final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] pixels;
+        private final int width;
+        private final int height;
+        private final int bandCount;
+        private final int from;
+        private final int to;
+
+        BandTask(int[] pixels, int width, int height, int bandCount, int from, int to) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.bandCount = bandCount;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                int rowStart = (int) ((long) height * from / bandCount);
+                int rowEnd = (int) ((long) height * to / bandCount);
+                bands[from].addRows(pixels, width, rowStart, rowEnd);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BandTask(pixels, width, height, bandCount, from, middle),
+                    new BandTask(pixels, width, height, bandCount, middle, to));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.bjason.palecco.palette;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV 4:2:0 image, such as a camera preview frame, laid out as three planes.
+ * <p>
+ * The layout matches {@code android.media.Image} in {@code YUV_420_888}: a full resolution luma
+ * plane and two chroma planes at half resolution in both directions, which share their row and
+ * pixel strides. Planar (I420, pixel stride 1) and semi-planar (NV12/NV21, pixel stride 2)
+ * buffers are both covered. A frame only wraps the buffers; it is meant to be created per frame.
+ * <p>
+ * Colors are converted with the full range BT.601 matrix that camera YUV uses.
+ */
+public final class YuvFrame {
+
+    // BT.601 full range coefficients in 16.16 fixed point.
+    private static final int V_TO_R = 91881;
+    private static final int U_TO_G = 22554;
+    private static final int V_TO_G = 46802;
+    private static final int U_TO_B = 116130;
+    private static final int HALF = 1 << 15;
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer y;
+    private final int yRowStride;
+    private final ByteBuffer u;
+    private final ByteBuffer v;
+    private final int uvRowStride;
+    private final int uvPixelStride;
+
+    public YuvFrame(int width, int height, ByteBuffer y, int yRowStride,
+                    ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("empty frame: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.y = y;
+        this.yRowStride = yRowStride;
+        this.u = u;
+        this.v = v;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the smallest chroma step for which {@link #addTo} reads at most about
+     * {@code maxSamples} pixels.
+     */
+    public int stepFor(int maxSamples) {
+        long pixels = (long) width * height;
+        if (pixels <= maxSamples) {
+            return 1;
+        }
+        return (int) Math.ceil(Math.sqrt(pixels / (double) Math.max(1, maxSamples)));
+    }
+
+    /**
+     * Adds the pixels of every {@code step}-th chroma sample in both directions to
+     * {@code histogram}. Each chroma sample covers up to four luma samples, all of which are
+     * added, so a step of 1 adds every pixel. Nothing is allocated.
+     */
+    public void addTo(ColorHistogram histogram, int step) {
+        if (step < 1) {
+            throw new IllegalArgumentException("step must be positive: " + step);
+        }
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        for (int cy = 0; cy < chromaHeight; cy += step) {
+            int chromaRow = cy * uvRowStride;
+            int top = 2 * cy;
+            int rows = Math.min(2, height - top);
+            for (int cx = 0; cx < chromaWidth; cx += step) {
+                int chroma = chromaRow + cx * uvPixelStride;
+                int cu = (u.get(chroma) & 0xFF) - 128;
+                int cv = (v.get(chroma) & 0xFF) - 128;
+                // The chroma terms are shared by the luma samples of the 2x2 block.
+                int red = V_TO_R * cv + HALF;
+                int green = -U_TO_G * cu - V_TO_G * cv + HALF;
+                int blue = U_TO_B * cu + HALF;
+                int left = 2 * cx;
+                int columns = Math.min(2, width - left);
+                for (int dy = 0; dy < rows; dy++) {
+                    int lumaRow = (top + dy) * yRowStride + left;
+                    for (int dx = 0; dx < columns; dx++) {
+                        int luma = (y.get(lumaRow + dx) & 0xFF) << 16;
+                        histogram.addToBucket(bucketOf(
+                                (luma + red) >> 16, (luma + green) >> 16, (luma + blue) >> 16));
+                    }
+                }
+            }
+        }
+    }
+
+    private static int bucketOf(int r, int g, int b) {
+        return (clamp(r) >> 3) << 10 | (clamp(g) >> 3) << 5 | clamp(b) >> 3;
+    }
+
+    private static int clamp(int channel) {
+        return channel < 0 ? 0 : channel > 255 ? 255 : channel;
+    }
+}
@@ -0,0 +1,175 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ColorSearchIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Palette palette(int... colorsAndPopulations) {
+        int n = colorsAndPopulations.length / 2;
+        int[] colors = new int[n];
+        int[] populations = new int[n];
+        for (int i = 0; i < n; i++) {
+            colors[i] = colorsAndPopulations[2 * i];
+            populations[i] = colorsAndPopulations[2 * i + 1];
+        }
+        return new Palette(colors, populations, n);
+    }
+
+    private static List<String> ids(List<ColorSearchIndex.Match> matches) {
+        List<String> ids = new ArrayList<>();
+        for (ColorSearchIndex.Match match : matches) {
+            ids.add(match.getId());
+        }
+        return ids;
+    }
+
+    private ColorSearchIndex open() throws IOException {
+        return ColorSearchIndex.open(new File(folder.getRoot(), "colors"));
+    }
+
+    @Test
+    public void searchColor_ranksByNearestSwatch() throws IOException {
+        try (ColorSearchIndex index = open()) {
+            index.put("red", palette(0xFFE01010, 80, 0xFF202020, 20));
+            index.put("orange", palette(0xFFF08020, 60, 0xFFFFFFFF, 40));
+            index.put("blue", palette(0xFF1030D0, 100));
+            List<ColorSearchIndex.Match> matches = index.searchColor(0xFFFF0000, 2);
+            assertEquals(Arrays.asList("red", "orange"), ids(matches));
+            assertTrue(matches.get(0).getDistance() < matches.get(1).getDistance());
+            // A swatch that is not dominant still matches.
+            assertEquals("orange", index.searchColor(0xFFFAFAFA, 1).get(0).getId());
+        }
+    }
+
+    @Test
+    public void searchColor_matchesLinearScan() throws IOException {
+        Random random = new Random(7);
+        Palette[] palettes = new Palette[500];
+        try (ColorSearchIndex index = open()) {
+            for (int i = 0; i < palettes.length; i++) {
+                palettes[i] = palette(0xFF000000 | random.nextInt(), 1 + random.nextInt(100),
+                        0xFF000000 | random.nextInt(), 1 + random.nextInt(100));
+                index.put("image" + i, palettes[i]);
+            }
+            LabCache lab = LabCache.oklab();
+            for (int query = 0; query < 20; query++) {
+                int color = 0xFF000000 | random.nextInt();
+                int best = -1;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int i = 0; i < palettes.length; i++) {
+                    for (int j = 0; j < palettes[i].size(); j++) {
+                        int d = LabCache.distanceSquared(lab.get(color),
+                                lab.get(palettes[i].getColor(j)));
+                        if (d < bestDistance) {
+                            bestDistance = d;
+                            best = i;
+                        }
+                    }
+                }
+                ColorSearchIndex.Match match = index.searchColor(color, 1).get(0);
+                assertEquals(Math.sqrt(bestDistance) / lab.getScale(), match.getDistance(), 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void searchPalette_findsClosestPalettes() throws IOException {
+        try (ColorSearchIndex index = open()) {
+            index.put("sunset", palette(0xFFF07020, 50, 0xFF802060, 30, 0xFF201040, 20));
+            index.put("sunset2", palette(0xFFE87828, 40, 0xFF782868, 40, 0xFF181048, 20));
+            index.put("forest", palette(0xFF206020, 70, 0xFF604020, 30));
+            index.put("sea", palette(0xFF2060C0, 60, 0xFFE0E0F0, 40));
+            Palette query = palette(0xFFF07020, 50, 0xFF802060, 30, 0xFF201040, 20);
+            List<ColorSearchIndex.Match> matches = index.searchPalette(query, 3);
+            assertEquals(3, matches.size());
+            assertEquals("sunset", matches.get(0).getId());
+            assertEquals(0f, matches.get(0).getDistance(), 1e-6f);
+            assertEquals("sunset2", matches.get(1).getId());
+            assertTrue(index.searchPalette(palette(), 3).isEmpty());
+        }
+    }
+
+    @Test
+    public void traits_matchThoseOfThePalette() throws IOException {
+        Palette red = palette(0xFFE01010, 80, 0xFF202020, 20);
+        try (ColorSearchIndex index = open()) {
+            index.put("red", red);
+            PaletteTraits[] traits = index.traits(Arrays.asList("red", "missing"));
+            assertEquals(PaletteTraits.of(red).getHue(), traits[0].getHue(), 1e-3f);
+            assertEquals(PaletteTraits.of(red).getLightness(), traits[0].getLightness(), 1e-3f);
+            assertNull(traits[1]);
+        }
+    }
+
+    @Test
+    public void changes_surviveReopening() throws IOException {
+        try (ColorSearchIndex index = open()) {
+            index.put("a", palette(0xFFFF0000, 1));
+            index.put("b", palette(0xFF00FF00, 1));
+            index.put("a", palette(0xFF0000FF, 1));
+            index.put("c", palette(0xFFFFFF00, 1));
+            assertTrue(index.remove("b"));
+            assertFalse(index.remove("b"));
+        }
+        try (ColorSearchIndex index = open()) {
+            List<String> ids = index.ids();
+            Collections.sort(ids);
+            assertEquals(Arrays.asList("a", "c"), ids);
+            assertEquals("a", index.searchColor(0xFF0000FF, 1).get(0).getId());
+            assertEquals(0f, index.searchColor(0xFF0000FF, 1).get(0).getDistance(), 0f);
+            assertFalse(index.contains("b"));
+        }
+    }
+
+    @Test
+    public void tornLastRecord_isDropped() throws IOException {
+        File path = new File(folder.getRoot(), "colors");
+        try (ColorSearchIndex index = ColorSearchIndex.open(path)) {
+            index.put("a", palette(0xFFFF0000, 1));
+            index.put("b", palette(0xFF00FF00, 3, 0xFF0000FF, 1));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        try (ColorSearchIndex index = ColorSearchIndex.open(path)) {
+            assertEquals(Collections.singletonList("a"), index.ids());
+            index.put("c", palette(0xFF00FF00, 1));
+        }
+        try (ColorSearchIndex index = ColorSearchIndex.open(path)) {
+            assertEquals(2, index.size());
+            assertTrue(index.contains("c"));
+        }
+    }
+
+    @Test
+    public void deadRecords_areCompactedOnOpen() throws IOException {
+        File path = new File(folder.getRoot(), "colors");
+        try (ColorSearchIndex index = ColorSearchIndex.open(path)) {
+            for (int i = 0; i < 100; i++) {
+                index.put("kept", palette(i % 2 == 0 ? 0xFFFF0000 : 0xFF00FF00, 1));
+            }
+        }
+        long before = path.length();
+        try (ColorSearchIndex index = ColorSearchIndex.open(path)) {
+            assertEquals(Collections.singletonList("kept"), index.ids());
+            assertEquals(0f, index.searchColor(0xFF00FF00, 1).get(0).getDistance(), 0f);
+        }
+        assertTrue(path.length() < before / 10);
+    }
+}
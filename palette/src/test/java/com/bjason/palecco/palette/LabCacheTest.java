@@ -0,0 +1,126 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LabCacheTest {
+
+    private static final int RED = 0xFFFF0000;
+
+    @Test
+    public void srgb_roundTripsEveryChannel() {
+        for (int c = 0; c < 256; c++) {
+            assertEquals(Srgb.decode(c / 255.0), Srgb.toLinear(c), 1e-6);
+            assertEquals(c, Srgb.fromLinear(Srgb.toLinear(c)));
+        }
+        assertEquals(0, Srgb.fromLinear(-0.5f));
+        assertEquals(255, Srgb.fromLinear(1.5f));
+    }
+
+    @Test
+    public void oklab_matchesReferenceValues() {
+        float[] lab = new float[3];
+        Oklab.fromArgb(0xFFFFFFFF, lab);
+        assertArrayEquals(new float[]{1f, 0f, 0f}, lab, 1e-4f);
+        Oklab.fromArgb(RED, lab);
+        assertArrayEquals(new float[]{0.62796f, 0.22486f, 0.12585f}, lab, 1e-4f);
+        assertEquals(RED, Oklab.toArgb(lab[0], lab[1], lab[2]));
+    }
+
+    @Test
+    public void cielab_matchesReferenceValues() {
+        float[] lab = new float[3];
+        Cielab.fromArgb(0xFFFFFFFF, lab);
+        assertArrayEquals(new float[]{100f, 0f, 0f}, lab, 0.01f);
+        Cielab.fromArgb(RED, lab);
+        assertArrayEquals(new float[]{53.24f, 80.09f, 67.20f}, lab, 0.01f);
+        assertEquals(RED, Cielab.toArgb(lab[0], lab[1], lab[2]));
+        assertEquals(0f, Cielab.deltaE(RED, RED), 0f);
+    }
+
+    @Test
+    public void conversions_roundTrip() {
+        float[] lab = new float[3];
+        for (int rgb = 0; rgb < 0x1000000; rgb += 0x010307) {
+            int argb = 0xFF000000 | rgb;
+            Oklab.fromArgb(argb, lab);
+            assertColorNear(argb, Oklab.toArgb(lab[0], lab[1], lab[2]), 1);
+            Cielab.fromArgb(argb, lab);
+            assertColorNear(argb, Cielab.toArgb(lab[0], lab[1], lab[2]), 1);
+        }
+    }
+
+    @Test
+    public void cache_isCloseToExactConversion() {
+        LabCache cache = LabCache.oklab();
+        float[] lab = new float[3];
+        for (int index = 0; index < ColorHistogram.SIZE; index += 37) {
+            int argb = ColorHistogram.toArgb(index);
+            Oklab.fromArgb(argb, lab);
+            int packed = cache.getBucket(index);
+            float scale = cache.getScale();
+            // A 5-6-5 cell spans up to a few hundredths of OKLab.
+            assertEquals(lab[0], LabCache.lightness(packed) / scale, 0.03f);
+            assertEquals(lab[1], LabCache.a(packed) / scale, 0.03f);
+            assertEquals(lab[2], LabCache.b(packed) / scale, 0.03f);
+            assertColorNear(argb, cache.toArgb(packed), 8);
+        }
+    }
+
+    @Test
+    public void packedDistance_isProportionalToLabDistance() {
+        LabCache cache = LabCache.cielab();
+        int gray = 0xFF808080;
+        int lighter = 0xFFA0A0A0;
+        float expected = Cielab.deltaE(gray, lighter) * cache.getScale();
+        int distanceSquared = LabCache.distanceSquared(cache.get(gray), cache.get(lighter));
+        float actual = (float) Math.sqrt(distanceSquared);
+        assertEquals(expected, actual, 2f);
+        assertEquals(0, LabCache.distanceSquared(cache.get(gray), cache.get(gray)));
+    }
+
+    @Test
+    public void pack_clampsOutOfRangeComponents() {
+        int packed = LabCache.pack(5000f, -5000f, 5000f);
+        assertEquals(1023, LabCache.lightness(packed));
+        assertEquals(-1024, LabCache.a(packed));
+        assertEquals(1023, LabCache.b(packed));
+    }
+
+    @Test
+    public void perceptualKMeans_keepsDarkShadesApart() {
+        // Two dark shades that look distinct but are close in RGB, beside two bright ones that
+        // are about as far apart in RGB but look alike.
+        int[] pixels = new int[400];
+        int[] colors = {0xFF101010, 0xFF302020, 0xFFF0F0F0, 0xFFE8E8F8};
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = colors[i / 100];
+        }
+        Palette oklab = new PaletteExtractor(QuantizerType.K_MEANS_OKLAB, 4)
+                .extract(pixels, 20, 20);
+        assertEquals(4, oklab.size());
+        for (int color : colors) {
+            assertColorNear(color, nearest(oklab, color), 8);
+        }
+    }
+
+    private static int nearest(Palette palette, int color) {
+        int best = palette.getColor(0);
+        for (int i = 1; i < palette.size(); i++) {
+            if (Cielab.deltaE(palette.getColor(i), color) < Cielab.deltaE(best, color)) {
+                best = palette.getColor(i);
+            }
+        }
+        return best;
+    }
+
+    private static void assertColorNear(int expected, int actual, int tolerance) {
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int e = (expected >> shift) & 0xFF;
+            int a = (actual >> shift) & 0xFF;
+            assertTrue(String.format("%08X vs %08X", expected, actual),
+                    Math.abs(e - a) <= tolerance);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class LibraryIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void order_survivesReopening() throws IOException {
+        File path = new File(folder.getRoot(), "library");
+        try (LibraryIndex index = LibraryIndex.open(path)) {
+            index.add("c.jpeg");
+            index.add("a.jpeg");
+            index.add("b.jpeg");
+            assertEquals(0, index.add("c.jpeg"));
+            assertTrue(index.remove("a.jpeg"));
+            assertFalse(index.remove("a.jpeg"));
+        }
+        try (LibraryIndex index = LibraryIndex.open(path)) {
+            assertEquals(Arrays.asList("c.jpeg", "b.jpeg"), index.ids());
+            // Added again, an image goes to the end.
+            index.add("a.jpeg");
+            assertEquals(Arrays.asList("c.jpeg", "b.jpeg", "a.jpeg"), index.ids());
+            assertTrue(index.sequenceOf("a.jpeg") > index.sequenceOf("b.jpeg"));
+            assertEquals(-1, index.sequenceOf("d.jpeg"));
+        }
+    }
+
+    @Test
+    public void tornLastRecord_isDropped() throws IOException {
+        File path = new File(folder.getRoot(), "library");
+        try (LibraryIndex index = LibraryIndex.open(path)) {
+            index.add("a.jpeg");
+            index.add("b.jpeg");
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        try (LibraryIndex index = LibraryIndex.open(path)) {
+            assertEquals(Collections.singletonList("a.jpeg"), index.ids());
+            index.add("c.jpeg");
+        }
+        try (LibraryIndex index = LibraryIndex.open(path)) {
+            assertEquals(Arrays.asList("a.jpeg", "c.jpeg"), index.ids());
+        }
+    }
+
+    @Test
+    public void garbage_isDiscarded() throws IOException {
+        File path = folder.newFile("library");
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.writeBytes("not an index");
+        }
+        try (LibraryIndex index = LibraryIndex.open(path)) {
+            assertEquals(0, index.size());
+        }
+    }
+
+    @Test
+    public void deadRecords_areCompactedAway() throws IOException {
+        File path = new File(folder.getRoot(), "library");
+        try (LibraryIndex index = LibraryIndex.open(path)) {
+            for (int i = 0; i < 500; i++) {
+                index.add("img" + i);
+            }
+            for (int i = 0; i < 490; i++) {
+                index.remove("img" + i);
+            }
+        }
+        long before = path.length();
+        try (LibraryIndex index = LibraryIndex.open(path)) {
+            assertTrue(path.length() < before / 10);
+            assertEquals(10, index.size());
+            assertEquals("img490", index.ids().get(0));
+            index.add("next");
+        }
+        try (LibraryIndex index = LibraryIndex.open(path)) {
+            assertEquals(11, index.size());
+            assertEquals("next", index.ids().get(10));
+            assertTrue(index.sequenceOf("next") > index.sequenceOf("img499"));
+        }
+    }
+}
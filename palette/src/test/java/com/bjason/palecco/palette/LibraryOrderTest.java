@@ -0,0 +1,104 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LibraryOrderTest {
+
+    private static PaletteTraits traits(int... colorsAndPopulations) {
+        int n = colorsAndPopulations.length / 2;
+        int[] colors = new int[n];
+        int[] populations = new int[n];
+        for (int i = 0; i < n; i++) {
+            colors[i] = colorsAndPopulations[2 * i];
+            populations[i] = colorsAndPopulations[2 * i + 1];
+        }
+        return PaletteTraits.of(new Palette(colors, populations, n));
+    }
+
+    @Test
+    public void traits_dominantHueIgnoresGraySwatches() {
+        // Mostly white, but the red swatch is the largest colorful one.
+        PaletteTraits t = traits(0xFFFFFFFF, 60, 0xFFFF0000, 30, 0xFF0000FF, 10);
+        assertFalse(t.isNeutral());
+        assertEquals(29f, t.getHue(), 2f);
+        assertTrue(traits(0xFFFFFFFF, 60, 0xFF000000, 38, 0xFFFF0000, 2).isNeutral());
+    }
+
+    @Test
+    public void hue_isRainbowOrderWithGrayLast() {
+        List<String> ids = Arrays.asList("gray", "blue", "yellow", "red", "unknown", "green");
+        PaletteTraits[] traits = {
+                traits(0xFF808080, 1),
+                traits(0xFF0000FF, 1),
+                traits(0xFFFFFF00, 1),
+                traits(0xFFFF0000, 1),
+                null,
+                traits(0xFF00FF00, 1)
+        };
+        LibraryOrder order = LibraryOrder.sort(ids, traits, LibraryOrder.Mode.HUE);
+        assertEquals(Arrays.asList("red", "yellow", "green", "blue", "gray", "unknown"),
+                order.getIds());
+        assertEquals(6, order.getSectionCount());
+        assertEquals(LibraryOrder.Group.RED, order.getSection(0));
+        assertEquals(LibraryOrder.Group.NEUTRAL, order.getSection(4));
+        assertEquals(4, order.getSectionStart(4));
+        assertEquals(LibraryOrder.Group.UNSORTED, order.getSection(5));
+    }
+
+    @Test
+    public void lightness_groupsDarkToLight() {
+        List<String> ids = Arrays.asList("white", "black", "gray", "silver");
+        PaletteTraits[] traits = {
+                traits(0xFFFFFFFF, 1),
+                traits(0xFF000000, 1),
+                traits(0xFF606060, 1),
+                traits(0xFFC0C0C0, 1)
+        };
+        LibraryOrder order = LibraryOrder.sort(ids, traits, LibraryOrder.Mode.LIGHTNESS);
+        assertEquals(Arrays.asList("black", "gray", "silver", "white"), order.getIds());
+        assertEquals(3, order.getSectionCount());
+        assertEquals(LibraryOrder.Group.DARK, order.getSection(0));
+        assertEquals(LibraryOrder.Group.MEDIUM, order.getSection(1));
+        assertEquals(LibraryOrder.Group.LIGHT, order.getSection(2));
+        assertEquals(2, order.getSectionStart(2));
+    }
+
+    @Test
+    public void mood_separatesVividPastelAndDeep() {
+        List<String> ids = Arrays.asList("navy", "pink", "red", "gray");
+        PaletteTraits[] traits = {
+                traits(0xFF101850, 1),
+                traits(0xFFFFC8D8, 1),
+                traits(0xFFFF0000, 1),
+                traits(0xFF707070, 1)
+        };
+        LibraryOrder order = LibraryOrder.sort(ids, traits, LibraryOrder.Mode.MOOD);
+        assertEquals(Arrays.asList("red", "pink", "navy", "gray"), order.getIds());
+        assertEquals(LibraryOrder.Group.VIVID, order.getSection(0));
+        assertEquals(LibraryOrder.Group.PASTEL, order.getSection(1));
+        assertEquals(LibraryOrder.Group.DEEP, order.getSection(2));
+        assertEquals(LibraryOrder.Group.NEUTRAL, order.getSection(3));
+    }
+
+    @Test
+    public void equalRanks_keepInputOrder() {
+        List<String> ids = Arrays.asList("a", "b", "c");
+        PaletteTraits red = traits(0xFFFF0000, 1);
+        LibraryOrder order = LibraryOrder.sort(ids, new PaletteTraits[]{red, red, red},
+                LibraryOrder.Mode.HUE);
+        assertEquals(ids, order.getIds());
+    }
+
+    @Test
+    public void added_keepsInputOrderWithoutSections() {
+        List<String> ids = Arrays.asList("b", "a");
+        LibraryOrder order = LibraryOrder.sort(ids, new PaletteTraits[0], LibraryOrder.Mode.ADDED);
+        assertEquals(ids, order.getIds());
+        assertEquals(0, order.getSectionCount());
+    }
+}
@@ -0,0 +1,57 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LivePaletteTrackerTest {
+
+    private static final int[] COLORS = {0xFFE53935, 0xFF43A047, 0xFF1E88E5, 0xFFFDD835};
+
+    private static int nearestDistance(Palette palette, int color) {
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.size(); i++) {
+            int c = palette.getColor(i);
+            int distance = 0;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                distance = Math.max(distance, Math.abs(((c >> shift) & 0xFF)
+                        - ((color >> shift) & 0xFF)));
+            }
+            best = Math.min(best, distance);
+        }
+        return best;
+    }
+
+    @Test
+    public void findsTheColorsOfTheFrame() {
+        LivePaletteTracker tracker = new LivePaletteTracker(4, 4096);
+        YuvFrame frame = YuvFrameTest.encode(YuvFrameTest.quadrants(320, 240, COLORS),
+                320, 240, true, 0);
+        Palette palette = tracker.update(frame);
+
+        assertEquals(4, palette.size());
+        for (int color : COLORS) {
+            assertTrue(nearestDistance(palette, color) <= 8);
+        }
+    }
+
+    @Test
+    public void warmStart_isStableOnARepeatedFrame_andFollowsChanges() {
+        LivePaletteTracker tracker = new LivePaletteTracker(4, 4096);
+        YuvFrame frame = YuvFrameTest.encode(YuvFrameTest.quadrants(320, 240, COLORS),
+                320, 240, false, 0);
+        Palette first = tracker.update(frame);
+        assertEquals(first, tracker.update(frame));
+
+        // The scene darkens; the warm-started centroids follow it.
+        int[] darker = new int[COLORS.length];
+        for (int i = 0; i < COLORS.length; i++) {
+            darker[i] = 0xFF000000 | (COLORS[i] & 0xFEFEFE) >> 1;
+        }
+        Palette next = tracker.update(YuvFrameTest.encode(YuvFrameTest.quadrants(320, 240, darker),
+                320, 240, false, 0));
+        for (int color : darker) {
+            assertTrue(nearestDistance(next, color) <= 8);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PaletteExtractorTest {
+
+    private static final int RED = 0xFFF00000;
+    private static final int GREEN = 0xFF00F000;
+    private static final int BLUE = 0xFF0000F0;
+
+    /** A 100x100 image: 50% red, 30% green, 20% blue. */
+    private static int[] threeColorImage() {
+        int[] pixels = new int[100 * 100];
+        for (int i = 0; i < pixels.length; i++) {
+            int row = i / 100;
+            pixels[i] = row < 50 ? RED : row < 80 ? GREEN : BLUE;
+        }
+        return pixels;
+    }
+
+    /** A 64x64 image with a smooth gradient, i.e. many distinct colors. */
+    private static int[] gradientImage() {
+        int[] pixels = new int[64 * 64];
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                pixels[y * 64 + x] = 0xFF000000 | (x * 4) << 16 | (y * 4) << 8 | ((x + y) * 2);
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void histogram_ignoresTransparentPixels() {
+        ColorHistogram histogram = new ColorHistogram();
+        histogram.add(new int[]{RED, 0x00FFFFFF, 0x7FFFFFFF, RED}, 0, 4);
+        assertEquals(2, histogram.totalCount());
+        assertEquals(1, histogram.distinctColors());
+        assertEquals(2, histogram.count(ColorHistogram.indexOf(RED)));
+    }
+
+    @Test
+    public void everyQuantizer_findsExactColorsInOrder() {
+        for (QuantizerType type : QuantizerType.values()) {
+            Palette palette = new PaletteExtractor(type, 6).extract(threeColorImage(), 100, 100);
+            assertEquals(type.name(), 3, palette.size());
+            assertColorNear(type.name(), RED, palette.getColor(0));
+            assertColorNear(type.name(), GREEN, palette.getColor(1));
+            assertColorNear(type.name(), BLUE, palette.getColor(2));
+            assertEquals(type.name(), 5000, palette.getPopulation(0));
+            assertEquals(type.name(), 3000, palette.getPopulation(1));
+            assertEquals(type.name(), 2000, palette.getPopulation(2));
+        }
+    }
+
+    @Test
+    public void everyQuantizer_respectsMaxColorsAndKeepsPopulation() {
+        int[] pixels = gradientImage();
+        for (QuantizerType type : QuantizerType.values()) {
+            Palette palette = new PaletteExtractor(type, 8).extract(pixels, 64, 64);
+            assertTrue(type.name(), palette.size() > 0 && palette.size() <= 8);
+            int total = 0;
+            for (int i = 0; i < palette.size(); i++) {
+                total += palette.getPopulation(i);
+                if (i > 0) {
+                    assertTrue(type.name(), palette.getPopulation(i - 1) >= palette.getPopulation(i));
+                }
+            }
+            assertEquals(type.name(), pixels.length, total);
+        }
+    }
+
+    @Test
+    public void extractor_isReusableAcrossImages() {
+        PaletteExtractor extractor = new PaletteExtractor();
+        Palette first = extractor.extract(threeColorImage(), 100, 100);
+        extractor.extract(gradientImage(), 64, 64);
+        assertEquals(first, extractor.extract(threeColorImage(), 100, 100));
+    }
+
+    private static void assertColorNear(String message, int expected, int actual) {
+        assertEquals(message, (expected >> 16) & 0xFF, (actual >> 16) & 0xFF, 8);
+        assertEquals(message, (expected >> 8) & 0xFF, (actual >> 8) & 0xFF, 8);
+        assertEquals(message, expected & 0xFF, actual & 0xFF, 8);
+    }
+}
@@ -0,0 +1,100 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class PaletteIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Palette palette(int seed) {
+        return new Palette(new int[]{0xFF000000 | seed, 0xFFFFFFFF}, new int[]{seed + 10, 5}, 2);
+    }
+
+    @Test
+    public void entries_surviveReopening() throws IOException {
+        File path = folder.newFile("index");
+        try (PaletteIndex index = PaletteIndex.open(path)) {
+            index.put("a.jpeg", 100, 1000, 40, 30, palette(1));
+            index.put("b.jpeg", 200, 2000, 30, 40, palette(2));
+        }
+        try (PaletteIndex index = PaletteIndex.open(path)) {
+            assertEquals(2, index.size());
+            PaletteIndex.Entry entry = index.get("b.jpeg", 200, 2000);
+            assertNotNull(entry);
+            assertEquals(30, entry.getWidth());
+            assertEquals(40, entry.getHeight());
+            assertEquals(palette(2), entry.getPalette());
+        }
+    }
+
+    @Test
+    public void changedFile_isTreatedAsMissing() throws IOException {
+        try (PaletteIndex index = PaletteIndex.open(folder.newFile("index"))) {
+            index.put("a.jpeg", 100, 1000, 40, 30, palette(1));
+            assertNull(index.get("a.jpeg", 101, 1000));
+            assertNull(index.get("a.jpeg", 100, 1001));
+            assertNull(index.get("b.jpeg", 100, 1000));
+        }
+    }
+
+    @Test
+    public void remove_keepsOtherEntriesAndGrowthWorks() throws IOException {
+        File path = folder.newFile("index");
+        try (PaletteIndex index = PaletteIndex.open(path)) {
+            for (int i = 0; i < 1000; i++) {
+                index.put("img" + i, i, i, i, i, palette(i));
+            }
+            index.remove("img0");
+            index.remove("img500");
+            index.put("img1", 1, 1, 2, 2, palette(7));
+        }
+        try (PaletteIndex index = PaletteIndex.open(path)) {
+            assertEquals(998, index.size());
+            assertNull(index.get("img0", 0, 0));
+            assertNull(index.get("img500", 500, 500));
+            assertEquals(palette(7), index.get("img1", 1, 1).getPalette());
+            assertEquals(palette(999), index.get("img999", 999, 999).getPalette());
+        }
+    }
+
+    @Test
+    public void garbageFile_isReplaced() throws IOException {
+        File path = folder.newFile("index");
+        try (FileOutputStream out = new FileOutputStream(path)) {
+            out.write(new byte[1000]);
+        }
+        try (PaletteIndex index = PaletteIndex.open(path)) {
+            assertEquals(0, index.size());
+            index.put("a", 1, 1, 1, 1, palette(1));
+            assertNotNull(index.get("a", 1, 1));
+        }
+    }
+
+    @Test
+    public void negativeCount_isReplaced() throws IOException {
+        File path = folder.newFile("index");
+        try (PaletteIndex index = PaletteIndex.open(path)) {
+            index.put("a", 1, 1, 1, 1, palette(1));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(12);
+            file.writeInt(-1);
+        }
+        try (PaletteIndex index = PaletteIndex.open(path)) {
+            assertEquals(0, index.size());
+            assertNull(index.get("a", 1, 1));
+            index.put("b", 1, 1, 1, 1, palette(2));
+            assertNotNull(index.get("b", 1, 1));
+        }
+    }
+}
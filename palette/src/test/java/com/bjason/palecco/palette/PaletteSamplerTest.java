@@ -0,0 +1,97 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PaletteSamplerTest {
+
+    private static final int SIDE = 400;
+
+    /** Four flat quadrants with a little noise. */
+    private static int[] quadrantImage() {
+        int[] base = {0xFFE04030, 0xFF30A050, 0xFF3050D0, 0xFFF0E0B0};
+        Random random = new Random(7);
+        int[] pixels = new int[SIDE * SIDE];
+        for (int y = 0; y < SIDE; y++) {
+            for (int x = 0; x < SIDE; x++) {
+                int noise = random.nextInt(9) - 4;
+                pixels[y * SIDE + x] = base[(y * 2 / SIDE) * 2 + x * 2 / SIDE] + noise * 0x010101;
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void everyMode_isCloseToTheExactPalette() {
+        int[] pixels = quadrantImage();
+        // Median cut alone may cut a quadrant in two when sampled counts move the median into it.
+        Palette exact = new PaletteExtractor(QuantizerType.K_MEANS, 4).extract(pixels, SIDE, SIDE);
+        for (PaletteSampler.Mode mode : PaletteSampler.Mode.values()) {
+            PaletteSampler.Sample sample = new PaletteSampler(QuantizerType.K_MEANS, 4, mode)
+                    .sample(pixels, SIDE, SIDE, 4000);
+            assertFalse(mode.name(), sample.isExact());
+            assertTrue(mode.name(), sample.getSampleCount() <= 4000);
+            assertTrue(mode.name(), sample.getShareError() > 0 && sample.getShareError() < 0.05f);
+            assertTrue(mode.name() + " " + sample.getPalette(),
+                    sample.getPalette().distanceTo(exact) < 8);
+            double share = sample.getPalette().getPopulation(0)
+                    / (double) sample.getSampleCount();
+            assertEquals(mode.name(), 0.25, share, sample.getShareError() * 2);
+        }
+    }
+
+    @Test
+    public void largerBudgets_areMoreAccurate() {
+        int[] pixels = quadrantImage();
+        for (PaletteSampler.Mode mode : PaletteSampler.Mode.values()) {
+            PaletteSampler sampler = new PaletteSampler(QuantizerType.MEDIAN_CUT, 4, mode);
+            float previousError = Float.MAX_VALUE;
+            // The budgets of the sampling benchmark.
+            for (int budget = 1024; budget <= 16384; budget *= 4) {
+                PaletteSampler.Sample sample = sampler.sample(pixels, SIDE, SIDE, budget);
+                String label = mode + " " + budget;
+                assertTrue(label, sample.getSampleCount() <= budget);
+                // The half-width for a share of one half, the widest, is 0.98 / sqrt(n).
+                assertTrue(label, sample.getShareError() <= 1 / Math.sqrt(sample.getSampleCount()));
+                assertTrue(label, sample.getShareError() < previousError);
+                previousError = sample.getShareError();
+            }
+        }
+    }
+
+    @Test
+    public void largeBudget_isExact() {
+        int[] pixels = quadrantImage();
+        Palette exact = new PaletteExtractor(QuantizerType.OCTREE, 4).extract(pixels, SIDE, SIDE);
+        PaletteSampler.Sample sample = new PaletteSampler(QuantizerType.OCTREE, 4,
+                PaletteSampler.Mode.STRIDE).sample(pixels, SIDE, SIDE, Integer.MAX_VALUE);
+        assertTrue(sample.isExact());
+        assertEquals(0f, sample.getShareError(), 0f);
+        assertEquals(exact, sample.getPalette());
+        assertEquals(0, sample.getPalette().distanceTo(exact), 0);
+    }
+
+    @Test
+    public void emptyImage_withTimeBudget_isAnEmptySample() {
+        for (PaletteSampler.Mode mode : PaletteSampler.Mode.values()) {
+            PaletteSampler.Sample sample = new PaletteSampler(QuantizerType.MEDIAN_CUT, 4, mode)
+                    .sample(new int[0], 0, 0, 1000, 1_000_000);
+            assertEquals(mode.name(), 0, sample.getSampleCount());
+            assertEquals(mode.name(), 0, sample.getPalette().size());
+        }
+    }
+
+    @Test
+    public void stride_withTimeBudget_stopsBetweenPasses() {
+        int[] pixels = quadrantImage();
+        PaletteSampler.Sample sample = new PaletteSampler(QuantizerType.MEDIAN_CUT, 4,
+                PaletteSampler.Mode.STRIDE).sample(pixels, SIDE, SIDE, Integer.MAX_VALUE, 0);
+        // Only the first pass is read.
+        assertTrue(sample.getSampleCount() <= 1024);
+        assertTrue(sample.getSampleCount() > 0);
+        assertFalse(sample.isExact());
+    }
+}
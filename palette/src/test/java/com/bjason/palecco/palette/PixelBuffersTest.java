@@ -0,0 +1,42 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PixelBuffersTest {
+
+    @Test
+    public void factorFor_fitsLongestSide() {
+        assertEquals(1, PixelBuffers.factorFor(200, 100, 256));
+        assertEquals(2, PixelBuffers.factorFor(512, 300, 256));
+        assertEquals(3, PixelBuffers.factorFor(300, 513, 256));
+    }
+
+    @Test
+    public void downsample_averagesBlocks() {
+        int[] src = {
+                0xFF000000, 0xFF000000, 0xFFFFFFFF,
+                0xFFFFFFFF, 0xFFFFFFFF, 0xFFFFFFFF,
+                0xFF102030, 0xFF102030, 0x00000000,
+        };
+        int[] dst = new int[4];
+        PixelBuffers.downsample(src, 3, 3, 2, dst);
+        // Full block: two black and two white pixels.
+        assertEquals(0xFF808080, dst[0]);
+        // Partial right block: two white pixels.
+        assertEquals(0xFFFFFFFF, dst[1]);
+        // Partial bottom block.
+        assertEquals(0xFF102030, dst[2]);
+        // Partial corner block: one transparent pixel.
+        assertEquals(0x00000000, dst[3]);
+    }
+
+    @Test
+    public void downsample_byOneCopies() {
+        int[] src = {1, 2, 3, 4};
+        int[] dst = new int[4];
+        PixelBuffers.downsample(src, 2, 2, 1, dst);
+        assertArrayEquals(src, dst);
+    }
+}
@@ -0,0 +1,59 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProgressiveExtractorTest {
+
+    /** A 128x128 image with a smooth gradient. */
+    private static int[] gradientImage() {
+        int[] pixels = new int[128 * 128];
+        for (int y = 0; y < 128; y++) {
+            for (int x = 0; x < 128; x++) {
+                pixels[y * 128 + x] = 0xFF000000 | (x * 2) << 16 | (y * 2) << 8 | (x + y);
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void reportsCoarseThenRefinedPalettes() {
+        int[] pixels = gradientImage();
+        final List<Palette> palettes = new ArrayList<>();
+        final List<Boolean> lasts = new ArrayList<>();
+        Palette result = new ProgressiveExtractor(6).extract(pixels, 128, 128,
+                new ProgressiveExtractor.Listener() {
+                    @Override
+                    public boolean onPalette(Palette palette, int pass, boolean last) {
+                        assertEquals(palettes.size(), pass);
+                        palettes.add(palette);
+                        lasts.add(last);
+                        return true;
+                    }
+                });
+        // Coarse sample, median cut, then at least one k-means pass.
+        assertTrue(palettes.size() >= 3);
+        assertEquals(lasts.size() - 1, lasts.indexOf(true));
+        assertEquals(result, palettes.get(palettes.size() - 1));
+        // Refinement brings the coarse palette closer to the result.
+        assertTrue(palettes.get(0).distanceTo(result) >= palettes.get(1).distanceTo(result));
+    }
+
+    @Test
+    public void listenerCanStopEarly() {
+        final int[] calls = new int[1];
+        new ProgressiveExtractor().extract(gradientImage(), 128, 128,
+                new ProgressiveExtractor.Listener() {
+                    @Override
+                    public boolean onPalette(Palette palette, int pass, boolean last) {
+                        calls[0]++;
+                        return false;
+                    }
+                });
+        assertEquals(1, calls[0]);
+    }
+}
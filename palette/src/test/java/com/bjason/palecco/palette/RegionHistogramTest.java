@@ -0,0 +1,121 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RegionHistogramTest {
+
+    // Not multiples of the cell size, so the last cells are cut short.
+    private static final int WIDTH = 101;
+    private static final int HEIGHT = 67;
+
+    /** Mostly a few colors, so cells share buckets, with some noise and transparent pixels. */
+    private static int[] image() {
+        Random random = new Random(42);
+        int[] colors = {0xFFE53935, 0xFF43A047, 0xFF1E88E5, 0x40FDD835};
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt(4) == 0 ? random.nextInt() : colors[random.nextInt(4)];
+        }
+        return pixels;
+    }
+
+    private static ColorHistogram scan(int[] pixels, int left, int top, int right, int bottom) {
+        ColorHistogram histogram = new ColorHistogram();
+        for (int y = Math.max(0, top); y < Math.min(HEIGHT, bottom); y++) {
+            for (int x = Math.max(0, left); x < Math.min(WIDTH, right); x++) {
+                histogram.add(pixels[y * WIDTH + x]);
+            }
+        }
+        return histogram;
+    }
+
+    private static void assertSameCounts(ColorHistogram expected, ColorHistogram actual) {
+        assertEquals(expected.totalCount(), actual.totalCount());
+        for (int i = 0; i < ColorHistogram.SIZE; i++) {
+            assertEquals(expected.count(i), actual.count(i));
+        }
+    }
+
+    @Test
+    public void rect_matchesAScanOfItsPixels() {
+        int[] pixels = image();
+        RegionHistogram regions = new RegionHistogram(pixels, WIDTH, HEIGHT);
+        assertSameCounts(scan(pixels, 0, 0, WIDTH, HEIGHT), regions.setRect(0, 0, WIDTH, HEIGHT));
+        // Across cell borders, inside a single cell, and past the image edges.
+        assertSameCounts(scan(pixels, 5, 7, 70, 50), regions.setRect(5, 7, 70, 50));
+        assertSameCounts(scan(pixels, 17, 17, 30, 31), regions.setRect(17, 17, 30, 31));
+        assertSameCounts(scan(pixels, -10, 40, 200, 99), regions.setRect(-10, 40, 200, 99));
+        assertSameCounts(new ColorHistogram(), regions.setRect(30, 30, 30, 60));
+    }
+
+    @Test
+    public void draggedRect_matchesAScanAtEveryStep() {
+        int[] pixels = image();
+        RegionHistogram regions = new RegionHistogram(pixels, WIDTH, HEIGHT);
+        Random random = new Random(7);
+        int left = 10;
+        int top = 10;
+        int right = 60;
+        int bottom = 40;
+        for (int step = 0; step < 200; step++) {
+            // Mostly small moves and resizes, sometimes a jump.
+            int reach = step % 20 == 0 ? 80 : 4;
+            left += random.nextInt(2 * reach + 1) - reach;
+            top += random.nextInt(2 * reach + 1) - reach;
+            right += random.nextInt(2 * reach + 1) - reach;
+            bottom += random.nextInt(2 * reach + 1) - reach;
+            assertSameCounts(scan(pixels, left, top, right, bottom),
+                    regions.setRect(left, top, right, bottom));
+        }
+    }
+
+    @Test
+    public void mask_matchesAScanOfItsPixels() {
+        int[] pixels = image();
+        RegionHistogram regions = new RegionHistogram(pixels, WIDTH, HEIGHT);
+        // A disc covers some cells whole, cuts others and misses the rest.
+        boolean[] mask = new boolean[WIDTH * HEIGHT];
+        ColorHistogram expected = new ColorHistogram();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if ((x - 50) * (x - 50) + (y - 30) * (y - 30) < 28 * 28) {
+                    mask[y * WIDTH + x] = true;
+                    expected.add(pixels[y * WIDTH + x]);
+                }
+            }
+        }
+        regions.setRect(0, 0, 40, 40);
+        assertSameCounts(expected, regions.setMask(mask));
+        // A rectangle after a mask is counted afresh.
+        assertSameCounts(scan(pixels, 20, 20, 60, 60), regions.setRect(20, 20, 60, 60));
+    }
+
+    @Test
+    public void tracker_findsTheColorsOfTheRegion() {
+        int[] colors = {0xFFE53935, 0xFF43A047, 0xFF1E88E5, 0xFFFDD835};
+        int[] pixels = new int[64 * 64];
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                pixels[y * 64 + x] = colors[(y / 32) * 2 + x / 32];
+            }
+        }
+        RegionPaletteTracker tracker =
+                new RegionPaletteTracker(new RegionHistogram(pixels, 64, 64), 2);
+        Palette palette = tracker.update(0, 0, 64, 32);
+        assertEquals(2, palette.size());
+        assertEquals(32 * 32, palette.getPopulation(0));
+
+        // Dragged down onto the other half, the palette follows.
+        palette = tracker.update(0, 32, 64, 64);
+        assertEquals(2, palette.size());
+        for (int i = 0; i < palette.size(); i++) {
+            int color = palette.getColor(i);
+            assertTrue(Integer.toHexString(color), (color & 0xF0F0F0) == (colors[2] & 0xF0F0F0)
+                    || (color & 0xF0F0F0) == (colors[3] & 0xF0F0F0));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class TiledHistogramBuilderTest {
+
+    private static int[] randomImage(int width, int height) {
+        Random random = new Random(42);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static void assertSameCounts(ColorHistogram expected, ColorHistogram actual) {
+        assertEquals(expected.totalCount(), actual.totalCount());
+        for (int i = 0; i < ColorHistogram.SIZE; i++) {
+            assertEquals(expected.count(i), actual.count(i));
+        }
+    }
+
+    @Test
+    public void parallel_matchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // An odd height leaves bands of different sizes.
+            int[] pixels = randomImage(301, 197);
+            ColorHistogram expected = new ColorHistogram();
+            expected.addRows(pixels, 301, 0, 197);
+
+            TiledHistogramBuilder builder = new TiledHistogramBuilder(pool, 0);
+            ColorHistogram actual = new ColorHistogram();
+            builder.addImage(pixels, 301, 197, actual);
+            assertSameCounts(expected, actual);
+
+            // Band histograms are reset between images.
+            actual.clear();
+            builder.addImage(pixels, 301, 197, actual);
+            assertSameCounts(expected, actual);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void smallInput_isCountedInline() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            int[] pixels = randomImage(16, 16);
+            ColorHistogram expected = new ColorHistogram();
+            expected.add(pixels, 0, pixels.length);
+            ColorHistogram actual = new ColorHistogram();
+            new TiledHistogramBuilder(pool).addImage(pixels, 16, 16, actual);
+            assertSameCounts(expected, actual);
+            assertEquals(0, pool.getStealCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
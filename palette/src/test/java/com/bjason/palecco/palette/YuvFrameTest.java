@@ -0,0 +1,133 @@
+package com.bjason.palecco.palette;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class YuvFrameTest {
+
+    /**
+     * Encodes an ARGB image the way a camera would deliver it: full range BT.601, chroma averaged
+     * over 2x2 blocks, and rows padded by {@code padding} bytes. Semi-planar frames interleave
+     * V and U in one buffer, as NV21 does.
+     */
+    static YuvFrame encode(int[] argb, int width, int height, boolean semiPlanar, int padding) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int yRowStride = width + padding;
+        ByteBuffer y = ByteBuffer.allocate(yRowStride * height);
+        int uvPixelStride = semiPlanar ? 2 : 1;
+        int uvRowStride = chromaWidth * uvPixelStride + padding;
+        ByteBuffer vu = ByteBuffer.allocate(uvRowStride * chromaHeight);
+        ByteBuffer u = semiPlanar ? null : ByteBuffer.allocate(uvRowStride * chromaHeight);
+
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int c = argb[row * width + col];
+                int r = (c >> 16) & 0xFF, g = (c >> 8) & 0xFF, b = c & 0xFF;
+                y.put(row * yRowStride + col, (byte) clamp(0.299 * r + 0.587 * g + 0.114 * b));
+            }
+        }
+        for (int cy = 0; cy < chromaHeight; cy++) {
+            for (int cx = 0; cx < chromaWidth; cx++) {
+                double sumU = 0, sumV = 0;
+                int n = 0;
+                for (int row = 2 * cy; row < Math.min(height, 2 * cy + 2); row++) {
+                    for (int col = 2 * cx; col < Math.min(width, 2 * cx + 2); col++) {
+                        int c = argb[row * width + col];
+                        int r = (c >> 16) & 0xFF, g = (c >> 8) & 0xFF, b = c & 0xFF;
+                        sumU += -0.168736 * r - 0.331264 * g + 0.5 * b + 128;
+                        sumV += 0.5 * r - 0.418688 * g - 0.081312 * b + 128;
+                        n++;
+                    }
+                }
+                int offset = cy * uvRowStride + cx * uvPixelStride;
+                if (semiPlanar) {
+                    vu.put(offset, (byte) clamp(sumV / n));
+                    vu.put(offset + 1, (byte) clamp(sumU / n));
+                } else {
+                    vu.put(offset, (byte) clamp(sumV / n));
+                    u.put(offset, (byte) clamp(sumU / n));
+                }
+            }
+        }
+        if (semiPlanar) {
+            // Like android.media.Image, the U plane starts one byte into the shared buffer.
+            ByteBuffer shifted = vu.duplicate();
+            shifted.position(1);
+            u = shifted.slice();
+        }
+        return new YuvFrame(width, height, y, yRowStride, u, vu, uvRowStride, uvPixelStride);
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    /** A frame split into four solid quadrants. */
+    static int[] quadrants(int width, int height, int[] colors) {
+        int[] pixels = new int[width * height];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int quadrant = (row < height / 2 ? 0 : 2) + (col < width / 2 ? 0 : 1);
+                pixels[row * width + col] = colors[quadrant];
+            }
+        }
+        return pixels;
+    }
+
+    private static void assertClose(int expected, int actual, int tolerance) {
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int e = (expected >> shift) & 0xFF;
+            int a = (actual >> shift) & 0xFF;
+            assertTrue(String.format("#%06X vs #%06X", expected & 0xFFFFFF, actual & 0xFFFFFF),
+                    Math.abs(e - a) <= tolerance);
+        }
+    }
+
+    @Test
+    public void solidFrame_landsInTheBucketOfItsColor() {
+        int color = 0xFF336699;
+        int[] pixels = new int[16 * 8];
+        java.util.Arrays.fill(pixels, color);
+        ColorHistogram histogram = new ColorHistogram();
+        encode(pixels, 16, 8, false, 0).addTo(histogram, 1);
+
+        assertEquals(16 * 8, histogram.totalCount());
+        assertEquals(1, histogram.distinctColors());
+        int[] buckets = new int[1];
+        histogram.copyNonEmptyIndices(buckets);
+        assertClose(color, ColorHistogram.toArgb(buckets[0]), 8);
+    }
+
+    @Test
+    public void planarAndSemiPlanar_withPaddingAndOddSize_agree() {
+        int[] colors = {0xFFE53935, 0xFF43A047, 0xFF1E88E5, 0xFFFDD835};
+        int[] pixels = quadrants(33, 17, colors);
+        ColorHistogram planar = new ColorHistogram();
+        encode(pixels, 33, 17, false, 7).addTo(planar, 1);
+        ColorHistogram semiPlanar = new ColorHistogram();
+        encode(pixels, 33, 17, true, 5).addTo(semiPlanar, 1);
+
+        assertEquals(33 * 17, planar.totalCount());
+        for (int i = 0; i < ColorHistogram.SIZE; i++) {
+            assertEquals(planar.count(i), semiPlanar.count(i));
+        }
+    }
+
+    @Test
+    public void step_boundsTheSamples() {
+        int[] pixels = quadrants(640, 480, new int[]{0xFF000000, 0xFF444444, 0xFF888888,
+                0xFFCCCCCC});
+        YuvFrame frame = encode(pixels, 640, 480, true, 0);
+        int step = frame.stepFor(16 * 1024);
+        ColorHistogram histogram = new ColorHistogram();
+        frame.addTo(histogram, step);
+
+        assertTrue(histogram.totalCount() <= 16 * 1024);
+        assertTrue(histogram.totalCount() > 16 * 1024 / 4);
+        assertEquals(1, frame.stepFor(640 * 480));
+    }
+}